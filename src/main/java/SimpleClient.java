@@ -1,3 +1,5 @@
+import netty03.ByteBuf;
+import netty03.PooledByteBufferAllocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.IOException;
@@ -6,6 +8,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -47,14 +50,19 @@ public class SimpleClient {
                 //如果是读事件
                 if (key.isReadable()) {
                     SocketChannel channel = (SocketChannel)key.channel();
-                    //分配字节缓冲区来接受服务端传过来的数据
-                    ByteBuffer buffer = ByteBuffer.allocate(1024);
-                    //向buffer写入客户端传来的数据
-                    int len = channel.read(buffer);
-                    byte[] readByte = new byte[len];
-                    buffer.flip();
-                    buffer.get(readByte);
-                    logger.info("读到来自服务端的数据：" + new String(readByte));
+                    //分配ByteBuf来接受服务端传过来的数据，读写索引是分开的，不需要flip，也不需要再拷贝一次
+                    ByteBuf buffer = PooledByteBufferAllocator.DEFAULT.heapBuffer(1024);
+                    try {
+                        //向buffer写入服务端传来的数据
+                        int len = buffer.writeBytes(channel, buffer.writableBytes());
+                        if (len == -1) {
+                            channel.close();
+                            return;
+                        }
+                        logger.info("读到来自服务端的数据：" + buffer.toString(Charset.defaultCharset()));
+                    } finally {
+                        buffer.release();
+                    }
                 }
             }
         }
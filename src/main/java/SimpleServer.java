@@ -1,3 +1,5 @@
+import netty03.PooledByteBuffer;
+import netty03.PooledByteBufferAllocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.IOException;
@@ -80,18 +82,23 @@ public class SimpleServer {
                 //如果接受到的为可读事件，说明要用客户端的channel来处理
                 if (key.isReadable()) {
                     SocketChannel channel = (SocketChannel)key.channel();
-                    //分配字节缓冲区来接受客户端传过来的数据
-                    ByteBuffer buffer = ByteBuffer.allocate(1024);
-                    //向buffer写入客户端传来的数据
-                    int len = channel.read(buffer);
-                    logger.info("读到的字节数：" + len);
-                    if (len == -1) {
-                        channel.close();
-                        break;
-                    }else{
-                        //切换buffer的读模式
-                        buffer.flip();
-                        logger.info(Charset.defaultCharset().decode(buffer).toString());
+                    //从内存池中分配字节缓冲区来接受客户端传过来的数据，用完之后要归还
+                    PooledByteBuffer pooled = PooledByteBufferAllocator.DEFAULT.allocateHeap(1024);
+                    try {
+                        ByteBuffer buffer = pooled.nioBuffer();
+                        //向buffer写入客户端传来的数据
+                        int len = channel.read(buffer);
+                        logger.info("读到的字节数：" + len);
+                        if (len == -1) {
+                            channel.close();
+                            break;
+                        }else{
+                            //切换buffer的读模式
+                            buffer.flip();
+                            logger.info(Charset.defaultCharset().decode(buffer).toString());
+                        }
+                    } finally {
+                        pooled.release();
                     }
                 }
             }
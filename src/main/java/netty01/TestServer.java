@@ -4,13 +4,7 @@ import ch.qos.logback.classic.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Set;
 
 /**
  * @author Joe Lee
@@ -23,44 +17,22 @@ public class  TestServer {
 
     public static void main(String[] args) throws Exception {
         ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
-        serverSocketChannel.configureBlocking(false);
-        //创建新的线程
-        Thread thread = new Thread();
-        Work work = new Work();
-        //得到work中的selector
-        Selector workSelector = work.getSelector();
-
-        Selector selector = Selector.open();
-        SelectionKey selectionKey = serverSocketChannel.register(selector, 0, serverSocketChannel);
-        selectionKey.interestOps(SelectionKey.OP_ACCEPT);
         serverSocketChannel.bind(new InetSocketAddress(8080));
-
-        while (true) {
-            logger.info("main函数阻塞在这里吧。。。。。。。");
-            selector.select();
-            Set<SelectionKey> selectionKeys = selector.selectedKeys();
-            Iterator<SelectionKey> keyIterator = selectionKeys.iterator();
-            //如果一瞬间有几百 、 几千个客户端连接涌进来，服务端的主线程必须处理完一个连接，确保它真正注册到新建线程持有的 selector 上，才能继续处理下一个.
-            while (keyIterator.hasNext()) {
-                SelectionKey key = keyIterator.next();
-                keyIterator.remove();
-                if (key.isAcceptable()) {
-                    ServerSocketChannel channel = (ServerSocketChannel) key.channel();
-                    //得到客户端的channel
-                    SocketChannel socketChannel = channel.accept();
-                    socketChannel.configureBlocking(false);
-                    //把客户端的channel注册到新线程的selector上，但这时，新的线程还未启动
-                    SelectionKey socketChannelKey = socketChannel.register(workSelector, 0, socketChannel);
-                    //给客户端的channel设置可读事件
-                    socketChannelKey.interestOps(SelectionKey.OP_READ);
-                    //可以启动新的线程了,在while循环中，我们必须保证线程只启动一次
-                    work.start();
-                    logger.info("客户端在main函数中连接成功！");
-                    //连接成功之后，用客户端的channel写回一条消息
-                    socketChannel.write(ByteBuffer.wrap("客户端发送成功了".getBytes()));
-                    logger.info("main函数服务器向客户端发送数据成功！");
-                }
+        //worker负责处理客户端channel的读事件
+        final Work worker = new Work();
+        //boss负责接收连接，接收到的客户端channel交给worker
+        final Work boss = new Work(worker);
+        //如果一瞬间有几百 、 几千个客户端连接涌进来，之前main线程要自己接收连接、注册channel、还要写回消息，
+        //现在这些工作都交给了boss线程，main线程绑定完端口就可以结束了
+        boss.bind(serverSocketChannel);
+        logger.info("服务端启动成功，监听8080端口！");
+        //JVM退出的时候先停止boss，不再接收新连接，再停止worker，关闭已有的连接
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boss.shutdown();
+                worker.shutdown();
             }
-        }
+        }));
     }
 }
@@ -1,14 +1,19 @@
 package netty01;
 
 import org.slf4j.Logger;
+import netty03.PooledByteBuffer;
+import netty03.PooledByteBufferAllocator;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * @author Joe Lee
@@ -20,6 +25,8 @@ import java.util.Iterator;
  * 另一个线程得到的当然为 null。
  * 因此，我们新创建的线程，只能够处理 read 和 write 事件。
  * 当有新的客户端连接被接收后，该客户端的 channel 将被注册到新线程持有的 selector 上，每当 selector 有读事件到来，就由新的线程来处理。
+ * 现在 Work 也可以作为 boss 使用：服务端的 channel 注册在 boss 的 selector 上，由 boss 线程接收连接，
+ * 再把客户端的 channel 交给 worker，main 线程不再需要自己轮询 OP_ACCEPT 事件。
  */
 public class Work implements Runnable{
 
@@ -27,16 +34,60 @@ public class Work implements Runnable{
 
     private boolean flags;
 
+    //为false时线程退出循环，关闭selector和所有的channel。其他线程会修改它，所以要用volatile修饰
+    private volatile boolean running = true;
+
     private Selector selector = Selector.open();;
 
     private Thread thread;
 
     private SelectionKey selectionKey;
 
+    //boss线程接收到的客户端channel要交给这个worker，如果是worker本身，该属性为null
+    private final Work worker;
+
+    //boss线程交过来的、还没有注册到selector上的客户端channel
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<SocketChannel>();
+
     public Work() throws IOException {
+        this(null);
+    }
+
+    public Work(Work worker) throws IOException {
+        this.worker = worker;
         thread = new Thread(this);
     }
 
+    /**
+     * 把服务端的channel注册到boss的selector上，要在线程启动之前调用
+     */
+    public void bind(ServerSocketChannel serverSocketChannel) throws IOException {
+        serverSocketChannel.configureBlocking(false);
+        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        start();
+    }
+
+    /**
+     * 由boss线程调用，把客户端的channel交给worker。worker线程可能正阻塞在select上，
+     * 所以这里只是把channel放进队列，再唤醒selector，真正的注册由worker线程自己完成
+     */
+    public void register(SocketChannel socketChannel) {
+        pendingChannels.offer(socketChannel);
+        start();
+        selector.wakeup();
+    }
+
+    //在worker线程中把队列里的客户端channel注册到自己的selector上
+    private void registerPendingChannels() throws IOException {
+        SocketChannel socketChannel;
+        while ((socketChannel = pendingChannels.poll()) != null) {
+            socketChannel.configureBlocking(false);
+            socketChannel.register(selector, SelectionKey.OP_READ, socketChannel);
+            //连接注册成功之后，由worker线程给客户端写回一条消息
+            socketChannel.write(ByteBuffer.wrap("客户端发送成功了".getBytes()));
+        }
+    }
+
     public Selector getSelector() {
         return selector;
     }
@@ -45,9 +96,17 @@ public class Work implements Runnable{
         this.selector = selector;
     }
 
-    public void start() {
+    /**
+     * 停止线程。线程可能正阻塞在select上，修改标记之后要唤醒selector，线程醒来之后就会退出循环
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public synchronized void start() {
         //保证只启动一次
-        //单一个main线程，这样写没问题
+        //现在boss线程和main线程都可能调用该方法，所以要加锁
         if (flags) {
             return;
         }
@@ -57,33 +116,76 @@ public class Work implements Runnable{
 
     @Override
     public void run() {
-        while (true) {
+        //这个线程不是执行器的线程，要主动开启线程缓存，读数据时分配缓冲区才不用每次都对arena加锁
+        PooledByteBufferAllocator.DEFAULT.useThreadLocalCache();
+        while (running) {
             logger.info("新线程阻塞在这里吧。。。。。。。");
             try {
                 selector.select();
+                registerPendingChannels();
                 Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
                 while (iterator.hasNext()) {
                     SelectionKey selectionKey = iterator.next();
                     iterator.remove();
+                    //boss线程接收连接，并把客户端的channel交给worker
+                    if (selectionKey.isAcceptable()) {
+                        ServerSocketChannel channel = (ServerSocketChannel) selectionKey.channel();
+                        SocketChannel socketChannel = channel.accept();
+                        if (socketChannel != null) {
+                            worker.register(socketChannel);
+                            logger.info("客户端在boss线程中连接成功！");
+                        }
+                        continue;
+                    }
                     if (selectionKey.isReadable()) {
                         SocketChannel channel = (SocketChannel)selectionKey.channel();
-                        ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
-                        int len = channel.read(byteBuffer);
-                        if (len == -1) {
-                            logger.info("客户端通道要关闭！");
-                            channel.close();
-                            break;
+                        //从内存池中分配缓冲区，用完之后归还，不再每次读都创建新的ByteBuffer和byte数组
+                        PooledByteBuffer buffer = PooledByteBufferAllocator.DEFAULT.allocateHeap(1024);
+                        try {
+                            int len = channel.read(buffer.nioBuffer());
+                            if (len == -1) {
+                                logger.info("客户端通道要关闭！");
+                                channel.close();
+                                break;
+                            }
+                            logger.info("新线程收到客户端发送的数据:{}",new String(buffer.array(), buffer.arrayOffset(), len));
+                        } finally {
+                            buffer.release();
                         }
-                        byte[] bytes = new byte[len];
-                        byteBuffer.flip();
-                        byteBuffer.get(bytes);
-                        logger.info("新线程收到客户端发送的数据:{}",new String(bytes));
                     }
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+        closeAll();
     }
-}
 
+    //线程退出之前关闭注册在selector上的所有channel，最后关闭selector
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                logger.warn("关闭channel失败", e);
+            }
+        }
+        //还没来得及注册的客户端channel也要关闭
+        SocketChannel socketChannel;
+        while ((socketChannel = pendingChannels.poll()) != null) {
+            try {
+                socketChannel.close();
+            } catch (IOException e) {
+                logger.warn("关闭channel失败", e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.warn("关闭selector失败", e);
+        }
+        //线程缓存中的内存还给内存池，否则就泄漏了
+        PooledByteBufferAllocator.DEFAULT.freeThreadLocalCache();
+        logger.info("线程退出了！");
+    }
+}
@@ -1,12 +1,15 @@
 package netty02;
 
 import org.slf4j.Logger;
+import netty03.PooledByteBuffer;
+import netty03.PooledByteBufferAllocator;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.Iterator;
@@ -16,6 +19,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Joe Lee
@@ -38,6 +42,12 @@ public class SingleThreadEventExecutor implements Executor {
 
     private volatile boolean start = false;
 
+    //没有IO事件也没有被唤醒时，selector最多阻塞的时间，作为兜底
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+    //标记selector是否已经被唤醒了，避免重复调用 selector.wakeup()
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
     //用于获取Socket
     private final SelectorProvider provider;
 
@@ -59,13 +69,31 @@ public class SingleThreadEventExecutor implements Executor {
 
     @Override
     public void execute(Runnable task) {
+        execute(task, true);
+    }
+
+    /**
+     * @Author:
+     * @Description: 提交一个对延迟不敏感的任务，不会唤醒阻塞在selector上的线程，省掉一次wakeup系统调用
+     */
+    public void lazyExecute(Runnable task) {
+        execute(task, false);
+    }
+
+    private void execute(Runnable task, boolean immediate) {
         if (task == null) {
             throw new NullPointerException("task");
         }
+        boolean inEventLoop = inEventLoop(Thread.currentThread());
         //把任务提交到任务队列中
         addTask(task);
         //启动单线程执行器中的线程
         startThread();
+        //外部线程提交了任务，要唤醒阻塞在selector上的线程，任务才能被及时执行。
+        //wakenUp保证了在线程醒来之前，无论提交多少任务都只调用一次selector.wakeup()
+        if (immediate && !inEventLoop && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
     }
 
     private void addTask(Runnable task) {
@@ -182,6 +210,37 @@ public class SingleThreadEventExecutor implements Executor {
         try {
             channel.configureBlocking(false);
             channel.register(selector, SelectionKey.OP_READ);
+            //注册成功之后，由执行器的线程给客户端写回一条消息，不再占用main线程
+            channel.write(ByteBuffer.wrap("我发送成功了".getBytes()));
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * @Author:
+     * @Description: 把服务端的channel注册到当前执行器上，当前执行器就成了boss，专门处理OP_ACCEPT事件，
+     * 接收到的客户端channel会交给worker执行器处理
+     */
+    public void register(ServerSocketChannel serverSocketChannel, SingleThreadEventExecutor worker) {
+        if (inEventLoop(Thread.currentThread())) {
+            register0(serverSocketChannel, worker);
+        }else {
+            this.execute(new Runnable() {
+                @Override
+                public void run() {
+                    register0(serverSocketChannel, worker);
+                    logger.info("服务端的channel已注册到boss线程的多路复用器上了！");
+                }
+            });
+        }
+    }
+
+    private void register0(ServerSocketChannel channel, SingleThreadEventExecutor worker) {
+        try {
+            channel.configureBlocking(false);
+            //把worker作为附件，接收到客户端连接的时候从key中取出来
+            channel.register(selector, SelectionKey.OP_ACCEPT, worker);
         } catch (Exception e) {
             logger.error(e.getMessage());
         }
@@ -204,18 +263,23 @@ public class SingleThreadEventExecutor implements Executor {
      * @Author:
      * @Description: 判断线程是否需要在selector阻塞，或者继续运行的方法，为什么现在需要这个方法了？
      * 因为现在我们新创建的线程不仅要处理io事件，还要处理用户提交过来的任务，如果一直在selector上阻塞着，
-     * 显然用户提交的任务也就无法执行了。所以要有限时的阻塞，并且只要用户提交了任务，就要去执行那些任务。
+     * 显然用户提交的任务也就无法执行了。所以用户提交任务的时候会唤醒selector，只要用户提交了任务，就要去执行那些任务。
      * 在这里，用户提交的任务就是把客户端channel注册到selector上。
      */
     private void select() throws IOException {
         Selector selector = this.selector;
         //这里是一个死循环
         for (;;){
-            //如果没有就绪事件，就在这里阻塞3秒，有限时的阻塞
-            logger.info("新线程阻塞在这里3秒吧。。。。。。。");
-            int selectedKeys = selector.select(3000);
-            //如果有事件或者单线程执行器中有任务待执行，或者有IO事件要执行，就退出循环
-            if (selectedKeys != 0 || hasTasks()) {
+            //任务队列中已经有任务了，就不能再阻塞，非阻塞地查询一下就绪的IO事件，然后去执行任务
+            if (hasTasks()) {
+                selector.selectNow();
+                break;
+            }
+            //如果没有就绪事件，就在这里阻塞，外部线程提交任务的时候会把selector唤醒
+            logger.trace("新线程阻塞在这里，直到有IO事件或者被唤醒。。。。。。。");
+            int selectedKeys = selector.select(SELECT_TIMEOUT_MILLIS);
+            //如果有事件、被外部线程唤醒了，或者单线程执行器中有任务待执行，就退出循环
+            if (selectedKeys != 0 || wakenUp.get() || hasTasks()) {
                 break;
             }
         }
@@ -238,36 +302,58 @@ public class SingleThreadEventExecutor implements Executor {
     }
 
     private void processSelectedKey(SelectionKey k) throws IOException {
+        //如果是接收连接事件，就把接收到的客户端channel交给worker执行器
+        if (k.isAcceptable()) {
+            ServerSocketChannel serverChannel = (ServerSocketChannel) k.channel();
+            SingleThreadEventExecutor worker = (SingleThreadEventExecutor) k.attachment();
+            SocketChannel socketChannel = serverChannel.accept();
+            if (socketChannel != null) {
+                worker.register(socketChannel);
+                logger.info("客户端在boss线程中连接成功！");
+            }
+            return;
+        }
         //如果是读事件
         if (k.isReadable()) {
             SocketChannel channel = (SocketChannel)k.channel();
-            ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
-            int len = channel.read(byteBuffer);
-            if (len == -1) {
-                logger.info("客户端通道要关闭！");
-                channel.close();
-                return;
+            //从内存池中分配缓冲区，用完之后归还，不再每次读都创建新的ByteBuffer和byte数组
+            PooledByteBuffer buffer = PooledByteBufferAllocator.DEFAULT.allocateHeap(1024);
+            try {
+                int len = channel.read(buffer.nioBuffer());
+                if (len == -1) {
+                    logger.info("客户端通道要关闭！");
+                    channel.close();
+                    return;
+                }
+                logger.info("新线程收到客户端发送的数据:{}",new String(buffer.array(), buffer.arrayOffset(), len));
+            } finally {
+                buffer.release();
             }
-            byte[] bytes = new byte[len];
-            byteBuffer.flip();
-            byteBuffer.get(bytes);
-            logger.info("新线程收到客户端发送的数据:{}",new String(bytes));
         }
     }
 
     public void run() {
-        while (true) {
-            try {
-                //没有事件就阻塞在这里
-                select();
-                //如果走到这里，就说明selector没有阻塞了
-                processSelectedKeys(selector.selectedKeys());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }finally {
-                //执行单线程执行器中的所有任务
-                runAllTasks();
+        //这个线程不是netty03执行器的线程，要主动开启线程缓存，读数据时分配缓冲区才不用每次都对arena加锁
+        PooledByteBufferAllocator.DEFAULT.useThreadLocalCache();
+        try {
+            while (true) {
+                try {
+                    //每次阻塞之前先把wakenUp重置为false，之后外部线程提交任务时就可以再次唤醒selector了
+                    wakenUp.set(false);
+                    //没有事件就阻塞在这里
+                    select();
+                    //如果走到这里，就说明selector没有阻塞了
+                    processSelectedKeys(selector.selectedKeys());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }finally {
+                    //执行单线程执行器中的所有任务
+                    runAllTasks();
+                }
             }
+        } finally {
+            //线程因为Error退出的时候，把线程缓存中的内存还给内存池
+            PooledByteBufferAllocator.DEFAULT.freeThreadLocalCache();
         }
     }
 }
@@ -4,13 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Set;
 
 /**
  * @author Joe Lee
@@ -23,33 +17,12 @@ public class TestServer {
 
     public static void main(String[] args) throws Exception {
         ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
-        serverSocketChannel.configureBlocking(false);
-        Selector selector = Selector.open();
-        SelectionKey selectionKey = serverSocketChannel.register(selector, 0, serverSocketChannel);
-        selectionKey.interestOps(SelectionKey.OP_ACCEPT);
         serverSocketChannel.bind(new InetSocketAddress(8080));
-        //创建单线程执行器
-        SingleThreadEventExecutor singleThreadEventExecutor = new SingleThreadEventExecutor();
-        while (true) {
-            logger.info("main函数阻塞在这里吧。。。。。。。");
-            selector.select();
-            Set<SelectionKey> selectionKeys = selector.selectedKeys();
-            Iterator<SelectionKey> keyIterator = selectionKeys.iterator();
-            while (keyIterator.hasNext()) {
-                SelectionKey key = keyIterator.next();
-                keyIterator.remove();
-                if (key.isAcceptable()) {
-                    ServerSocketChannel channel = (ServerSocketChannel)key.channel();
-                    //得到客户端的channel
-                    SocketChannel socketChannel = channel.accept();
-                    //把客户端的channel注册到新线程的selector上
-                    singleThreadEventExecutor.register(socketChannel);
-                    logger.info("客户端在main函数中连接成功！");
-                    //连接成功之后，用客户端的channel写回一条消息
-                    socketChannel.write(ByteBuffer.wrap("我发送成功了".getBytes()));
-                    logger.info("main函数服务器向客户端发送数据成功！");
-                }
-            }
-        }
+        //创建两个单线程执行器，boss负责接收连接，worker负责处理客户端channel的读写
+        SingleThreadEventExecutor boss = new SingleThreadEventExecutor();
+        SingleThreadEventExecutor worker = new SingleThreadEventExecutor();
+        //把服务端的channel注册到boss上，之后main线程就不需要自己轮询OP_ACCEPT事件了
+        boss.register(serverSocketChannel, worker);
+        logger.info("服务端启动成功，监听8080端口！");
     }
 }
@@ -0,0 +1,104 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description ByteBufAllocator 的骨架实现，负责参数的默认值和校验，子类只需要实现真正创建 ByteBuf 的两个方法
+ */
+public abstract class AbstractByteBufAllocator implements ByteBufAllocator {
+
+    static final int DEFAULT_INITIAL_CAPACITY = 256;
+
+    static final int DEFAULT_MAX_CAPACITY = Integer.MAX_VALUE;
+
+    //buffer()方法是否默认分配直接内存
+    private final boolean directByDefault;
+
+    protected AbstractByteBufAllocator() {
+        this(false);
+    }
+
+    protected AbstractByteBufAllocator(boolean preferDirect) {
+        directByDefault = preferDirect;
+    }
+
+    @Override
+    public ByteBuf buffer() {
+        if (directByDefault) {
+            return directBuffer();
+        }
+        return heapBuffer();
+    }
+
+    @Override
+    public ByteBuf buffer(int initialCapacity) {
+        if (directByDefault) {
+            return directBuffer(initialCapacity);
+        }
+        return heapBuffer(initialCapacity);
+    }
+
+    @Override
+    public ByteBuf buffer(int initialCapacity, int maxCapacity) {
+        if (directByDefault) {
+            return directBuffer(initialCapacity, maxCapacity);
+        }
+        return heapBuffer(initialCapacity, maxCapacity);
+    }
+
+    @Override
+    public ByteBuf heapBuffer() {
+        return heapBuffer(DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_CAPACITY);
+    }
+
+    @Override
+    public ByteBuf heapBuffer(int initialCapacity) {
+        return heapBuffer(initialCapacity, DEFAULT_MAX_CAPACITY);
+    }
+
+    @Override
+    public ByteBuf heapBuffer(int initialCapacity, int maxCapacity) {
+        validate(initialCapacity, maxCapacity);
+        return newHeapBuffer(initialCapacity, maxCapacity);
+    }
+
+    @Override
+    public ByteBuf directBuffer() {
+        return directBuffer(DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_CAPACITY);
+    }
+
+    @Override
+    public ByteBuf directBuffer(int initialCapacity) {
+        return directBuffer(initialCapacity, DEFAULT_MAX_CAPACITY);
+    }
+
+    @Override
+    public ByteBuf directBuffer(int initialCapacity, int maxCapacity) {
+        validate(initialCapacity, maxCapacity);
+        return newDirectBuffer(initialCapacity, maxCapacity);
+    }
+
+    @Override
+    public CompositeByteBuf compositeBuffer() {
+        return compositeBuffer(CompositeByteBuf.DEFAULT_MAX_COMPONENTS);
+    }
+
+    @Override
+    public CompositeByteBuf compositeBuffer(int maxNumComponents) {
+        return new CompositeByteBuf(this, directByDefault, maxNumComponents);
+    }
+
+    private static void validate(int initialCapacity, int maxCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity: " + initialCapacity + " (expected: 0+)");
+        }
+        if (initialCapacity > maxCapacity) {
+            throw new IllegalArgumentException(String.format(
+                    "initialCapacity: %d (expected: not greater than maxCapacity(%d)", initialCapacity, maxCapacity));
+        }
+    }
+
+    protected abstract ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity);
+
+    protected abstract ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity);
+}
@@ -0,0 +1,477 @@
+package netty03;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description ChannelPipeline 中双向链表的节点。传递事件时先沿着链表找到下一个能处理该事件的节点，
+ * 如果当前线程就是 channel 的事件循环线程，就直接调用处理器的方法，否则把调用封装成任务提交给事件循环。
+ * 所以处理器的方法永远只会被同一个线程调用，不需要任何锁
+ */
+abstract class AbstractChannelHandlerContext implements ChannelHandlerContext {
+
+    private static final Logger logger = LoggerFactory.getLogger(AbstractChannelHandlerContext.class);
+
+    //链表可能被其他线程修改，事件循环线程要能马上看到
+    volatile AbstractChannelHandlerContext next;
+
+    volatile AbstractChannelHandlerContext prev;
+
+    private final DefaultChannelPipeline pipeline;
+
+    private final String name;
+
+    private final boolean inbound;
+
+    private final boolean outbound;
+
+    private volatile boolean removed;
+
+    AbstractChannelHandlerContext(DefaultChannelPipeline pipeline, String name, boolean inbound, boolean outbound) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        this.pipeline = pipeline;
+        this.name = name;
+        this.inbound = inbound;
+        this.outbound = outbound;
+    }
+
+    @Override
+    public Channel channel() {
+        return pipeline.channel();
+    }
+
+    @Override
+    public NioEventLoop executor() {
+        return channel().eventLoop();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public ChannelPipeline pipeline() {
+        return pipeline;
+    }
+
+    @Override
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    void setRemoved() {
+        removed = true;
+    }
+
+    @Override
+    public ByteBufAllocator alloc() {
+        return channel().alloc();
+    }
+
+    /**
+     * 从当前节点往后找到第一个入站处理器，尾节点一定是入站处理器，所以不会越界
+     */
+    private AbstractChannelHandlerContext findContextInbound() {
+        AbstractChannelHandlerContext ctx = this;
+        do {
+            ctx = ctx.next;
+        } while (!ctx.inbound);
+        return ctx;
+    }
+
+    /**
+     * 从当前节点往前找到第一个出站处理器，头节点一定是出站处理器，所以不会越界
+     */
+    private AbstractChannelHandlerContext findContextOutbound() {
+        AbstractChannelHandlerContext ctx = this;
+        do {
+            ctx = ctx.prev;
+        } while (!ctx.outbound);
+        return ctx;
+    }
+
+    /**
+     * 判断能否在当前线程直接调用处理器。channel还没有注册的时候没有事件循环，
+     * 这时也不会有IO事件，直接在调用者的线程中执行
+     */
+    private static boolean inEventLoop(NioEventLoop executor) {
+        return executor == null || executor.inEventLoop(Thread.currentThread());
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelRegistered() {
+        invokeChannelRegistered(findContextInbound());
+        return this;
+    }
+
+    static void invokeChannelRegistered(final AbstractChannelHandlerContext next) {
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeChannelRegistered();
+        } else {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    next.invokeChannelRegistered();
+                }
+            });
+        }
+    }
+
+    private void invokeChannelRegistered() {
+        try {
+            ((ChannelInboundHandler) handler()).channelRegistered(this);
+        } catch (Throwable t) {
+            notifyHandlerException(t);
+        }
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelUnregistered() {
+        invokeChannelUnregistered(findContextInbound());
+        return this;
+    }
+
+    static void invokeChannelUnregistered(final AbstractChannelHandlerContext next) {
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeChannelUnregistered();
+        } else {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    next.invokeChannelUnregistered();
+                }
+            });
+        }
+    }
+
+    private void invokeChannelUnregistered() {
+        try {
+            ((ChannelInboundHandler) handler()).channelUnregistered(this);
+        } catch (Throwable t) {
+            notifyHandlerException(t);
+        }
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelActive() {
+        invokeChannelActive(findContextInbound());
+        return this;
+    }
+
+    static void invokeChannelActive(final AbstractChannelHandlerContext next) {
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeChannelActive();
+        } else {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    next.invokeChannelActive();
+                }
+            });
+        }
+    }
+
+    private void invokeChannelActive() {
+        try {
+            ((ChannelInboundHandler) handler()).channelActive(this);
+        } catch (Throwable t) {
+            notifyHandlerException(t);
+        }
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelInactive() {
+        invokeChannelInactive(findContextInbound());
+        return this;
+    }
+
+    static void invokeChannelInactive(final AbstractChannelHandlerContext next) {
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeChannelInactive();
+        } else {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    next.invokeChannelInactive();
+                }
+            });
+        }
+    }
+
+    private void invokeChannelInactive() {
+        try {
+            ((ChannelInboundHandler) handler()).channelInactive(this);
+        } catch (Throwable t) {
+            notifyHandlerException(t);
+        }
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelRead(Object msg) {
+        invokeChannelRead(findContextInbound(), msg);
+        return this;
+    }
+
+    static void invokeChannelRead(final AbstractChannelHandlerContext next, final Object msg) {
+        if (msg == null) {
+            throw new NullPointerException("msg");
+        }
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeChannelRead(msg);
+        } else {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    next.invokeChannelRead(msg);
+                }
+            });
+        }
+    }
+
+    private void invokeChannelRead(Object msg) {
+        try {
+            ((ChannelInboundHandler) handler()).channelRead(this, msg);
+        } catch (Throwable t) {
+            notifyHandlerException(t);
+        }
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelReadComplete() {
+        invokeChannelReadComplete(findContextInbound());
+        return this;
+    }
+
+    static void invokeChannelReadComplete(final AbstractChannelHandlerContext next) {
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeChannelReadComplete();
+        } else {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    next.invokeChannelReadComplete();
+                }
+            });
+        }
+    }
+
+    private void invokeChannelReadComplete() {
+        try {
+            ((ChannelInboundHandler) handler()).channelReadComplete(this);
+        } catch (Throwable t) {
+            notifyHandlerException(t);
+        }
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelWritabilityChanged() {
+        invokeChannelWritabilityChanged(findContextInbound());
+        return this;
+    }
+
+    static void invokeChannelWritabilityChanged(final AbstractChannelHandlerContext next) {
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeChannelWritabilityChanged();
+        } else {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    next.invokeChannelWritabilityChanged();
+                }
+            });
+        }
+    }
+
+    private void invokeChannelWritabilityChanged() {
+        try {
+            ((ChannelInboundHandler) handler()).channelWritabilityChanged(this);
+        } catch (Throwable t) {
+            notifyHandlerException(t);
+        }
+    }
+
+    @Override
+    public ChannelHandlerContext fireExceptionCaught(Throwable cause) {
+        invokeExceptionCaught(findContextInbound(), cause);
+        return this;
+    }
+
+    static void invokeExceptionCaught(final AbstractChannelHandlerContext next, final Throwable cause) {
+        if (cause == null) {
+            throw new NullPointerException("cause");
+        }
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeExceptionCaught(cause);
+        } else {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    next.invokeExceptionCaught(cause);
+                }
+            });
+        }
+    }
+
+    private void invokeExceptionCaught(Throwable cause) {
+        try {
+            ((ChannelInboundHandler) handler()).exceptionCaught(this, cause);
+        } catch (Throwable t) {
+            //处理异常的方法自己又抛出了异常，不能再传递下去了，否则可能无限循环
+            logger.warn("An exception was thrown by a user handler's exceptionCaught() method while handling the following exception:", cause);
+            logger.warn("The exceptionCaught() method threw:", t);
+        }
+    }
+
+    @Override
+    public void write(Object msg) {
+        write(msg, false);
+    }
+
+    @Override
+    public void writeAndFlush(Object msg) {
+        write(msg, true);
+    }
+
+    private void write(final Object msg, final boolean flush) {
+        if (msg == null) {
+            throw new NullPointerException("msg");
+        }
+        final AbstractChannelHandlerContext next = findContextOutbound();
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeWrite(msg);
+            if (flush) {
+                next.invokeFlush();
+            }
+        } else {
+            executor.executeInternal(new WriteTask(next, msg, flush));
+        }
+    }
+
+    /**
+     * 外部线程提交的写任务。提交的时候就把消息的大小算进channel的待发送字节数中，执行的时候再减掉，
+     * 消息真正加进待发送队列的时候会重新计算。这样写任务还在任务队列中排队的时候，外部线程就能通过 isWritable 看到 channel 不可写，
+     * 否则外部线程一直写，任务队列就会一直变大
+     */
+    private static final class WriteTask implements Runnable {
+
+        private final AbstractChannelHandlerContext ctx;
+
+        private final Object msg;
+
+        private final boolean flush;
+
+        private final int size;
+
+        private final ChannelOutboundBuffer buffer;
+
+        WriteTask(AbstractChannelHandlerContext ctx, Object msg, boolean flush) {
+            this.ctx = ctx;
+            this.msg = msg;
+            this.flush = flush;
+            this.size = ChannelOutboundBuffer.total(msg);
+            //channel已经关闭了就不用计算了，写任务执行的时候会直接丢弃消息
+            this.buffer = ctx.channel().unsafe().outboundBuffer();
+            if (buffer != null) {
+                buffer.incrementPendingOutboundBytes(size, true);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (buffer != null) {
+                buffer.decrementPendingOutboundBytes(size, true);
+            }
+            ctx.invokeWrite(msg);
+            if (flush) {
+                ctx.invokeFlush();
+            }
+        }
+    }
+
+    private void invokeWrite(Object msg) {
+        try {
+            ((ChannelOutboundHandler) handler()).write(this, msg);
+        } catch (Throwable t) {
+            notifyHandlerException(t);
+        }
+    }
+
+    @Override
+    public void flush() {
+        final AbstractChannelHandlerContext next = findContextOutbound();
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeFlush();
+        } else {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    next.invokeFlush();
+                }
+            });
+        }
+    }
+
+    private void invokeFlush() {
+        try {
+            ((ChannelOutboundHandler) handler()).flush(this);
+        } catch (Throwable t) {
+            notifyHandlerException(t);
+        }
+    }
+
+    @Override
+    public void close() {
+        final AbstractChannelHandlerContext next = findContextOutbound();
+        NioEventLoop executor = next.executor();
+        if (inEventLoop(executor)) {
+            next.invokeClose();
+        } else {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    next.invokeClose();
+                }
+            });
+        }
+    }
+
+    private void invokeClose() {
+        try {
+            ((ChannelOutboundHandler) handler()).close(this);
+        } catch (Throwable t) {
+            notifyHandlerException(t);
+        }
+    }
+
+    /**
+     * 处理器的方法抛出了异常，从当前处理器开始触发exceptionCaught事件
+     */
+    private void notifyHandlerException(Throwable cause) {
+        if (inbound) {
+            invokeExceptionCaught(cause);
+        } else {
+            //出站处理器没有exceptionCaught方法，交给后面的入站处理器处理
+            invokeExceptionCaught(findContextInbound(), cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + '(' + name + ", " + channel() + ')';
+    }
+}
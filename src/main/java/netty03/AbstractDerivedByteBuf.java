@@ -0,0 +1,40 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 视图 ByteBuf 的父类。视图没有自己的内存，也就没有自己的引用计数，所有的引用计数操作都作用在底层的 ByteBuf 上
+ */
+public abstract class AbstractDerivedByteBuf extends AbstractByteBuf {
+
+    protected AbstractDerivedByteBuf(int maxCapacity) {
+        super(maxCapacity);
+    }
+
+    @Override
+    public final int refCnt() {
+        return unwrap().refCnt();
+    }
+
+    @Override
+    public final ByteBuf retain() {
+        unwrap().retain();
+        return this;
+    }
+
+    @Override
+    public final ByteBuf retain(int increment) {
+        unwrap().retain(increment);
+        return this;
+    }
+
+    @Override
+    public final boolean release() {
+        return unwrap().release();
+    }
+
+    @Override
+    public final boolean release(int decrement) {
+        return unwrap().release(decrement);
+    }
+}
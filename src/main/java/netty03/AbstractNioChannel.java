@@ -0,0 +1,390 @@
+package netty03;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 基于 java nio 的 Channel。注册到 selector 的时候把自己作为附件放进 SelectionKey，
+ * 事件循环处理就绪事件时从 key 中取出 Channel，交给它的 Unsafe 去读数据，读到的数据再从 pipeline 中传递给用户的处理器
+ */
+public abstract class AbstractNioChannel implements Channel {
+
+    private static final Logger logger = LoggerFactory.getLogger(AbstractNioChannel.class);
+
+    private final Channel parent;
+
+    private final SelectableChannel ch;
+
+    //可以读数据时关注的事件，服务端channel是OP_ACCEPT，客户端channel是OP_READ
+    protected final int readInterestOp;
+
+    private final NioUnsafe unsafe;
+
+    private final DefaultChannelPipeline pipeline;
+
+    private final ChannelConfig config;
+
+    //只在注册的时候赋值一次，之后所有的操作都在这个事件循环中执行
+    private volatile NioEventLoop eventLoop;
+
+    //重建selector之后会换成新selector中的key
+    volatile SelectionKey selectionKey;
+
+    private volatile boolean registered;
+
+    //待发送的消息，channel关闭之后置为null，之后再写的消息直接释放
+    private volatile ChannelOutboundBuffer outboundBuffer = new ChannelOutboundBuffer(this);
+
+    protected AbstractNioChannel(Channel parent, SelectableChannel ch, int readInterestOp) {
+        this.parent = parent;
+        this.ch = ch;
+        this.readInterestOp = readInterestOp;
+        try {
+            ch.configureBlocking(false);
+        } catch (IOException e) {
+            try {
+                ch.close();
+            } catch (IOException e2) {
+                logger.warn("Failed to close a partially initialized socket.", e2);
+            }
+            throw new IllegalStateException("Failed to enter non-blocking mode.", e);
+        }
+        //pipeline的头节点要用到unsafe，所以先创建unsafe
+        unsafe = newUnsafe();
+        pipeline = new DefaultChannelPipeline(this);
+        config = new DefaultChannelConfig(this);
+    }
+
+    protected abstract NioUnsafe newUnsafe();
+
+    @Override
+    public NioEventLoop eventLoop() {
+        return eventLoop;
+    }
+
+    @Override
+    public Channel parent() {
+        return parent;
+    }
+
+    @Override
+    public ChannelPipeline pipeline() {
+        return pipeline;
+    }
+
+    @Override
+    public ChannelConfig config() {
+        return config;
+    }
+
+    @Override
+    public ByteBufAllocator alloc() {
+        return PooledByteBufferAllocator.DEFAULT;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return ch.isOpen();
+    }
+
+    @Override
+    public boolean isWritable() {
+        ChannelOutboundBuffer buf = outboundBuffer;
+        return buf != null && buf.isWritable();
+    }
+
+    @Override
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    @Override
+    public void write(Object msg) {
+        pipeline.write(msg);
+    }
+
+    @Override
+    public void flush() {
+        pipeline.flush();
+    }
+
+    @Override
+    public void writeAndFlush(Object msg) {
+        pipeline.writeAndFlush(msg);
+    }
+
+    @Override
+    public void close() {
+        pipeline.close();
+    }
+
+    @Override
+    public NioUnsafe unsafe() {
+        return unsafe;
+    }
+
+    protected SelectableChannel javaChannel() {
+        return ch;
+    }
+
+    protected SelectionKey selectionKey() {
+        return selectionKey;
+    }
+
+    /**
+     * 把待发送队列中已刷新的消息写到socket中，写完的消息要从队列中删除并释放。
+     * socket的发送缓冲区满了的时候要关注OP_WRITE事件，等socket可写了再继续
+     */
+    protected abstract void doWrite(ChannelOutboundBuffer in) throws Exception;
+
+    /**
+     * 检查要写的消息是不是channel支持的类型，不支持就抛出异常
+     */
+    protected Object filterOutboundMessage(Object msg) {
+        return msg;
+    }
+
+    /**
+     * 发送缓冲区满了，关注OP_WRITE事件，socket可写的时候事件循环会调用forceFlush继续写
+     */
+    protected final void setOpWrite() {
+        final SelectionKey key = selectionKey;
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        final int interestOps = key.interestOps();
+        if ((interestOps & SelectionKey.OP_WRITE) == 0) {
+            key.interestOps(interestOps | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * 数据都写完了，不再关注OP_WRITE事件，否则socket一直可写，selector会一直返回
+     */
+    protected final void clearOpWrite() {
+        final SelectionKey key = selectionKey;
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        final int interestOps = key.interestOps();
+        if ((interestOps & SelectionKey.OP_WRITE) != 0) {
+            key.interestOps(interestOps & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * 关闭java的channel，selector中的key也会随之失效
+     */
+    protected void doClose() throws Exception {
+        ch.close();
+    }
+
+    /**
+     * 交给事件循环使用的Unsafe，多了一个处理读事件的方法
+     */
+    public interface NioUnsafe extends Unsafe {
+
+        /**
+         * 从socket中读数据，服务端channel读到的是新的连接
+         */
+        void read();
+
+        /**
+         * socket可写了，马上把已刷新的消息写出去
+         */
+        void forceFlush();
+    }
+
+    protected abstract class AbstractNioUnsafe implements NioUnsafe {
+
+        //正在往socket中写数据，避免在写的过程中重入
+        private boolean inFlush0;
+
+        @Override
+        public final void register(SingleThreadEventLoop eventLoop) {
+            if (eventLoop == null) {
+                throw new NullPointerException("eventLoop");
+            }
+            if (!(eventLoop instanceof NioEventLoop)) {
+                throw new IllegalArgumentException("incompatible event loop type: " + eventLoop.getClass().getName());
+            }
+            if (isRegistered()) {
+                throw new IllegalStateException("registered to an event loop already");
+            }
+            final NioEventLoop nioEventLoop = (NioEventLoop) eventLoop;
+            AbstractNioChannel.this.eventLoop = nioEventLoop;
+            //如果执行该方法的线程就是执行器中的线程，直接执行方法即可
+            if (nioEventLoop.inEventLoop(Thread.currentThread())) {
+                register0(nioEventLoop);
+            } else {
+                //在这里，第一次向单线程执行器中提交任务的时候，执行器终于开始执行了,新的线程也开始创建
+                nioEventLoop.executeInternal(new Runnable() {
+                    @Override
+                    public void run() {
+                        register0(nioEventLoop);
+                    }
+                });
+            }
+        }
+
+        private void register0(NioEventLoop eventLoop) {
+            try {
+                if (!isOpen()) {
+                    return;
+                }
+                //先不关注任何事件，channel激活之后再开始读，把channel自己作为附件
+                selectionKey = ch.register(eventLoop.selector(), 0, AbstractNioChannel.this);
+                registered = true;
+                pipeline.fireChannelRegistered();
+                if (isActive()) {
+                    pipeline.fireChannelActive();
+                }
+            } catch (Throwable t) {
+                logger.warn("Failed to register a channel: {}", AbstractNioChannel.this, t);
+                closeForcibly();
+            }
+        }
+
+        @Override
+        public final void beginRead() {
+            SelectionKey selectionKey = AbstractNioChannel.this.selectionKey;
+            if (selectionKey == null || !selectionKey.isValid()) {
+                return;
+            }
+            int interestOps = selectionKey.interestOps();
+            if ((interestOps & readInterestOp) == 0) {
+                selectionKey.interestOps(interestOps | readInterestOp);
+            }
+        }
+
+        @Override
+        public final void write(Object msg) {
+            ChannelOutboundBuffer outboundBuffer = AbstractNioChannel.this.outboundBuffer;
+            if (outboundBuffer == null) {
+                //channel已经关闭了
+                ReferenceCountUtil.release(msg);
+                logger.debug("Discarded a message written to a closed channel: {}", AbstractNioChannel.this);
+                return;
+            }
+            try {
+                msg = filterOutboundMessage(msg);
+            } catch (RuntimeException e) {
+                ReferenceCountUtil.safeRelease(msg);
+                throw e;
+            }
+            outboundBuffer.addMessage(msg, ChannelOutboundBuffer.total(msg));
+        }
+
+        @Override
+        public final ChannelOutboundBuffer outboundBuffer() {
+            return outboundBuffer;
+        }
+
+        @Override
+        public final void flush() {
+            ChannelOutboundBuffer outboundBuffer = AbstractNioChannel.this.outboundBuffer;
+            if (outboundBuffer == null) {
+                return;
+            }
+            outboundBuffer.addFlush();
+            flush0();
+        }
+
+        @Override
+        public final void forceFlush() {
+            flush0(true);
+        }
+
+        private void flush0() {
+            flush0(false);
+        }
+
+        private void flush0(boolean force) {
+            //已经在关注OP_WRITE了，说明发送缓冲区是满的，现在写也写不进去，等socket可写时再一起写
+            if (inFlush0 || (!force && isFlushPending())) {
+                return;
+            }
+            final ChannelOutboundBuffer outboundBuffer = AbstractNioChannel.this.outboundBuffer;
+            if (outboundBuffer == null || outboundBuffer.isEmpty()) {
+                clearOpWrite();
+                return;
+            }
+            inFlush0 = true;
+            try {
+                doWrite(outboundBuffer);
+            } catch (Throwable t) {
+                pipeline.fireExceptionCaught(t);
+                close();
+            } finally {
+                inFlush0 = false;
+            }
+        }
+
+        private boolean isFlushPending() {
+            SelectionKey selectionKey = AbstractNioChannel.this.selectionKey;
+            return selectionKey != null && selectionKey.isValid()
+                    && (selectionKey.interestOps() & SelectionKey.OP_WRITE) != 0;
+        }
+
+        @Override
+        public final void close() {
+            if (!isOpen()) {
+                return;
+            }
+            boolean wasActive = isActive();
+            //先把队列置为null，关闭过程中处理器再写的消息会直接释放
+            ChannelOutboundBuffer outboundBuffer = AbstractNioChannel.this.outboundBuffer;
+            AbstractNioChannel.this.outboundBuffer = null;
+            try {
+                doClose();
+            } catch (Throwable t) {
+                logger.warn("Failed to close a channel.", t);
+            }
+            //还没有发送出去的消息不会再发送了，释放掉
+            if (outboundBuffer != null) {
+                outboundBuffer.releaseAll();
+            }
+            if (wasActive) {
+                pipeline.fireChannelInactive();
+            }
+            if (registered) {
+                registered = false;
+                pipeline.fireChannelUnregistered();
+            }
+        }
+
+        /**
+         * 注册失败的时候直接关闭，不触发任何事件
+         */
+        final void closeForcibly() {
+            try {
+                doClose();
+            } catch (Exception e) {
+                logger.warn("Failed to close a channel.", e);
+            }
+        }
+
+        /**
+         * 读数据的过程中出现了异常，通知处理器，IO异常说明连接已经不可用了，关闭channel
+         */
+        protected final void handleReadException(Throwable cause) {
+            pipeline.fireExceptionCaught(cause);
+            if (cause instanceof IOException || cause instanceof CancelledKeyException) {
+                close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + (isOpen() ? "" : "closed, ") + "local: " + localAddress()
+                + ", remote: " + remoteAddress() + ")";
+    }
+}
@@ -0,0 +1,358 @@
+package netty03;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 用来代替 ByteBuffer 的字节容器。ByteBuffer 只有一个 position，写完数据之后要 flip() 才能读，
+ * 读的时候还要再拷贝到 byte 数组中。ByteBuf 有两个独立的索引，readerIndex 之前的数据是已经读过的，
+ * readerIndex 到 writerIndex 之间是可以读的数据，writerIndex 到 capacity 之间是可以写的空间：
+ *
+ *      +-------------------+------------------+------------------+
+ *      | discardable bytes |  readable bytes  |  writable bytes  |
+ *      +-------------------+------------------+------------------+
+ *      0      <=      readerIndex   <=   writerIndex    <=    capacity
+ *
+ * 读写互不影响，也就不需要 flip()。slice() 和 duplicate() 得到的是和原来的 ByteBuf 共享同一段内存的视图，
+ * 有自己的索引，但不会拷贝数据，也不会增加引用计数。
+ * ByteBuf 是有引用计数的，用完之后必须调用 release()，池化的 ByteBuf 在计数为0的时候会把内存还给内存池。
+ * 所有的多字节数据都按大端序读写
+ */
+public abstract class ByteBuf implements ReferenceCounted {
+
+    /**
+     * 当前的容量
+     */
+    public abstract int capacity();
+
+    /**
+     * 调整容量，容量变小的时候超出新容量的数据会被丢弃
+     */
+    public abstract ByteBuf capacity(int newCapacity);
+
+    /**
+     * 自动扩容的上限
+     */
+    public abstract int maxCapacity();
+
+    /**
+     * 创建这个ByteBuf的分配器
+     */
+    public abstract ByteBufAllocator alloc();
+
+    public abstract boolean isDirect();
+
+    /**
+     * 如果这是一个视图，返回它底层的ByteBuf，否则返回null
+     */
+    public abstract ByteBuf unwrap();
+
+    public abstract int readerIndex();
+
+    public abstract ByteBuf readerIndex(int readerIndex);
+
+    public abstract int writerIndex();
+
+    public abstract ByteBuf writerIndex(int writerIndex);
+
+    public abstract ByteBuf setIndex(int readerIndex, int writerIndex);
+
+    public abstract int readableBytes();
+
+    public abstract int writableBytes();
+
+    /**
+     * 扩容之后最多还能写多少字节
+     */
+    public abstract int maxWritableBytes();
+
+    public abstract boolean isReadable();
+
+    public abstract boolean isReadable(int size);
+
+    public abstract boolean isWritable();
+
+    public abstract boolean isWritable(int size);
+
+    /**
+     * 把两个索引都置为0，不会清除数据
+     */
+    public abstract ByteBuf clear();
+
+    public abstract ByteBuf markReaderIndex();
+
+    public abstract ByteBuf resetReaderIndex();
+
+    public abstract ByteBuf markWriterIndex();
+
+    public abstract ByteBuf resetWriterIndex();
+
+    /**
+     * 丢弃已经读过的数据，把可读的数据移动到开头，腾出可写的空间
+     */
+    public abstract ByteBuf discardReadBytes();
+
+    /**
+     * 和discardReadBytes类似，但是只在读过的数据占到一半以上的时候才移动数据，
+     * 频繁调用也不会每次都拷贝，适合在解码器这种一直追加、一直读取的场景中使用
+     */
+    public abstract ByteBuf discardSomeReadBytes();
+
+    /**
+     * 保证至少还能写minWritableBytes个字节，不够就扩容，超过maxCapacity会抛出IndexOutOfBoundsException
+     */
+    public abstract ByteBuf ensureWritable(int minWritableBytes);
+
+    public abstract byte getByte(int index);
+
+    public abstract short getUnsignedByte(int index);
+
+    public abstract short getShort(int index);
+
+    public abstract int getUnsignedShort(int index);
+
+    public abstract int getMedium(int index);
+
+    public abstract int getUnsignedMedium(int index);
+
+    public abstract int getInt(int index);
+
+    public abstract long getUnsignedInt(int index);
+
+    public abstract long getLong(int index);
+
+    /**
+     * 从index开始拷贝dst的可写字节数个字节到dst中，会增加dst的writerIndex
+     */
+    public abstract ByteBuf getBytes(int index, ByteBuf dst);
+
+    public abstract ByteBuf getBytes(int index, ByteBuf dst, int length);
+
+    /**
+     * 不会改变两个ByteBuf的索引
+     */
+    public abstract ByteBuf getBytes(int index, ByteBuf dst, int dstIndex, int length);
+
+    public abstract ByteBuf getBytes(int index, byte[] dst);
+
+    public abstract ByteBuf getBytes(int index, byte[] dst, int dstIndex, int length);
+
+    /**
+     * 拷贝dst.remaining()个字节到dst中，会增加dst的position
+     */
+    public abstract ByteBuf getBytes(int index, ByteBuffer dst);
+
+    /**
+     * 把从index开始的最多length个字节写到channel中
+     * @return 实际写出的字节数
+     */
+    public abstract int getBytes(int index, GatheringByteChannel out, int length) throws IOException;
+
+    public abstract ByteBuf setByte(int index, int value);
+
+    public abstract ByteBuf setShort(int index, int value);
+
+    public abstract ByteBuf setMedium(int index, int value);
+
+    public abstract ByteBuf setInt(int index, int value);
+
+    public abstract ByteBuf setLong(int index, long value);
+
+    /**
+     * 把src的可读数据拷贝到index处，会增加src的readerIndex
+     */
+    public abstract ByteBuf setBytes(int index, ByteBuf src);
+
+    public abstract ByteBuf setBytes(int index, ByteBuf src, int length);
+
+    public abstract ByteBuf setBytes(int index, ByteBuf src, int srcIndex, int length);
+
+    public abstract ByteBuf setBytes(int index, byte[] src);
+
+    public abstract ByteBuf setBytes(int index, byte[] src, int srcIndex, int length);
+
+    public abstract ByteBuf setBytes(int index, ByteBuffer src);
+
+    /**
+     * 从channel中读取最多length个字节放到index处
+     * @return 实际读到的字节数，channel已经关闭则返回-1
+     */
+    public abstract int setBytes(int index, ScatteringByteChannel in, int length) throws IOException;
+
+    public abstract ByteBuf setZero(int index, int length);
+
+    public abstract byte readByte();
+
+    public abstract short readUnsignedByte();
+
+    public abstract short readShort();
+
+    public abstract int readUnsignedShort();
+
+    public abstract int readMedium();
+
+    public abstract int readUnsignedMedium();
+
+    public abstract int readInt();
+
+    public abstract long readUnsignedInt();
+
+    public abstract long readLong();
+
+    /**
+     * 把接下来的length个字节拷贝到一个新的ByteBuf中
+     */
+    public abstract ByteBuf readBytes(int length);
+
+    /**
+     * 得到接下来length个字节的视图，不拷贝数据
+     */
+    public abstract ByteBuf readSlice(int length);
+
+    /**
+     * 和readSlice一样，但是会增加引用计数，返回的视图用完之后要release
+     */
+    public abstract ByteBuf readRetainedSlice(int length);
+
+    public abstract ByteBuf readBytes(ByteBuf dst);
+
+    public abstract ByteBuf readBytes(ByteBuf dst, int length);
+
+    public abstract ByteBuf readBytes(ByteBuf dst, int dstIndex, int length);
+
+    public abstract ByteBuf readBytes(byte[] dst);
+
+    public abstract ByteBuf readBytes(byte[] dst, int dstIndex, int length);
+
+    public abstract ByteBuf readBytes(ByteBuffer dst);
+
+    public abstract int readBytes(GatheringByteChannel out, int length) throws IOException;
+
+    public abstract ByteBuf skipBytes(int length);
+
+    public abstract ByteBuf writeByte(int value);
+
+    public abstract ByteBuf writeShort(int value);
+
+    public abstract ByteBuf writeMedium(int value);
+
+    public abstract ByteBuf writeInt(int value);
+
+    public abstract ByteBuf writeLong(long value);
+
+    public abstract ByteBuf writeBytes(ByteBuf src);
+
+    public abstract ByteBuf writeBytes(ByteBuf src, int length);
+
+    public abstract ByteBuf writeBytes(ByteBuf src, int srcIndex, int length);
+
+    public abstract ByteBuf writeBytes(byte[] src);
+
+    public abstract ByteBuf writeBytes(byte[] src, int srcIndex, int length);
+
+    public abstract ByteBuf writeBytes(ByteBuffer src);
+
+    /**
+     * 从channel中读取最多length个字节写到这个ByteBuf中，事件循环读数据就是通过这个方法直接读进ByteBuf的
+     * @return 实际读到的字节数，channel已经关闭则返回-1
+     */
+    public abstract int writeBytes(ScatteringByteChannel in, int length) throws IOException;
+
+    public abstract ByteBuf writeZero(int length);
+
+    /**
+     * 拷贝可读的数据，得到的ByteBuf和原来的互不影响
+     */
+    public abstract ByteBuf copy();
+
+    public abstract ByteBuf copy(int index, int length);
+
+    /**
+     * 可读数据的视图，和原来的ByteBuf共享内存，有自己的索引。视图不会增加引用计数，原来的ByteBuf被释放之后视图也就不能用了
+     */
+    public abstract ByteBuf slice();
+
+    public abstract ByteBuf slice(int index, int length);
+
+    public abstract ByteBuf retainedSlice();
+
+    public abstract ByteBuf retainedSlice(int index, int length);
+
+    /**
+     * 整个ByteBuf的视图，和原来的ByteBuf共享内存，索引的初始值和原来的一样
+     */
+    public abstract ByteBuf duplicate();
+
+    public abstract ByteBuf retainedDuplicate();
+
+    /**
+     * nioBuffers() 会返回几个 ByteBuffer，-1表示不知道
+     */
+    public abstract int nioBufferCount();
+
+    /**
+     * 可读数据对应的ByteBuffer，和ByteBuf共享内存，修改它的position和limit不会影响ByteBuf的索引
+     */
+    public abstract ByteBuffer nioBuffer();
+
+    public abstract ByteBuffer nioBuffer(int index, int length);
+
+    /**
+     * 只在内部使用的ByteBuffer，每次调用返回的可能是同一个对象，不能保存起来
+     */
+    public abstract ByteBuffer internalNioBuffer(int index, int length);
+
+    public abstract ByteBuffer[] nioBuffers();
+
+    public abstract ByteBuffer[] nioBuffers(int index, int length);
+
+    public abstract boolean hasArray();
+
+    public abstract byte[] array();
+
+    public abstract int arrayOffset();
+
+    /**
+     * 把可读的数据按指定的字符集解码成字符串，不会改变readerIndex
+     */
+    public abstract String toString(Charset charset);
+
+    public abstract String toString(int index, int length, Charset charset);
+
+    /**
+     * 把[index, index + length)的数据作为字符序列返回，不拷贝数据，用到字符的时候才解码。
+     * 返回的字符序列和ByteBuf共享内存，ByteBuf被释放之后不能再使用
+     */
+    public abstract CharSequence getCharSequence(int index, int length, Charset charset);
+
+    /**
+     * 和getCharSequence一样，同时把readerIndex增加length
+     */
+    public abstract CharSequence readCharSequence(int length, Charset charset);
+
+    /**
+     * 从readerIndex开始遍历可读的数据，直到processor返回false
+     * @return processor返回false时的下标，遍历完了都没有返回false时返回-1
+     */
+    public abstract int forEachByte(ByteProcessor processor);
+
+    /**
+     * 遍历[index, index + length)的数据，直到processor返回false
+     * @return processor返回false时的下标，遍历完了都没有返回false时返回-1
+     */
+    public abstract int forEachByte(int index, int length, ByteProcessor processor);
+
+    @Override
+    public abstract ByteBuf retain();
+
+    @Override
+    public abstract ByteBuf retain(int increment);
+
+    @Override
+    public abstract String toString();
+}
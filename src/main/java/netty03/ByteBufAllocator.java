@@ -0,0 +1,42 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description ByteBuf 的分配器，有池化和不池化两种实现
+ */
+public interface ByteBufAllocator {
+
+    /**
+     * 分配一个ByteBuf，是堆内存还是直接内存由分配器自己决定
+     */
+    ByteBuf buffer();
+
+    ByteBuf buffer(int initialCapacity);
+
+    ByteBuf buffer(int initialCapacity, int maxCapacity);
+
+    ByteBuf heapBuffer();
+
+    ByteBuf heapBuffer(int initialCapacity);
+
+    ByteBuf heapBuffer(int initialCapacity, int maxCapacity);
+
+    ByteBuf directBuffer();
+
+    ByteBuf directBuffer(int initialCapacity);
+
+    ByteBuf directBuffer(int initialCapacity, int maxCapacity);
+
+    /**
+     * 创建一个空的CompositeByteBuf，扩容和合并时分配的内存类型和buffer()一样
+     */
+    CompositeByteBuf compositeBuffer();
+
+    CompositeByteBuf compositeBuffer(int maxNumComponents);
+
+    /**
+     * 直接内存是否是池化的
+     */
+    boolean isDirectBufferPooled();
+}
@@ -0,0 +1,109 @@
+package netty03;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description ByteBuf 中一段数据的字符序列视图，由 ByteBuf.getCharSequence 创建。
+ * 文本协议里绝大多数内容都是 ASCII，ISO-8859-1 以及只包含 ASCII 字符的 UTF-8、US-ASCII 数据一个字节就是一个字符，
+ * 这时 charAt 直接读取底层的字节，subSequence 也只是创建一个更小的视图，都不需要解码和拷贝。
+ * 其他情况在第一次用到字符的时候才解码成字符串并缓存起来。
+ * 视图不持有 ByteBuf 的引用计数，ByteBuf 被释放之后不能再使用
+ */
+final class ByteBufCharSequence implements CharSequence {
+
+    private static final ByteProcessor FIND_NON_ASCII = new ByteProcessor() {
+        @Override
+        public boolean process(byte value) {
+            return value >= 0;
+        }
+    };
+
+    private final ByteBuf buf;
+
+    private final int offset;
+
+    private final int length;
+
+    private final Charset charset;
+
+    //一个字节就是一个字符，可以直接读取底层的字节；为null表示还没有检查过
+    private Boolean direct;
+
+    //解码之后的字符串，第一次用到的时候才创建
+    private String decoded;
+
+    ByteBufCharSequence(ByteBuf buf, int offset, int length, Charset charset) {
+        if (charset == null) {
+            throw new NullPointerException("charset");
+        }
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+        this.charset = charset;
+    }
+
+    private boolean isDirect() {
+        Boolean direct = this.direct;
+        if (direct == null) {
+            if (StandardCharsets.ISO_8859_1.equals(charset)) {
+                direct = Boolean.TRUE;
+            } else if (StandardCharsets.US_ASCII.equals(charset) || StandardCharsets.UTF_8.equals(charset)) {
+                //这两种字符集和ASCII兼容，数据中没有大于0x7F的字节时逐字节对应
+                direct = length == 0 || buf.forEachByte(offset, length, FIND_NON_ASCII) == -1;
+            } else {
+                direct = Boolean.FALSE;
+            }
+            this.direct = direct;
+        }
+        return direct;
+    }
+
+    private String decoded() {
+        String decoded = this.decoded;
+        if (decoded == null) {
+            this.decoded = decoded = buf.toString(offset, length, charset);
+        }
+        return decoded;
+    }
+
+    @Override
+    public int length() {
+        if (isDirect()) {
+            return length;
+        }
+        return decoded().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (isDirect()) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index: " + index + " (expected: range(0, " + length + "))");
+            }
+            return (char) (buf.getByte(offset + index) & 0xFF);
+        }
+        return decoded().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (isDirect()) {
+            if (start < 0 || start > end || end > length) {
+                throw new IndexOutOfBoundsException(
+                        "start: " + start + ", end: " + end + " (expected: 0 <= start <= end <= " + length + ")");
+            }
+            ByteBufCharSequence sequence = new ByteBufCharSequence(buf, offset + start, end - start, charset);
+            sequence.direct = Boolean.TRUE;
+            return sequence;
+        }
+        return decoded().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return decoded();
+    }
+}
@@ -0,0 +1,55 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 逐个字节处理 ByteBuf 中数据的回调，配合 ByteBuf.forEachByte 使用。
+ * 遍历在 ByteBuf 内部完成，不用每读一个字节都检查一次下标，CompositeByteBuf 也不用每个字节都查找一次组成部分
+ */
+public interface ByteProcessor {
+
+    /**
+     * 找到换行符'\n'时停止
+     */
+    ByteProcessor FIND_LF = new ByteProcessor() {
+        @Override
+        public boolean process(byte value) {
+            return value != '\n';
+        }
+    };
+
+    /**
+     * 找到'\r'时停止
+     */
+    ByteProcessor FIND_CR = new ByteProcessor() {
+        @Override
+        public boolean process(byte value) {
+            return value != '\r';
+        }
+    };
+
+    /**
+     * 找到'\r'或者'\n'时停止
+     */
+    ByteProcessor FIND_CRLF = new ByteProcessor() {
+        @Override
+        public boolean process(byte value) {
+            return value != '\r' && value != '\n';
+        }
+    };
+
+    /**
+     * 找到0时停止
+     */
+    ByteProcessor FIND_NUL = new ByteProcessor() {
+        @Override
+        public boolean process(byte value) {
+            return value != 0;
+        }
+    };
+
+    /**
+     * @return 返回true继续处理下一个字节，返回false停止遍历
+     */
+    boolean process(byte value) throws Exception;
+}
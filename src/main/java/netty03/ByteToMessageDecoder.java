@@ -0,0 +1,309 @@
+package netty03;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 把字节流解码成消息的处理器基类。TCP 是流式协议，一次读事件读到的数据可能只是半个消息，也可能包含好几个消息，
+ * 所以每个 channel 都要有一个累积缓冲区，读到的数据先追加进去，再交给子类的 decode 方法，能解出几个消息就解出几个，
+ * 剩下不完整的数据留到下一次读事件。累积缓冲区中读过的数据会定期丢弃，避免缓冲区一直变大。
+ * 解码器持有 channel 的状态，不能被多个 channel 共享
+ */
+public abstract class ByteToMessageDecoder extends ChannelInboundHandlerAdapter {
+
+    /**
+     * 把新读到的数据拷贝到累积缓冲区的后面，缓冲区不够就扩容。解码时读取连续的内存，速度快，但是每次都要拷贝
+     */
+    public static final Cumulator MERGE_CUMULATOR = new Cumulator() {
+        @Override
+        public ByteBuf cumulate(ByteBufAllocator alloc, ByteBuf cumulation, ByteBuf in) {
+            final ByteBuf buffer;
+            //引用计数大于1，说明用户还持有累积缓冲区的切片，不能在原来的内存上继续写
+            if (cumulation.writerIndex() > cumulation.maxCapacity() - in.readableBytes()
+                    || cumulation.refCnt() > 1) {
+                buffer = expandCumulation(alloc, cumulation, in.readableBytes());
+            } else {
+                buffer = cumulation;
+            }
+            buffer.writeBytes(in);
+            in.release();
+            return buffer;
+        }
+    };
+
+    /**
+     * 把新读到的数据作为一个组成部分加到CompositeByteBuf中，不拷贝数据。
+     * 消息很大、要经过很多次读事件才能收全的时候比较划算，代价是解码时按下标访问要先查找组成部分
+     */
+    public static final Cumulator COMPOSITE_CUMULATOR = new Cumulator() {
+        @Override
+        public ByteBuf cumulate(ByteBufAllocator alloc, ByteBuf cumulation, ByteBuf in) {
+            ByteBuf buffer;
+            if (cumulation.refCnt() > 1) {
+                buffer = expandCumulation(alloc, cumulation, in.readableBytes());
+                buffer.writeBytes(in);
+                in.release();
+            } else {
+                CompositeByteBuf composite;
+                if (cumulation instanceof CompositeByteBuf) {
+                    composite = (CompositeByteBuf) cumulation;
+                } else {
+                    composite = alloc.compositeBuffer(Integer.MAX_VALUE);
+                    composite.addComponent(true, cumulation);
+                }
+                composite.addComponent(true, in);
+                buffer = composite;
+            }
+            return buffer;
+        }
+    };
+
+    private ByteBuf cumulation;
+
+    private Cumulator cumulator = MERGE_CUMULATOR;
+
+    private boolean singleDecode;
+
+    //这次读到的数据是不是直接作为累积缓冲区使用了，这种情况下还没有必要丢弃读过的数据
+    private boolean first;
+
+    //连续多少次读事件之后丢弃一次读过的数据
+    private int discardAfterReads = 16;
+
+    private int numReads;
+
+    protected ByteToMessageDecoder() {
+    }
+
+    /**
+     * 设置为true之后，每次channelRead最多解码出一个消息，用在解码过程中要切换协议的场景
+     */
+    public void setSingleDecode(boolean singleDecode) {
+        this.singleDecode = singleDecode;
+    }
+
+    public boolean isSingleDecode() {
+        return singleDecode;
+    }
+
+    public void setCumulator(Cumulator cumulator) {
+        if (cumulator == null) {
+            throw new NullPointerException("cumulator");
+        }
+        this.cumulator = cumulator;
+    }
+
+    public void setDiscardAfterReads(int discardAfterReads) {
+        if (discardAfterReads <= 0) {
+            throw new IllegalArgumentException("discardAfterReads must be > 0");
+        }
+        this.discardAfterReads = discardAfterReads;
+    }
+
+    /**
+     * 累积缓冲区中还没有解码的字节数
+     */
+    protected int actualReadableBytes() {
+        return internalBuffer().readableBytes();
+    }
+
+    /**
+     * 累积缓冲区，没有的时候返回空的ByteBuf
+     */
+    protected ByteBuf internalBuffer() {
+        if (cumulation != null) {
+            return cumulation;
+        }
+        return Unpooled.buffer(0);
+    }
+
+    @Override
+    public final void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        ByteBuf buf = cumulation;
+        if (buf != null) {
+            cumulation = null;
+            numReads = 0;
+            //还没有解码的数据交给后面的处理器，不能丢掉
+            if (buf.isReadable()) {
+                ctx.fireChannelRead(buf);
+                ctx.fireChannelReadComplete();
+            } else {
+                buf.release();
+            }
+        }
+        handlerRemoved0(ctx);
+    }
+
+    /**
+     * 解码器被移除之后调用，子类在这里释放自己持有的资源
+     */
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        List<Object> out = new ArrayList<Object>();
+        try {
+            ByteBuf data = (ByteBuf) msg;
+            first = cumulation == null;
+            if (first) {
+                cumulation = data;
+            } else {
+                cumulation = cumulator.cumulate(ctx.alloc(), cumulation, data);
+            }
+            callDecode(ctx, cumulation, out);
+        } catch (DecoderException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DecoderException(e);
+        } finally {
+            if (cumulation != null && !cumulation.isReadable()) {
+                //数据全部解码完了，释放累积缓冲区，下一次读到的数据直接作为新的累积缓冲区
+                numReads = 0;
+                cumulation.release();
+                cumulation = null;
+            } else if (++numReads >= discardAfterReads) {
+                //对端一直发送数据，累积缓冲区可能一直释放不掉，读到一定次数之后主动丢弃一次读过的数据
+                numReads = 0;
+                discardSomeReadBytes();
+            }
+            fireChannelRead(ctx, out, out.size());
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        numReads = 0;
+        discardSomeReadBytes();
+        ctx.fireChannelReadComplete();
+    }
+
+    protected final void discardSomeReadBytes() {
+        //引用计数大于1说明用户还持有累积缓冲区的切片，移动数据会破坏切片中的内容
+        if (cumulation != null && !first && cumulation.refCnt() == 1) {
+            cumulation.discardSomeReadBytes();
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        List<Object> out = new ArrayList<Object>();
+        try {
+            if (cumulation != null) {
+                callDecode(ctx, cumulation, out);
+                decodeLast(ctx, cumulation, out);
+            } else {
+                decodeLast(ctx, Unpooled.buffer(0), out);
+            }
+        } catch (DecoderException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DecoderException(e);
+        } finally {
+            if (cumulation != null) {
+                cumulation.release();
+                cumulation = null;
+            }
+            int size = out.size();
+            fireChannelRead(ctx, out, size);
+            if (size > 0) {
+                ctx.fireChannelReadComplete();
+            }
+            ctx.fireChannelInactive();
+        }
+    }
+
+    /**
+     * 只要累积缓冲区中还有数据，就一直调用decode，直到decode既没有读取数据也没有解码出消息
+     */
+    protected void callDecode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        try {
+            while (in.isReadable()) {
+                int outSize = out.size();
+                if (outSize > 0) {
+                    //先把已经解码出来的消息传下去，后面的处理器可能会修改pipeline
+                    fireChannelRead(ctx, out, outSize);
+                    out.clear();
+                    if (ctx.isRemoved()) {
+                        break;
+                    }
+                    outSize = 0;
+                }
+                int oldInputLength = in.readableBytes();
+                decode(ctx, in, out);
+                //解码器在decode中被移除了，剩下的数据已经在handlerRemoved中交给后面的处理器了
+                if (ctx.isRemoved()) {
+                    break;
+                }
+                if (outSize == out.size()) {
+                    if (oldInputLength == in.readableBytes()) {
+                        //数据不够一个完整的消息，等下一次读事件
+                        break;
+                    } else {
+                        continue;
+                    }
+                }
+                if (oldInputLength == in.readableBytes()) {
+                    throw new DecoderException(getClass().getName()
+                            + ".decode() did not read anything but decoded a message.");
+                }
+                if (isSingleDecode()) {
+                    break;
+                }
+            }
+        } catch (DecoderException e) {
+            throw e;
+        } catch (Exception cause) {
+            throw new DecoderException(cause);
+        }
+    }
+
+    static void fireChannelRead(ChannelHandlerContext ctx, List<Object> msgs, int numElements) {
+        for (int i = 0; i < numElements; i++) {
+            ctx.fireChannelRead(msgs.get(i));
+        }
+    }
+
+    /**
+     * 从in中解码出消息放进out，数据不够一个消息的时候什么都不读，直接返回
+     */
+    protected abstract void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception;
+
+    /**
+     * channel关闭的时候最后调用一次，默认和decode一样，子类可以在这里处理最后一个不完整的消息
+     */
+    protected void decodeLast(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (in.isReadable()) {
+            decode(ctx, in, out);
+        }
+    }
+
+    /**
+     * 累积缓冲区放不下新数据，或者不能在原来的内存上继续写的时候，分配一个更大的缓冲区，把原来的数据拷贝过去
+     */
+    static ByteBuf expandCumulation(ByteBufAllocator alloc, ByteBuf cumulation, int readable) {
+        ByteBuf oldCumulation = cumulation;
+        cumulation = alloc.buffer(oldCumulation.readableBytes() + readable);
+        cumulation.writeBytes(oldCumulation);
+        oldCumulation.release();
+        return cumulation;
+    }
+
+    /**
+     * 把新读到的数据合并到累积缓冲区中
+     */
+    public interface Cumulator {
+
+        /**
+         * 合并之后in由Cumulator负责释放
+         * @return 新的累积缓冲区，可能就是原来的cumulation
+         */
+        ByteBuf cumulate(ByteBufAllocator alloc, ByteBuf cumulation, ByteBuf in);
+    }
+}
@@ -0,0 +1,84 @@
+package netty03;
+
+import java.net.SocketAddress;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 对 java 中 channel 的封装。每个 Channel 注册到一个 NioEventLoop 上，之后它的所有IO操作和处理器的回调
+ * 都由这个事件循环的线程执行。用户通过 ChannelPipeline 中的处理器处理读到的数据，通过 write、flush 发送数据
+ */
+public interface Channel {
+
+    /**
+     * channel 注册到的事件循环，还没有注册的时候返回 null
+     */
+    NioEventLoop eventLoop();
+
+    /**
+     * 接收到这个客户端 channel 的服务端 channel，服务端 channel 自己返回 null
+     */
+    Channel parent();
+
+    ChannelPipeline pipeline();
+
+    ChannelConfig config();
+
+    ByteBufAllocator alloc();
+
+    boolean isOpen();
+
+    boolean isRegistered();
+
+    boolean isActive();
+
+    /**
+     * 待发送的数据量超过了高水位线时返回false，直到降到低水位线以下才重新返回true。
+     * 生产数据的一方应该在不可写的时候暂停写，收到 channelWritabilityChanged 事件之后再继续
+     */
+    boolean isWritable();
+
+    SocketAddress localAddress();
+
+    SocketAddress remoteAddress();
+
+    /**
+     * 从 pipeline 的尾部开始传递写操作
+     */
+    void write(Object msg);
+
+    void flush();
+
+    void writeAndFlush(Object msg);
+
+    void close();
+
+    /**
+     * 真正操作 socket 的接口，只给 pipeline 的头节点和事件循环使用，用户代码不应该直接调用
+     */
+    Unsafe unsafe();
+
+    interface Unsafe {
+
+        /**
+         * 把 channel 注册到事件循环上，注册完成后触发 channelRegistered 事件
+         */
+        void register(SingleThreadEventLoop eventLoop);
+
+        /**
+         * 开始关注读事件
+         */
+        void beginRead();
+
+        void write(Object msg);
+
+        void flush();
+
+        void close();
+
+        /**
+         * channel 的待发送队列，channel 关闭之后返回 null
+         */
+        ChannelOutboundBuffer outboundBuffer();
+    }
+}
@@ -0,0 +1,20 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description channel 的配置，可以在任意线程中修改，修改之后马上生效
+ */
+public interface ChannelConfig {
+
+    WriteBufferWaterMark getWriteBufferWaterMark();
+
+    /**
+     * 设置待发送数据量的高低水位线，默认是 32KB 和 64KB
+     */
+    ChannelConfig setWriteBufferWaterMark(WriteBufferWaterMark writeBufferWaterMark);
+
+    int getWriteBufferHighWaterMark();
+
+    int getWriteBufferLowWaterMark();
+}
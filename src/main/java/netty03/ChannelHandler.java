@@ -0,0 +1,22 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 处理 channel 上发生的事件的处理器，被添加到 ChannelPipeline 中。
+ * 处理器分为入站和出站两种：入站处理器处理读到数据、channel 激活这样从 socket 传上来的事件，
+ * 出站处理器处理写数据、关闭 channel 这样由用户代码发起、最终要作用到 socket 上的操作。
+ * 同一个 channel 上的事件都由它绑定的 NioEventLoop 线程来调用，所以处理器中不需要加锁
+ */
+public interface ChannelHandler {
+
+    /**
+     * 处理器被添加到 ChannelPipeline 之后调用
+     */
+    void handlerAdded(ChannelHandlerContext ctx) throws Exception;
+
+    /**
+     * 处理器从 ChannelPipeline 中移除之后调用
+     */
+    void handlerRemoved(ChannelHandlerContext ctx) throws Exception;
+}
@@ -0,0 +1,19 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description ChannelHandler 的空实现
+ */
+public abstract class ChannelHandlerAdapter implements ChannelHandler {
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        // 默认什么都不做
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        // 默认什么都不做
+    }
+}
@@ -0,0 +1,54 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 处理器在 ChannelPipeline 中的上下文，也就是链表中的一个节点。
+ * 处理器通过它把入站事件传递给后一个入站处理器，把出站操作传递给前一个出站处理器
+ */
+public interface ChannelHandlerContext {
+
+    Channel channel();
+
+    /**
+     * 执行处理器方法的事件循环，就是 channel 注册到的那个 NioEventLoop
+     */
+    NioEventLoop executor();
+
+    String name();
+
+    ChannelHandler handler();
+
+    ChannelPipeline pipeline();
+
+    /**
+     * 处理器是否已经从 pipeline 中移除了
+     */
+    boolean isRemoved();
+
+    ByteBufAllocator alloc();
+
+    ChannelHandlerContext fireChannelRegistered();
+
+    ChannelHandlerContext fireChannelUnregistered();
+
+    ChannelHandlerContext fireChannelActive();
+
+    ChannelHandlerContext fireChannelInactive();
+
+    ChannelHandlerContext fireChannelRead(Object msg);
+
+    ChannelHandlerContext fireChannelReadComplete();
+
+    ChannelHandlerContext fireChannelWritabilityChanged();
+
+    ChannelHandlerContext fireExceptionCaught(Throwable cause);
+
+    void write(Object msg);
+
+    void flush();
+
+    void writeAndFlush(Object msg);
+
+    void close();
+}
@@ -0,0 +1,41 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 入站处理器，事件从 ChannelPipeline 的头部向尾部传递
+ */
+public interface ChannelInboundHandler extends ChannelHandler {
+
+    /**
+     * channel 注册到 NioEventLoop 上了
+     */
+    void channelRegistered(ChannelHandlerContext ctx) throws Exception;
+
+    void channelUnregistered(ChannelHandlerContext ctx) throws Exception;
+
+    /**
+     * channel 可以使用了，客户端 channel 是连接建立了，服务端 channel 是端口绑定了
+     */
+    void channelActive(ChannelHandlerContext ctx) throws Exception;
+
+    void channelInactive(ChannelHandlerContext ctx) throws Exception;
+
+    /**
+     * 读到了数据。客户端 channel 读到的是 ByteBuf，服务端 channel 读到的是新接收的客户端 channel。
+     * 消息如果不再往后传递，处理器就要负责释放它
+     */
+    void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception;
+
+    /**
+     * 一次读事件中的数据都读完了
+     */
+    void channelReadComplete(ChannelHandlerContext ctx) throws Exception;
+
+    /**
+     * channel 的可写状态变了，通过 Channel.isWritable() 得到当前的状态
+     */
+    void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception;
+
+    void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception;
+}
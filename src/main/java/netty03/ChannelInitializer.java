@@ -0,0 +1,47 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 用来给新的 channel 添加处理器的特殊处理器。channel 注册到事件循环上之后调用 initChannel，
+ * 初始化完成后把自己从 pipeline 中移除。同一个实例可以添加到多个 channel 的 pipeline 中
+ */
+public abstract class ChannelInitializer<C extends Channel> extends ChannelInboundHandlerAdapter {
+
+    /**
+     * channel 注册之后调用一次，一般在这里向 pipeline 中添加处理器
+     */
+    protected abstract void initChannel(C ch) throws Exception;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        //channel已经注册了就不会再有channelRegistered事件，这里直接初始化
+        if (ctx.channel().isRegistered()) {
+            initChannel(ctx);
+        }
+    }
+
+    @Override
+    public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
+        if (initChannel(ctx)) {
+            //从头部重新传递一次，让刚刚添加的处理器也能收到channelRegistered事件
+            ctx.pipeline().fireChannelRegistered();
+        } else {
+            ctx.fireChannelRegistered();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean initChannel(ChannelHandlerContext ctx) throws Exception {
+        //初始化之后自己就被移除了，找不到说明这个pipeline已经初始化过
+        if (ctx.pipeline().context(this) == null) {
+            return false;
+        }
+        try {
+            initChannel((C) ctx.channel());
+        } finally {
+            ctx.pipeline().remove(this);
+        }
+        return true;
+    }
+}
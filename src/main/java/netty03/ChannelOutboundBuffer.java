@@ -0,0 +1,357 @@
+package netty03;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description channel 的待发送队列，消息链表只由 channel 注册到的事件循环线程访问，所以不需要任何同步。
+ * 只有待发送的字节数例外：外部线程写消息的时候，在提交写任务之前就要把消息的大小算进去，这样外部线程也能及时看到 channel 不可写，
+ * 所以字节数和可写状态都用原子操作修改。
+ * write 把消息加到未刷新链表的尾部，flush 把未刷新的消息全部标记为已刷新，只有已刷新的消息才会写到 socket 中。
+ * 写 ByteBuf 的时候把多个消息的 ByteBuffer 收集到一个数组中，用一次 gathering write 写出去，减少系统调用的次数。
+ * 队列中的字节数超过高水位线时 channel 变为不可写，降到低水位线以下时恢复可写，状态变化时触发 channelWritabilityChanged 事件
+ */
+public final class ChannelOutboundBuffer {
+
+    //每个事件循环线程共用一个数组来收集ByteBuffer，同一时刻一个线程只会写一个channel
+    private static final ThreadLocal<ByteBuffer[]> NIO_BUFFERS = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[1024];
+        }
+    };
+
+    //链表结构：flushedEntry -> ... -> unflushedEntry -> ... -> tailEntry
+    //第一个已刷新的消息
+    private Entry flushedEntry;
+
+    //第一个还没有刷新的消息
+    private Entry unflushedEntry;
+
+    //最后一个消息
+    private Entry tailEntry;
+
+    //已刷新还没有写完的消息数量
+    private int flushed;
+
+    private int nioBufferCount;
+
+    private long nioBufferSize;
+
+    private static final AtomicLongFieldUpdater<ChannelOutboundBuffer> TOTAL_PENDING_SIZE_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(ChannelOutboundBuffer.class, "totalPendingSize");
+
+    private static final AtomicIntegerFieldUpdater<ChannelOutboundBuffer> UNWRITABLE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ChannelOutboundBuffer.class, "unwritable");
+
+    //队列中所有消息的字节数，包括还没有刷新的，以及外部线程已经提交、还没有执行的写任务中的消息
+    private volatile long totalPendingSize;
+
+    //不为0表示channel不可写，其他线程会通过isWritable读取
+    private volatile int unwritable;
+
+    private final Channel channel;
+
+    private Runnable fireChannelWritabilityChangedTask;
+
+    ChannelOutboundBuffer(Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * 把消息加到队列的尾部，这时还不会发送
+     */
+    public void addMessage(Object msg, int size) {
+        Entry entry = new Entry(msg, size);
+        if (tailEntry == null) {
+            flushedEntry = null;
+        } else {
+            tailEntry.next = entry;
+        }
+        tailEntry = entry;
+        if (unflushedEntry == null) {
+            unflushedEntry = entry;
+        }
+        incrementPendingOutboundBytes(size, false);
+    }
+
+    /**
+     * 把所有还没有刷新的消息标记为已刷新，之后就可以写到socket中了
+     */
+    public void addFlush() {
+        Entry entry = unflushedEntry;
+        if (entry != null) {
+            if (flushedEntry == null) {
+                flushedEntry = entry;
+            }
+            do {
+                flushed++;
+                entry = entry.next;
+            } while (entry != null);
+            unflushedEntry = null;
+        }
+    }
+
+    /**
+     * 当前要写的消息，也就是第一个已刷新的消息，没有的话返回null
+     */
+    public Object current() {
+        Entry entry = flushedEntry;
+        return entry == null ? null : entry.msg;
+    }
+
+    /**
+     * 当前的消息已经写完了，把它从队列中删除并释放
+     * @return 队列中还有已刷新的消息时返回true
+     */
+    public boolean remove() {
+        Entry e = flushedEntry;
+        if (e == null) {
+            clearNioBuffers();
+            return false;
+        }
+        Object msg = e.msg;
+        removeEntry(e);
+        ReferenceCountUtil.safeRelease(msg);
+        return true;
+    }
+
+    /**
+     * gathering write 写出了writtenBytes个字节，把完全写完的ByteBuf删除，
+     * 最后一个只写了一部分的ByteBuf移动它的读索引，下一次从没写完的地方继续写
+     */
+    public void removeBytes(long writtenBytes) {
+        for (;;) {
+            Object msg = current();
+            if (!(msg instanceof ByteBuf)) {
+                break;
+            }
+            final ByteBuf buf = (ByteBuf) msg;
+            final int readerIndex = buf.readerIndex();
+            final int readableBytes = buf.writerIndex() - readerIndex;
+            if (readableBytes <= writtenBytes) {
+                writtenBytes -= readableBytes;
+                remove();
+            } else {
+                if (writtenBytes != 0) {
+                    buf.readerIndex(readerIndex + (int) writtenBytes);
+                }
+                break;
+            }
+        }
+        clearNioBuffers();
+    }
+
+    /**
+     * 把收集ByteBuffer用过的数组清空，避免线程共用的数组一直引用着已经释放的内存
+     */
+    private void clearNioBuffers() {
+        int count = nioBufferCount;
+        if (count > 0) {
+            nioBufferCount = 0;
+            Arrays.fill(NIO_BUFFERS.get(), 0, count, null);
+        }
+    }
+
+    private void removeEntry(Entry e) {
+        decrementPendingOutboundBytes(e.pendingSize, true);
+        if (--flushed == 0) {
+            //已刷新的消息全部写完了
+            flushedEntry = null;
+            if (e == tailEntry) {
+                tailEntry = null;
+                unflushedEntry = null;
+            }
+        } else {
+            flushedEntry = e.next;
+        }
+        e.msg = null;
+        e.next = null;
+    }
+
+    /**
+     * 从已刷新的消息中收集ByteBuffer，遇到不是ByteBuf的消息就停止。
+     * 返回的数组由当前线程共用，只能在下一次调用之前使用，有效的元素个数由nioBufferCount()得到
+     * @param maxCount 最多收集多少个ByteBuffer
+     * @param maxBytes 最多收集多少个字节，至少会收集一个ByteBuf
+     */
+    public ByteBuffer[] nioBuffers(int maxCount, long maxBytes) {
+        long nioBufferSize = 0;
+        int nioBufferCount = 0;
+        ByteBuffer[] nioBuffers = NIO_BUFFERS.get();
+        Entry entry = flushedEntry;
+        while (isFlushedEntry(entry) && entry.msg instanceof ByteBuf) {
+            final ByteBuf buf = (ByteBuf) entry.msg;
+            final int readerIndex = buf.readerIndex();
+            final int readableBytes = buf.writerIndex() - readerIndex;
+            if (readableBytes > 0) {
+                if (maxBytes - readableBytes < nioBufferSize && nioBufferCount != 0) {
+                    //再加上这个ByteBuf就超过了一次写的上限，剩下的下一次再写
+                    break;
+                }
+                int count = buf.nioBufferCount();
+                if (nioBufferCount + count > maxCount) {
+                    break;
+                }
+                nioBufferSize += readableBytes;
+                if (count == 1) {
+                    nioBuffers[nioBufferCount++] = buf.internalNioBuffer(readerIndex, readableBytes);
+                } else {
+                    for (ByteBuffer nioBuf: buf.nioBuffers(readerIndex, readableBytes)) {
+                        nioBuffers[nioBufferCount++] = nioBuf;
+                    }
+                }
+                if (nioBufferCount == maxCount) {
+                    break;
+                }
+            }
+            entry = entry.next;
+        }
+        this.nioBufferCount = nioBufferCount;
+        this.nioBufferSize = nioBufferSize;
+        return nioBuffers;
+    }
+
+    private boolean isFlushedEntry(Entry e) {
+        return e != null && e != unflushedEntry;
+    }
+
+    /**
+     * 上一次nioBuffers()收集到的ByteBuffer的个数
+     */
+    public int nioBufferCount() {
+        return nioBufferCount;
+    }
+
+    /**
+     * 上一次nioBuffers()收集到的字节数
+     */
+    public long nioBufferSize() {
+        return nioBufferSize;
+    }
+
+    /**
+     * 已刷新还没有写完的消息数量
+     */
+    public int size() {
+        return flushed;
+    }
+
+    /**
+     * 没有已刷新的消息时返回true，还没有刷新的消息不算
+     */
+    public boolean isEmpty() {
+        return flushed == 0;
+    }
+
+    public long totalPendingWriteBytes() {
+        return totalPendingSize;
+    }
+
+    public boolean isWritable() {
+        return unwritable == 0;
+    }
+
+    /**
+     * 加入新消息之后超过了高水位线，channel变为不可写。
+     * 在事件循环线程中加入消息时马上通知处理器，让它在这次写完之后就暂停；外部线程调用时要把事件提交给事件循环
+     * @param invokeLater 为true时通过任务触发channelWritabilityChanged
+     */
+    void incrementPendingOutboundBytes(long size, boolean invokeLater) {
+        if (size == 0) {
+            return;
+        }
+        long newWriteBufferSize = TOTAL_PENDING_SIZE_UPDATER.addAndGet(this, size);
+        if (newWriteBufferSize > channel.config().getWriteBufferHighWaterMark()) {
+            //多个线程可能同时越过高水位线，只有把unwritable从0改成1的那个线程触发事件
+            if (UNWRITABLE_UPDATER.compareAndSet(this, 0, 1)) {
+                fireChannelWritabilityChanged(invokeLater);
+            }
+        }
+    }
+
+    /**
+     * 消息写完之后降到了低水位线以下，channel恢复可写。这时一般正在往socket中写数据，
+     * 处理器收到事件后可能马上又写又刷新，所以默认把事件放到任务中，等这次写完了再触发
+     */
+    void decrementPendingOutboundBytes(long size, boolean invokeLater) {
+        if (size == 0) {
+            return;
+        }
+        long newWriteBufferSize = TOTAL_PENDING_SIZE_UPDATER.addAndGet(this, -size);
+        if (newWriteBufferSize < channel.config().getWriteBufferLowWaterMark()) {
+            if (UNWRITABLE_UPDATER.compareAndSet(this, 1, 0)) {
+                fireChannelWritabilityChanged(invokeLater);
+            }
+        }
+    }
+
+    private void fireChannelWritabilityChanged(boolean invokeLater) {
+        final ChannelPipeline pipeline = channel.pipeline();
+        if (invokeLater) {
+            Runnable task = fireChannelWritabilityChangedTask;
+            if (task == null) {
+                fireChannelWritabilityChangedTask = task = new Runnable() {
+                    @Override
+                    public void run() {
+                        pipeline.fireChannelWritabilityChanged();
+                    }
+                };
+            }
+            channel.eventLoop().executeInternal(task);
+        } else {
+            pipeline.fireChannelWritabilityChanged();
+        }
+    }
+
+    /**
+     * channel关闭了，队列中的消息不会再发送，全部释放掉
+     */
+    void releaseAll() {
+        clearNioBuffers();
+        Entry e = flushedEntry != null ? flushedEntry : unflushedEntry;
+        long released = 0;
+        while (e != null) {
+            ReferenceCountUtil.safeRelease(e.msg);
+            released += e.pendingSize;
+            e.msg = null;
+            e = e.next;
+        }
+        flushedEntry = unflushedEntry = tailEntry = null;
+        flushed = 0;
+        //只减去释放掉的消息，外部线程提交的写任务还没有执行，它们执行的时候会自己减去
+        TOTAL_PENDING_SIZE_UPDATER.addAndGet(this, -released);
+    }
+
+    /**
+     * 估算消息占用的字节数，不认识的消息按0计算
+     */
+    static int total(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        }
+        if (msg instanceof FileRegion) {
+            //文件的数据不占用内存，但是按它的大小计算，才能让发送大文件的channel也受水位线的限制
+            return (int) Math.min(Integer.MAX_VALUE, ((FileRegion) msg).count());
+        }
+        return 0;
+    }
+
+    private static final class Entry {
+
+        Entry next;
+
+        Object msg;
+
+        final int pendingSize;
+
+        Entry(Object msg, int pendingSize) {
+            this.msg = msg;
+            this.pendingSize = pendingSize;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 出站处理器，操作从 ChannelPipeline 的尾部向头部传递，最后由头部交给 channel 去真正执行
+ */
+public interface ChannelOutboundHandler extends ChannelHandler {
+
+    /**
+     * 把消息放进 channel 的待发送队列，调用 flush 之后才会真正写到 socket 中
+     */
+    void write(ChannelHandlerContext ctx, Object msg) throws Exception;
+
+    /**
+     * 把待发送队列中的消息写到 socket 中
+     */
+    void flush(ChannelHandlerContext ctx) throws Exception;
+
+    void close(ChannelHandlerContext ctx) throws Exception;
+}
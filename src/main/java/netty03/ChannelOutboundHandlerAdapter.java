@@ -0,0 +1,24 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 出站处理器的默认实现，所有的操作都原样传递给前一个出站处理器，子类只需要重写关心的方法
+ */
+public class ChannelOutboundHandlerAdapter extends ChannelHandlerAdapter implements ChannelOutboundHandler {
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg) throws Exception {
+        ctx.write(msg);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        ctx.flush();
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx) throws Exception {
+        ctx.close();
+    }
+}
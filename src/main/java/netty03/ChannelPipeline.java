@@ -0,0 +1,59 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 每个 channel 都有一条自己的处理器链。入站事件从头部传到尾部，出站操作从尾部传到头部，
+ * 头部节点最后把出站操作交给 channel 去读写 socket。链表可以在任意线程中修改，但是所有事件都由 channel 的事件循环来调用
+ */
+public interface ChannelPipeline {
+
+    Channel channel();
+
+    ChannelPipeline addFirst(String name, ChannelHandler handler);
+
+    ChannelPipeline addLast(String name, ChannelHandler handler);
+
+    /**
+     * 按顺序把处理器添加到链表的尾部，名字自动生成
+     */
+    ChannelPipeline addLast(ChannelHandler... handlers);
+
+    ChannelPipeline remove(ChannelHandler handler);
+
+    ChannelHandler remove(String name);
+
+    ChannelHandler get(String name);
+
+    ChannelHandlerContext context(ChannelHandler handler);
+
+    ChannelHandlerContext context(String name);
+
+    ChannelHandler first();
+
+    ChannelHandler last();
+
+    ChannelPipeline fireChannelRegistered();
+
+    ChannelPipeline fireChannelUnregistered();
+
+    ChannelPipeline fireChannelActive();
+
+    ChannelPipeline fireChannelInactive();
+
+    ChannelPipeline fireChannelRead(Object msg);
+
+    ChannelPipeline fireChannelReadComplete();
+
+    ChannelPipeline fireChannelWritabilityChanged();
+
+    ChannelPipeline fireExceptionCaught(Throwable cause);
+
+    void write(Object msg);
+
+    void flush();
+
+    void writeAndFlush(Object msg);
+
+    void close();
+}
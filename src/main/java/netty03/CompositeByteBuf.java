@@ -0,0 +1,903 @@
+package netty03;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 把多个 ByteBuf 组合成一个逻辑上连续的 ByteBuf，组合的时候不拷贝数据。
+ * 一个帧被拆成了好几次读到，或者响应由消息头和消息体两部分组成的时候，不需要再把它们拷贝到一个新的数组中。
+ * 每个组成部分都记录了自己在整个 ByteBuf 中的起止偏移量，按下标访问的时候先二分查找下标所在的组成部分。
+ * 组成部分超过 maxNumComponents 个的时候才会合并成一个，避免查找变慢；写到 channel 的时候，
+ * nioBuffers() 把每个组成部分映射成一个 ByteBuffer，可以用一次 gathering write 全部写出去。
+ * 加进来的 ByteBuf 归 CompositeByteBuf 所有，CompositeByteBuf 被释放的时候会释放所有的组成部分
+ */
+public class CompositeByteBuf extends AbstractReferenceCountedByteBuf {
+
+    private static final byte[] EMPTY_BYTES = {};
+
+    private static final ByteBuffer EMPTY_NIO_BUFFER = ByteBuffer.allocate(0);
+
+    static final int DEFAULT_MAX_COMPONENTS = 16;
+
+    private final ByteBufAllocator alloc;
+
+    private final boolean direct;
+
+    private final List<Component> components;
+
+    private final int maxNumComponents;
+
+    //上一次访问的组成部分，顺序读写的时候大部分情况都能命中，不需要二分查找
+    private Component lastAccessed;
+
+    private boolean freed;
+
+    public CompositeByteBuf(ByteBufAllocator alloc, boolean direct, int maxNumComponents) {
+        super(Integer.MAX_VALUE);
+        if (alloc == null) {
+            throw new NullPointerException("alloc");
+        }
+        if (maxNumComponents < 2) {
+            throw new IllegalArgumentException("maxNumComponents: " + maxNumComponents + " (expected: >= 2)");
+        }
+        this.alloc = alloc;
+        this.direct = direct;
+        this.maxNumComponents = maxNumComponents;
+        components = new ArrayList<Component>(Math.min(DEFAULT_MAX_COMPONENTS, maxNumComponents));
+    }
+
+    public CompositeByteBuf(ByteBufAllocator alloc, boolean direct, int maxNumComponents, ByteBuf... buffers) {
+        this(alloc, direct, maxNumComponents);
+        addComponents0(true, 0, buffers);
+        consolidateIfNeeded();
+    }
+
+    /**
+     * 在末尾添加一个组成部分，不会增加writerIndex
+     */
+    public CompositeByteBuf addComponent(ByteBuf buffer) {
+        return addComponent(false, buffer);
+    }
+
+    /**
+     * 在末尾添加一个组成部分
+     * @param increaseWriterIndex 为true时writerIndex会增加buffer的可读字节数，加进来的数据马上就可以读了
+     */
+    public CompositeByteBuf addComponent(boolean increaseWriterIndex, ByteBuf buffer) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer");
+        }
+        addComponent0(increaseWriterIndex, components.size(), buffer);
+        consolidateIfNeeded();
+        return this;
+    }
+
+    public CompositeByteBuf addComponent(int cIndex, ByteBuf buffer) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer");
+        }
+        addComponent0(false, cIndex, buffer);
+        consolidateIfNeeded();
+        return this;
+    }
+
+    public CompositeByteBuf addComponents(boolean increaseWriterIndex, ByteBuf... buffers) {
+        addComponents0(increaseWriterIndex, components.size(), buffers);
+        consolidateIfNeeded();
+        return this;
+    }
+
+    private void addComponents0(boolean increaseWriterIndex, int cIndex, ByteBuf... buffers) {
+        for (ByteBuf b : buffers) {
+            if (b == null) {
+                break;
+            }
+            addComponent0(increaseWriterIndex, cIndex++, b);
+        }
+    }
+
+    private void addComponent0(boolean increaseWriterIndex, int cIndex, ByteBuf buffer) {
+        ensureAccessible();
+        checkComponentIndex(cIndex);
+        int readableBytes = buffer.readableBytes();
+        //只保留可读的部分，buffer的引用计数交给这个组成部分管理
+        Component c = new Component(buffer.slice());
+        if (cIndex == components.size()) {
+            components.add(c);
+            if (cIndex == 0) {
+                c.endOffset = readableBytes;
+            } else {
+                Component prev = components.get(cIndex - 1);
+                c.offset = prev.endOffset;
+                c.endOffset = c.offset + readableBytes;
+            }
+        } else {
+            components.add(cIndex, c);
+            if (readableBytes != 0) {
+                updateComponentOffsets(cIndex);
+            }
+        }
+        lastAccessed = null;
+        if (increaseWriterIndex) {
+            writerIndex(writerIndex() + readableBytes);
+        }
+    }
+
+    /**
+     * 组成部分太多了，查找下标的时候会变慢，把它们合并成一个。只有超过maxNumComponents的时候才合并，合并需要拷贝数据
+     */
+    private void consolidateIfNeeded() {
+        final int numComponents = components.size();
+        if (numComponents > maxNumComponents) {
+            consolidate0(0, numComponents);
+        }
+    }
+
+    private void consolidate0(int cIndex, int numComponents) {
+        if (numComponents <= 1) {
+            return;
+        }
+        final int endCIndex = cIndex + numComponents;
+        final Component last = components.get(endCIndex - 1);
+        final int capacity = last.endOffset - components.get(cIndex).offset;
+        final ByteBuf consolidated = allocBuffer(capacity);
+        for (int i = cIndex; i < endCIndex; i ++) {
+            Component c = components.get(i);
+            consolidated.writeBytes(c.buf);
+            c.free();
+        }
+        components.subList(cIndex + 1, endCIndex).clear();
+        components.set(cIndex, new Component(consolidated));
+        updateComponentOffsets(cIndex);
+        lastAccessed = null;
+    }
+
+    /**
+     * 把所有的组成部分合并成一个
+     */
+    public CompositeByteBuf consolidate() {
+        ensureAccessible();
+        consolidate0(0, components.size());
+        return this;
+    }
+
+    public CompositeByteBuf consolidate(int cIndex, int numComponents) {
+        checkComponentIndex(cIndex, numComponents);
+        consolidate0(cIndex, numComponents);
+        return this;
+    }
+
+    public CompositeByteBuf removeComponent(int cIndex) {
+        checkComponentIndex(cIndex, 1);
+        Component comp = components.remove(cIndex);
+        comp.free();
+        if (comp.length > 0) {
+            updateComponentOffsets(cIndex);
+        }
+        lastAccessed = null;
+        adjustIndexes(capacity());
+        return this;
+    }
+
+    public CompositeByteBuf removeComponents(int cIndex, int numComponents) {
+        checkComponentIndex(cIndex, numComponents);
+        if (numComponents == 0) {
+            return this;
+        }
+        List<Component> toRemove = components.subList(cIndex, cIndex + numComponents);
+        boolean needsUpdate = false;
+        for (Component c : toRemove) {
+            if (c.length > 0) {
+                needsUpdate = true;
+            }
+            c.free();
+        }
+        toRemove.clear();
+        if (needsUpdate) {
+            updateComponentOffsets(cIndex);
+        }
+        lastAccessed = null;
+        adjustIndexes(capacity());
+        return this;
+    }
+
+    /**
+     * 释放并移除所有已经读完了的组成部分
+     */
+    public CompositeByteBuf discardReadComponents() {
+        ensureAccessible();
+        final int readerIndex = readerIndex();
+        if (readerIndex == 0) {
+            return this;
+        }
+        int writerIndex = writerIndex();
+        if (readerIndex == writerIndex && writerIndex == capacity()) {
+            for (Component c : components) {
+                c.free();
+            }
+            components.clear();
+            lastAccessed = null;
+            setIndex(0, 0);
+            adjustMarkers(readerIndex);
+            return this;
+        }
+        int firstComponentId = toComponentIndex(readerIndex);
+        for (int i = 0; i < firstComponentId; i ++) {
+            components.get(i).free();
+        }
+        components.subList(0, firstComponentId).clear();
+        Component first = components.get(0);
+        int offset = first.offset;
+        updateComponentOffsets(0);
+        lastAccessed = null;
+        setIndex(readerIndex - offset, writerIndex - offset);
+        adjustMarkers(offset);
+        return this;
+    }
+
+    /**
+     * 只释放已经读完了的组成部分，不切分部分读过的组成部分
+     */
+    @Override
+    public ByteBuf discardSomeReadBytes() {
+        return discardReadComponents();
+    }
+
+    @Override
+    public ByteBuf discardReadBytes() {
+        ensureAccessible();
+        final int readerIndex = readerIndex();
+        if (readerIndex == 0) {
+            return this;
+        }
+        int writerIndex = writerIndex();
+        if (readerIndex == writerIndex && writerIndex == capacity()) {
+            for (Component c : components) {
+                c.free();
+            }
+            components.clear();
+            lastAccessed = null;
+            setIndex(0, 0);
+            adjustMarkers(readerIndex);
+            return this;
+        }
+        int firstComponentId = toComponentIndex(readerIndex);
+        for (int i = 0; i < firstComponentId; i ++) {
+            components.get(i).free();
+        }
+        components.subList(0, firstComponentId).clear();
+        //第一个组成部分只读了一部分，把读过的部分切掉，不需要拷贝数据
+        Component c = components.get(0);
+        int adjustment = readerIndex - c.offset;
+        if (adjustment == c.length) {
+            components.remove(0).free();
+        } else {
+            components.set(0, new Component(c.buf.slice(adjustment, c.length - adjustment)));
+        }
+        updateComponentOffsets(0);
+        lastAccessed = null;
+        setIndex(0, writerIndex - readerIndex);
+        adjustMarkers(readerIndex);
+        return this;
+    }
+
+    public int numComponents() {
+        return components.size();
+    }
+
+    public int maxNumComponents() {
+        return maxNumComponents;
+    }
+
+    /**
+     * 第cIndex个组成部分，返回的ByteBuf和组成部分共享内存和引用计数
+     */
+    public ByteBuf component(int cIndex) {
+        checkComponentIndex(cIndex);
+        return components.get(cIndex).buf.duplicate();
+    }
+
+    public ByteBuf componentAtOffset(int offset) {
+        return findComponent(offset).buf.duplicate();
+    }
+
+    /**
+     * 下标offset所在的组成部分的序号
+     */
+    public int toComponentIndex(int offset) {
+        checkIndex(offset, 1);
+        for (int low = 0, high = components.size() - 1; low <= high;) {
+            int mid = low + high >>> 1;
+            Component c = components.get(mid);
+            if (offset >= c.endOffset) {
+                low = mid + 1;
+            } else if (offset < c.offset) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        throw new Error("should not reach here");
+    }
+
+    private Component findComponent(int offset) {
+        Component la = lastAccessed;
+        if (la != null && offset >= la.offset && offset < la.endOffset) {
+            return la;
+        }
+        checkIndex(offset, 1);
+        Component c = components.get(toComponentIndex(offset));
+        lastAccessed = c;
+        return c;
+    }
+
+    private void updateComponentOffsets(int cIndex) {
+        int size = components.size();
+        if (size <= cIndex) {
+            return;
+        }
+        Component c = components.get(cIndex);
+        if (cIndex == 0) {
+            c.offset = 0;
+            c.endOffset = c.length;
+            cIndex ++;
+        }
+        for (int i = cIndex; i < size; i ++) {
+            Component prev = components.get(i - 1);
+            Component cur = components.get(i);
+            cur.offset = prev.endOffset;
+            cur.endOffset = cur.offset + cur.length;
+        }
+    }
+
+    private void checkComponentIndex(int cIndex) {
+        ensureAccessible();
+        if (cIndex < 0 || cIndex > components.size()) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "cIndex: %d (expected: >= 0 && <= numComponents(%d))", cIndex, components.size()));
+        }
+    }
+
+    private void checkComponentIndex(int cIndex, int numComponents) {
+        ensureAccessible();
+        if (cIndex < 0 || cIndex + numComponents > components.size()) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "cIndex: %d, numComponents: %d (expected: cIndex >= 0 && cIndex + numComponents <= totalNumComponents(%d))",
+                    cIndex, numComponents, components.size()));
+        }
+    }
+
+    private ByteBuf allocBuffer(int capacity) {
+        return direct ? alloc.directBuffer(capacity) : alloc.heapBuffer(capacity);
+    }
+
+    @Override
+    public ByteBufAllocator alloc() {
+        return alloc;
+    }
+
+    @Override
+    public boolean isDirect() {
+        int size = components.size();
+        if (size == 0) {
+            return false;
+        }
+        for (int i = 0; i < size; i ++) {
+            if (!components.get(i).buf.isDirect()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int capacity() {
+        final int numComponents = components.size();
+        if (numComponents == 0) {
+            return 0;
+        }
+        return components.get(numComponents - 1).endOffset;
+    }
+
+    /**
+     * 扩容的时候在末尾添加一个新的组成部分，缩容的时候从末尾开始移除或者截短组成部分
+     */
+    @Override
+    public CompositeByteBuf capacity(int newCapacity) {
+        ensureAccessible();
+        if (newCapacity < 0 || newCapacity > maxCapacity()) {
+            throw new IllegalArgumentException("newCapacity: " + newCapacity);
+        }
+        int oldCapacity = capacity();
+        if (newCapacity > oldCapacity) {
+            final int paddingLength = newCapacity - oldCapacity;
+            ByteBuf padding = allocBuffer(paddingLength).setIndex(0, paddingLength);
+            addComponent0(false, components.size(), padding);
+            consolidateIfNeeded();
+        } else if (newCapacity < oldCapacity) {
+            int bytesToTrim = oldCapacity - newCapacity;
+            for (int i = components.size() - 1; i >= 0 && bytesToTrim > 0; i --) {
+                Component c = components.get(i);
+                if (bytesToTrim < c.length) {
+                    Component newC = new Component(c.buf.slice(0, c.length - bytesToTrim));
+                    newC.offset = c.offset;
+                    newC.endOffset = newC.offset + newC.length;
+                    components.set(i, newC);
+                    break;
+                }
+                bytesToTrim -= c.length;
+                components.remove(i).free();
+            }
+            lastAccessed = null;
+            adjustIndexes(newCapacity);
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf unwrap() {
+        return null;
+    }
+
+    @Override
+    public boolean hasArray() {
+        switch (components.size()) {
+            case 0:
+                return true;
+            case 1:
+                return components.get(0).buf.hasArray();
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public byte[] array() {
+        switch (components.size()) {
+            case 0:
+                return EMPTY_BYTES;
+            case 1:
+                return components.get(0).buf.array();
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    @Override
+    public int arrayOffset() {
+        switch (components.size()) {
+            case 0:
+                return 0;
+            case 1:
+                return components.get(0).buf.arrayOffset();
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    @Override
+    protected byte _getByte(int index) {
+        Component c = findComponent(index);
+        return c.buf.getByte(index - c.offset);
+    }
+
+    //跨越了两个组成部分的数据，拆成两半分别读取
+    @Override
+    protected short _getShort(int index) {
+        Component c = findComponent(index);
+        if (index + 2 <= c.endOffset) {
+            return c.buf.getShort(index - c.offset);
+        }
+        return (short) ((_getByte(index) & 0xff) << 8 | _getByte(index + 1) & 0xff);
+    }
+
+    @Override
+    protected int _getUnsignedMedium(int index) {
+        Component c = findComponent(index);
+        if (index + 3 <= c.endOffset) {
+            return c.buf.getUnsignedMedium(index - c.offset);
+        }
+        return (_getShort(index) & 0xffff) << 8 | _getByte(index + 2) & 0xff;
+    }
+
+    @Override
+    protected int _getInt(int index) {
+        Component c = findComponent(index);
+        if (index + 4 <= c.endOffset) {
+            return c.buf.getInt(index - c.offset);
+        }
+        return (_getShort(index) & 0xffff) << 16 | _getShort(index + 2) & 0xffff;
+    }
+
+    @Override
+    protected long _getLong(int index) {
+        Component c = findComponent(index);
+        if (index + 8 <= c.endOffset) {
+            return c.buf.getLong(index - c.offset);
+        }
+        return (_getInt(index) & 0xffffffffL) << 32 | _getInt(index + 4) & 0xffffffffL;
+    }
+
+    @Override
+    protected void _setByte(int index, int value) {
+        Component c = findComponent(index);
+        c.buf.setByte(index - c.offset, value);
+    }
+
+    @Override
+    protected void _setShort(int index, int value) {
+        Component c = findComponent(index);
+        if (index + 2 <= c.endOffset) {
+            c.buf.setShort(index - c.offset, value);
+        } else {
+            _setByte(index, (byte) (value >>> 8));
+            _setByte(index + 1, (byte) value);
+        }
+    }
+
+    @Override
+    protected void _setMedium(int index, int value) {
+        Component c = findComponent(index);
+        if (index + 3 <= c.endOffset) {
+            c.buf.setMedium(index - c.offset, value);
+        } else {
+            _setShort(index, (short) (value >> 8));
+            _setByte(index + 2, (byte) value);
+        }
+    }
+
+    @Override
+    protected void _setInt(int index, int value) {
+        Component c = findComponent(index);
+        if (index + 4 <= c.endOffset) {
+            c.buf.setInt(index - c.offset, value);
+        } else {
+            _setShort(index, (short) (value >>> 16));
+            _setShort(index + 2, (short) value);
+        }
+    }
+
+    @Override
+    protected void _setLong(int index, long value) {
+        Component c = findComponent(index);
+        if (index + 8 <= c.endOffset) {
+            c.buf.setLong(index - c.offset, value);
+        } else {
+            _setInt(index, (int) (value >>> 32));
+            _setInt(index + 4, (int) value);
+        }
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, byte[] dst, int dstIndex, int length) {
+        checkDstIndex(index, length, dstIndex, dst.length);
+        if (length == 0) {
+            return this;
+        }
+        int i = toComponentIndex(index);
+        while (length > 0) {
+            Component c = components.get(i);
+            int localLength = Math.min(length, c.endOffset - index);
+            c.buf.getBytes(index - c.offset, dst, dstIndex, localLength);
+            index += localLength;
+            dstIndex += localLength;
+            length -= localLength;
+            i ++;
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, ByteBuffer dst) {
+        int limit = dst.limit();
+        int length = dst.remaining();
+        checkIndex(index, length);
+        if (length == 0) {
+            return this;
+        }
+        int i = toComponentIndex(index);
+        try {
+            while (length > 0) {
+                Component c = components.get(i);
+                int localLength = Math.min(length, c.endOffset - index);
+                dst.limit(dst.position() + localLength);
+                c.buf.getBytes(index - c.offset, dst);
+                index += localLength;
+                length -= localLength;
+                i ++;
+            }
+        } finally {
+            dst.limit(limit);
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, ByteBuf dst, int dstIndex, int length) {
+        checkDstIndex(index, length, dstIndex, dst.capacity());
+        if (length == 0) {
+            return this;
+        }
+        int i = toComponentIndex(index);
+        while (length > 0) {
+            Component c = components.get(i);
+            int localLength = Math.min(length, c.endOffset - index);
+            c.buf.getBytes(index - c.offset, dst, dstIndex, localLength);
+            index += localLength;
+            dstIndex += localLength;
+            length -= localLength;
+            i ++;
+        }
+        return this;
+    }
+
+    /**
+     * 多个组成部分的时候用 gathering write 一次写出去
+     */
+    @Override
+    public int getBytes(int index, GatheringByteChannel out, int length) throws IOException {
+        int count = nioBufferCount();
+        if (count == 1) {
+            return out.write(internalNioBuffer(index, length));
+        }
+        long writtenBytes = out.write(nioBuffers(index, length));
+        if (writtenBytes > Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) writtenBytes;
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, byte[] src, int srcIndex, int length) {
+        checkSrcIndex(index, length, srcIndex, src.length);
+        if (length == 0) {
+            return this;
+        }
+        int i = toComponentIndex(index);
+        while (length > 0) {
+            Component c = components.get(i);
+            int localLength = Math.min(length, c.endOffset - index);
+            c.buf.setBytes(index - c.offset, src, srcIndex, localLength);
+            index += localLength;
+            srcIndex += localLength;
+            length -= localLength;
+            i ++;
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, ByteBuffer src) {
+        int limit = src.limit();
+        int length = src.remaining();
+        checkIndex(index, length);
+        if (length == 0) {
+            return this;
+        }
+        int i = toComponentIndex(index);
+        try {
+            while (length > 0) {
+                Component c = components.get(i);
+                int localLength = Math.min(length, c.endOffset - index);
+                src.limit(src.position() + localLength);
+                c.buf.setBytes(index - c.offset, src);
+                index += localLength;
+                length -= localLength;
+                i ++;
+            }
+        } finally {
+            src.limit(limit);
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, ByteBuf src, int srcIndex, int length) {
+        checkSrcIndex(index, length, srcIndex, src.capacity());
+        if (length == 0) {
+            return this;
+        }
+        int i = toComponentIndex(index);
+        while (length > 0) {
+            Component c = components.get(i);
+            int localLength = Math.min(length, c.endOffset - index);
+            c.buf.setBytes(index - c.offset, src, srcIndex, localLength);
+            index += localLength;
+            srcIndex += localLength;
+            length -= localLength;
+            i ++;
+        }
+        return this;
+    }
+
+    @Override
+    public int setBytes(int index, ScatteringByteChannel in, int length) throws IOException {
+        checkIndex(index, length);
+        if (length == 0) {
+            return in.read(EMPTY_NIO_BUFFER);
+        }
+        int i = toComponentIndex(index);
+        int readBytes = 0;
+        do {
+            Component c = components.get(i);
+            int localLength = Math.min(length, c.endOffset - index);
+            if (localLength == 0) {
+                //跳过空的组成部分
+                i ++;
+                continue;
+            }
+            int localReadBytes = c.buf.setBytes(index - c.offset, in, localLength);
+            if (localReadBytes == 0) {
+                break;
+            }
+            if (localReadBytes < 0) {
+                if (readBytes == 0) {
+                    return -1;
+                } else {
+                    break;
+                }
+            }
+            if (localReadBytes == localLength) {
+                index += localLength;
+                length -= localLength;
+                readBytes += localLength;
+                i ++;
+            } else {
+                //没有把这个组成部分读满，说明channel中暂时没有数据了
+                readBytes += localReadBytes;
+                break;
+            }
+        } while (length > 0);
+        return readBytes;
+    }
+
+    @Override
+    public ByteBuf copy(int index, int length) {
+        checkIndex(index, length);
+        ByteBuf dst = allocBuffer(length);
+        if (length != 0) {
+            getBytes(index, dst, 0, length);
+            dst.writerIndex(length);
+        }
+        return dst;
+    }
+
+    @Override
+    public int nioBufferCount() {
+        int count = 0;
+        for (int i = 0; i < components.size(); i ++) {
+            count += components.get(i).buf.nioBufferCount();
+        }
+        return count;
+    }
+
+    /**
+     * 只有一个组成部分的时候才能直接映射，否则要把数据拷贝到一个新的ByteBuffer中。写channel的时候应该用nioBuffers()
+     */
+    @Override
+    public ByteBuffer nioBuffer(int index, int length) {
+        checkIndex(index, length);
+        if (components.size() == 1) {
+            ByteBuf buf = components.get(0).buf;
+            if (buf.nioBufferCount() == 1) {
+                return buf.nioBuffer(index, length);
+            }
+        }
+        ByteBuffer merged = isDirect() ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        for (ByteBuffer buf : nioBuffers(index, length)) {
+            merged.put(buf);
+        }
+        merged.flip();
+        return merged;
+    }
+
+    @Override
+    public ByteBuffer internalNioBuffer(int index, int length) {
+        if (components.size() == 1) {
+            return components.get(0).buf.internalNioBuffer(index, length);
+        }
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 每个组成部分对应一个或多个ByteBuffer，都和组成部分共享内存
+     */
+    @Override
+    public ByteBuffer[] nioBuffers(int index, int length) {
+        checkIndex(index, length);
+        if (length == 0) {
+            return new ByteBuffer[] { EMPTY_NIO_BUFFER };
+        }
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(components.size());
+        int i = toComponentIndex(index);
+        while (length > 0) {
+            Component c = components.get(i);
+            ByteBuf s = c.buf;
+            int localLength = Math.min(length, c.endOffset - index);
+            switch (s.nioBufferCount()) {
+                case 0:
+                    throw new UnsupportedOperationException();
+                case 1:
+                    buffers.add(s.nioBuffer(index - c.offset, localLength));
+                    break;
+                default:
+                    Collections.addAll(buffers, s.nioBuffers(index - c.offset, localLength));
+            }
+            index += localLength;
+            length -= localLength;
+            i ++;
+        }
+        return buffers.toArray(new ByteBuffer[buffers.size()]);
+    }
+
+    @Override
+    protected void deallocate() {
+        if (freed) {
+            return;
+        }
+        freed = true;
+        for (int i = 0; i < components.size(); i ++) {
+            components.get(i).free();
+        }
+    }
+
+    /**
+     * 按组成部分分段遍历，每个组成部分只查找一次
+     */
+    @Override
+    int forEachByteAsc0(int start, int end, ByteProcessor processor) throws Exception {
+        if (end <= start) {
+            return -1;
+        }
+        for (int i = toComponentIndex(start), length = end - start; length > 0; i ++) {
+            Component c = components.get(i);
+            if (c.length == 0) {
+                continue;
+            }
+            int localStart = start - c.offset;
+            int localLength = Math.min(length, c.endOffset - start);
+            int result = forEachByteAsc0(c.buf, localStart, localStart + localLength, processor);
+            if (result != -1) {
+                return result + c.offset;
+            }
+            start += localLength;
+            length -= localLength;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        String result = super.toString();
+        result = result.substring(0, result.length() - 1);
+        return result + ", components=" + components.size() + ')';
+    }
+
+    private static final class Component {
+
+        //组成部分的可读数据的视图，引用计数和加进来的ByteBuf是同一个
+        final ByteBuf buf;
+
+        final int length;
+
+        int offset;
+
+        int endOffset;
+
+        Component(ByteBuf buf) {
+            this.buf = buf;
+            length = buf.readableBytes();
+        }
+
+        void free() {
+            buf.release();
+        }
+    }
+}
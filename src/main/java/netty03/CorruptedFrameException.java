@@ -0,0 +1,26 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 收到的数据不符合协议，比如长度字段是负数
+ */
+public class CorruptedFrameException extends DecoderException {
+
+    private static final long serialVersionUID = -4918386476429935683L;
+
+    public CorruptedFrameException() {
+    }
+
+    public CorruptedFrameException(String message) {
+        super(message);
+    }
+
+    public CorruptedFrameException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public CorruptedFrameException(Throwable cause) {
+        super(cause);
+    }
+}
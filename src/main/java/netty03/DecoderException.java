@@ -0,0 +1,26 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 解码失败时抛出的异常
+ */
+public class DecoderException extends RuntimeException {
+
+    private static final long serialVersionUID = 6926716840699621852L;
+
+    public DecoderException() {
+    }
+
+    public DecoderException(String message) {
+        super(message);
+    }
+
+    public DecoderException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public DecoderException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,45 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description ChannelConfig 的默认实现
+ */
+public class DefaultChannelConfig implements ChannelConfig {
+
+    protected final Channel channel;
+
+    //高低水位线放在同一个对象中，一次赋值同时替换，其他线程不会读到一高一低两个不匹配的值
+    private volatile WriteBufferWaterMark writeBufferWaterMark = WriteBufferWaterMark.DEFAULT;
+
+    public DefaultChannelConfig(Channel channel) {
+        if (channel == null) {
+            throw new NullPointerException("channel");
+        }
+        this.channel = channel;
+    }
+
+    @Override
+    public WriteBufferWaterMark getWriteBufferWaterMark() {
+        return writeBufferWaterMark;
+    }
+
+    @Override
+    public ChannelConfig setWriteBufferWaterMark(WriteBufferWaterMark writeBufferWaterMark) {
+        if (writeBufferWaterMark == null) {
+            throw new NullPointerException("writeBufferWaterMark");
+        }
+        this.writeBufferWaterMark = writeBufferWaterMark;
+        return this;
+    }
+
+    @Override
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferWaterMark.high();
+    }
+
+    @Override
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferWaterMark.low();
+    }
+}
@@ -0,0 +1,21 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 包装用户添加的处理器的节点，根据处理器实现的接口决定它参与入站事件还是出站操作
+ */
+final class DefaultChannelHandlerContext extends AbstractChannelHandlerContext {
+
+    private final ChannelHandler handler;
+
+    DefaultChannelHandlerContext(DefaultChannelPipeline pipeline, String name, ChannelHandler handler) {
+        super(pipeline, name, handler instanceof ChannelInboundHandler, handler instanceof ChannelOutboundHandler);
+        this.handler = handler;
+    }
+
+    @Override
+    public ChannelHandler handler() {
+        return handler;
+    }
+}
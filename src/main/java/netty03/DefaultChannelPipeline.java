@@ -0,0 +1,485 @@
+package netty03;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description ChannelPipeline 的默认实现，是一个带有头尾哨兵节点的双向链表。
+ * 头节点既是入站处理器也是出站处理器，出站操作传到它这里之后交给 channel 的 Unsafe 去操作 socket；
+ * 尾节点负责收尾，没有被任何处理器处理的消息和异常会在这里释放、打印日志。
+ * 修改链表的方法用 synchronized 保护，传递事件的时候不加锁
+ */
+public class DefaultChannelPipeline implements ChannelPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultChannelPipeline.class);
+
+    private static final String HEAD_NAME = "HeadContext#0";
+
+    private static final String TAIL_NAME = "TailContext#0";
+
+    private final Channel channel;
+
+    final AbstractChannelHandlerContext head;
+
+    final AbstractChannelHandlerContext tail;
+
+    public DefaultChannelPipeline(Channel channel) {
+        if (channel == null) {
+            throw new NullPointerException("channel");
+        }
+        this.channel = channel;
+        tail = new TailContext(this);
+        head = new HeadContext(this);
+        head.next = tail;
+        tail.prev = head;
+    }
+
+    @Override
+    public Channel channel() {
+        return channel;
+    }
+
+    @Override
+    public ChannelPipeline addFirst(String name, ChannelHandler handler) {
+        final AbstractChannelHandlerContext newCtx;
+        synchronized (this) {
+            newCtx = newContext(name, handler);
+            AbstractChannelHandlerContext nextCtx = head.next;
+            newCtx.prev = head;
+            newCtx.next = nextCtx;
+            head.next = newCtx;
+            nextCtx.prev = newCtx;
+        }
+        callHandlerAdded(newCtx);
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline addLast(String name, ChannelHandler handler) {
+        final AbstractChannelHandlerContext newCtx;
+        synchronized (this) {
+            newCtx = newContext(name, handler);
+            AbstractChannelHandlerContext prev = tail.prev;
+            newCtx.prev = prev;
+            newCtx.next = tail;
+            prev.next = newCtx;
+            tail.prev = newCtx;
+        }
+        callHandlerAdded(newCtx);
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline addLast(ChannelHandler... handlers) {
+        if (handlers == null) {
+            throw new NullPointerException("handlers");
+        }
+        for (ChannelHandler h: handlers) {
+            if (h == null) {
+                break;
+            }
+            addLast(null, h);
+        }
+        return this;
+    }
+
+    /**
+     * 创建新节点，调用者要持有锁，名字为null时自动生成一个不重复的名字
+     */
+    private AbstractChannelHandlerContext newContext(String name, ChannelHandler handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        if (name == null) {
+            name = generateName(handler);
+        } else if (context0(name) != null) {
+            throw new IllegalArgumentException("Duplicate handler name: " + name);
+        }
+        return new DefaultChannelHandlerContext(this, name, handler);
+    }
+
+    private String generateName(ChannelHandler handler) {
+        String baseName = handler.getClass().getSimpleName();
+        if (baseName.isEmpty()) {
+            //匿名内部类没有简单类名
+            baseName = handler.getClass().getName();
+            baseName = baseName.substring(baseName.lastIndexOf('.') + 1);
+        }
+        for (int i = 0; ; i++) {
+            String newName = baseName + '#' + i;
+            if (context0(newName) == null) {
+                return newName;
+            }
+        }
+    }
+
+    @Override
+    public ChannelPipeline remove(ChannelHandler handler) {
+        remove(getContextOrDie(handler));
+        return this;
+    }
+
+    @Override
+    public ChannelHandler remove(String name) {
+        AbstractChannelHandlerContext ctx = context0(name);
+        if (ctx == null) {
+            throw new IllegalArgumentException("No such handler: " + name);
+        }
+        remove(ctx);
+        return ctx.handler();
+    }
+
+    private void remove(AbstractChannelHandlerContext ctx) {
+        synchronized (this) {
+            AbstractChannelHandlerContext prev = ctx.prev;
+            AbstractChannelHandlerContext next = ctx.next;
+            //被删除节点自己的prev和next保持不变，正在经过它传递的事件还能继续传下去
+            prev.next = next;
+            next.prev = prev;
+            ctx.setRemoved();
+        }
+        callHandlerRemoved(ctx);
+    }
+
+    private AbstractChannelHandlerContext getContextOrDie(ChannelHandler handler) {
+        AbstractChannelHandlerContext ctx = (AbstractChannelHandlerContext) context(handler);
+        if (ctx == null) {
+            throw new IllegalArgumentException("Handler not found: " + handler);
+        }
+        return ctx;
+    }
+
+    @Override
+    public ChannelHandler get(String name) {
+        ChannelHandlerContext ctx = context(name);
+        return ctx == null ? null : ctx.handler();
+    }
+
+    @Override
+    public ChannelHandlerContext context(ChannelHandler handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        AbstractChannelHandlerContext ctx = head.next;
+        while (ctx != tail) {
+            if (ctx.handler() == handler) {
+                return ctx;
+            }
+            ctx = ctx.next;
+        }
+        return null;
+    }
+
+    @Override
+    public ChannelHandlerContext context(String name) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        return context0(name);
+    }
+
+    private AbstractChannelHandlerContext context0(String name) {
+        AbstractChannelHandlerContext ctx = head.next;
+        while (ctx != tail) {
+            if (ctx.name().equals(name)) {
+                return ctx;
+            }
+            ctx = ctx.next;
+        }
+        return null;
+    }
+
+    @Override
+    public ChannelHandler first() {
+        AbstractChannelHandlerContext first = head.next;
+        return first == tail ? null : first.handler();
+    }
+
+    @Override
+    public ChannelHandler last() {
+        AbstractChannelHandlerContext last = tail.prev;
+        return last == head ? null : last.handler();
+    }
+
+    /**
+     * channel已经注册了，就在事件循环线程中回调handlerAdded，和其他事件保持在同一个线程中
+     */
+    private void callHandlerAdded(final AbstractChannelHandlerContext ctx) {
+        NioEventLoop executor = ctx.executor();
+        if (executor != null && !executor.inEventLoop(Thread.currentThread())) {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    callHandlerAdded0(ctx);
+                }
+            });
+            return;
+        }
+        callHandlerAdded0(ctx);
+    }
+
+    private void callHandlerAdded0(AbstractChannelHandlerContext ctx) {
+        try {
+            ctx.handler().handlerAdded(ctx);
+        } catch (Throwable t) {
+            //处理器初始化失败，不能留在链表中
+            try {
+                remove(ctx);
+            } catch (Throwable t2) {
+                logger.warn("Failed to remove a handler: {}", ctx.name(), t2);
+            }
+            fireExceptionCaught(new IllegalStateException(
+                    ctx.handler().getClass().getName() + ".handlerAdded() has thrown an exception; removed.", t));
+        }
+    }
+
+    private void callHandlerRemoved(final AbstractChannelHandlerContext ctx) {
+        NioEventLoop executor = ctx.executor();
+        if (executor != null && !executor.inEventLoop(Thread.currentThread())) {
+            executor.executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    callHandlerRemoved0(ctx);
+                }
+            });
+            return;
+        }
+        callHandlerRemoved0(ctx);
+    }
+
+    private void callHandlerRemoved0(AbstractChannelHandlerContext ctx) {
+        try {
+            ctx.handler().handlerRemoved(ctx);
+        } catch (Throwable t) {
+            fireExceptionCaught(new IllegalStateException(
+                    ctx.handler().getClass().getName() + ".handlerRemoved() has thrown an exception.", t));
+        }
+    }
+
+    @Override
+    public ChannelPipeline fireChannelRegistered() {
+        AbstractChannelHandlerContext.invokeChannelRegistered(head);
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline fireChannelUnregistered() {
+        AbstractChannelHandlerContext.invokeChannelUnregistered(head);
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline fireChannelActive() {
+        AbstractChannelHandlerContext.invokeChannelActive(head);
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline fireChannelInactive() {
+        AbstractChannelHandlerContext.invokeChannelInactive(head);
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline fireChannelRead(Object msg) {
+        AbstractChannelHandlerContext.invokeChannelRead(head, msg);
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline fireChannelReadComplete() {
+        AbstractChannelHandlerContext.invokeChannelReadComplete(head);
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline fireChannelWritabilityChanged() {
+        AbstractChannelHandlerContext.invokeChannelWritabilityChanged(head);
+        return this;
+    }
+
+    @Override
+    public ChannelPipeline fireExceptionCaught(Throwable cause) {
+        AbstractChannelHandlerContext.invokeExceptionCaught(head, cause);
+        return this;
+    }
+
+    @Override
+    public void write(Object msg) {
+        tail.write(msg);
+    }
+
+    @Override
+    public void flush() {
+        tail.flush();
+    }
+
+    @Override
+    public void writeAndFlush(Object msg) {
+        tail.writeAndFlush(msg);
+    }
+
+    @Override
+    public void close() {
+        tail.close();
+    }
+
+    /**
+     * 头节点，入站事件直接往后传，出站操作交给channel的Unsafe完成
+     */
+    final class HeadContext extends AbstractChannelHandlerContext implements ChannelOutboundHandler, ChannelInboundHandler {
+
+        private final Channel.Unsafe unsafe;
+
+        HeadContext(DefaultChannelPipeline pipeline) {
+            super(pipeline, HEAD_NAME, true, true);
+            unsafe = pipeline.channel().unsafe();
+        }
+
+        @Override
+        public ChannelHandler handler() {
+            return this;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            // 什么都不做
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) {
+            // 什么都不做
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg) {
+            unsafe.write(msg);
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            unsafe.flush();
+        }
+
+        @Override
+        public void close(ChannelHandlerContext ctx) {
+            unsafe.close();
+        }
+
+        @Override
+        public void channelRegistered(ChannelHandlerContext ctx) {
+            ctx.fireChannelRegistered();
+        }
+
+        @Override
+        public void channelUnregistered(ChannelHandlerContext ctx) {
+            ctx.fireChannelUnregistered();
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            ctx.fireChannelActive();
+            //channel可以使用了，开始关注读事件
+            unsafe.beginRead();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ctx.fireChannelRead(msg);
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.fireChannelReadComplete();
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            ctx.fireChannelWritabilityChanged();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.fireExceptionCaught(cause);
+        }
+    }
+
+    /**
+     * 尾节点，事件传到这里说明用户的处理器没有处理，释放消息，打印日志
+     */
+    final class TailContext extends AbstractChannelHandlerContext implements ChannelInboundHandler {
+
+        TailContext(DefaultChannelPipeline pipeline) {
+            super(pipeline, TAIL_NAME, true, false);
+        }
+
+        @Override
+        public ChannelHandler handler() {
+            return this;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            // 什么都不做
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) {
+            // 什么都不做
+        }
+
+        @Override
+        public void channelRegistered(ChannelHandlerContext ctx) {
+            // 什么都不做
+        }
+
+        @Override
+        public void channelUnregistered(ChannelHandlerContext ctx) {
+            // 什么都不做
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            // 什么都不做
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            // 什么都不做
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                logger.debug("Discarded inbound message {} that reached at the tail of the pipeline. " +
+                        "Please check your pipeline configuration.", msg);
+            } finally {
+                //消息没有被任何处理器处理，不释放的话内存池中的内存就泄漏了
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            // 什么都不做
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            // 什么都不做
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.warn("An exceptionCaught() event was fired, and it reached at the tail of the pipeline. " +
+                    "It usually means the last handler in the pipeline did not handle the exception.", cause);
+        }
+    }
+}
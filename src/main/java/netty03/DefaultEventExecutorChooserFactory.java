@@ -0,0 +1,60 @@
+package netty03;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 默认的选择器工厂，采用轮询的方式选择执行器。
+ * 如果执行器的数量是2的幂次方，就用位运算代替取模运算，这是一个小小的优化
+ */
+public final class DefaultEventExecutorChooserFactory implements EventExecutorChooserFactory {
+
+    public static final DefaultEventExecutorChooserFactory INSTANCE = new DefaultEventExecutorChooserFactory();
+
+    private DefaultEventExecutorChooserFactory() { }
+
+    @Override
+    public EventExecutorChooser newChooser(SingleThreadEventExecutor[] executors) {
+        if (isPowerOfTwo(executors.length)) {
+            return new PowerOfTwoEventExecutorChooser(executors);
+        } else {
+            return new GenericEventExecutorChooser(executors);
+        }
+    }
+
+    //判断一个数是否是2的幂次方，比如8的二进制是1000，-8的二进制是...11111000，两者相与还是8
+    private static boolean isPowerOfTwo(int val) {
+        return (val & -val) == val;
+    }
+
+    private static final class PowerOfTwoEventExecutorChooser implements EventExecutorChooser {
+        private final AtomicInteger idx = new AtomicInteger();
+        private final SingleThreadEventExecutor[] executors;
+
+        PowerOfTwoEventExecutorChooser(SingleThreadEventExecutor[] executors) {
+            this.executors = executors;
+        }
+
+        @Override
+        public SingleThreadEventExecutor next() {
+            //数组长度是2的幂次方时，idx & (length - 1) 和 idx % length 的结果是一样的，但位运算更快
+            return executors[idx.getAndIncrement() & executors.length - 1];
+        }
+    }
+
+    private static final class GenericEventExecutorChooser implements EventExecutorChooser {
+        private final AtomicInteger idx = new AtomicInteger();
+        private final SingleThreadEventExecutor[] executors;
+
+        GenericEventExecutorChooser(SingleThreadEventExecutor[] executors) {
+            this.executors = executors;
+        }
+
+        @Override
+        public SingleThreadEventExecutor next() {
+            //idx 自增溢出之后会变成负数，所以这里要取绝对值
+            return executors[Math.abs(idx.getAndIncrement() % executors.length)];
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package netty03;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description FileRegion 的默认实现。传入 File 的时候，文件要等到第一次发送时才打开，
+ * 这样排队等待发送的大量文件不会一直占着文件描述符。引用计数减到0的时候关闭文件
+ */
+public class DefaultFileRegion extends AbstractReferenceCounted implements FileRegion {
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultFileRegion.class);
+
+    private final File f;
+
+    private final long position;
+
+    private final long count;
+
+    private long transferred;
+
+    private FileChannel file;
+
+    public DefaultFileRegion(FileChannel file, long position, long count) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        checkPositionAndCount(position, count);
+        this.file = file;
+        this.position = position;
+        this.count = count;
+        this.f = null;
+    }
+
+    public DefaultFileRegion(File f, long position, long count) {
+        if (f == null) {
+            throw new NullPointerException("f");
+        }
+        checkPositionAndCount(position, count);
+        this.position = position;
+        this.count = count;
+        this.f = f;
+    }
+
+    private static void checkPositionAndCount(long position, long count) {
+        if (position < 0) {
+            throw new IllegalArgumentException("position must be >= 0 but was " + position);
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("count must be >= 0 but was " + count);
+        }
+    }
+
+    public boolean isOpen() {
+        return file != null;
+    }
+
+    /**
+     * 打开文件，已经打开了就什么都不做
+     */
+    public void open() throws IOException {
+        if (!isOpen() && refCnt() > 0) {
+            file = new RandomAccessFile(f, "r").getChannel();
+        }
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    @Override
+    public long transferred() {
+        return transferred;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target, long position) throws IOException {
+        long count = this.count - position;
+        if (count < 0 || position < 0) {
+            throw new IllegalArgumentException(
+                    "position out of range: " + position + " (expected: 0 - " + (this.count - 1) + ')');
+        }
+        if (count == 0) {
+            return 0L;
+        }
+        if (refCnt() == 0) {
+            throw new IllegalReferenceCountException(0);
+        }
+        open();
+        //发送缓冲区满了的时候只会发送一部分，甚至是0
+        long written = file.transferTo(this.position + position, count, target);
+        if (written > 0) {
+            transferred += written;
+        } else if (written == 0) {
+            //可能是发送缓冲区满了，也可能是文件被截断了，后一种情况一直重试也发送不完
+            validate(this, position);
+        }
+        return written;
+    }
+
+    /**
+     * 检查文件是不是比区域要求的短
+     */
+    static void validate(DefaultFileRegion region, long position) throws IOException {
+        long size = region.file.size();
+        long count = region.count - position;
+        if (region.position + count + position > size) {
+            throw new IOException("Underlying file size " + size + " smaller then requested count " + region.count);
+        }
+    }
+
+    @Override
+    protected void deallocate() {
+        FileChannel file = this.file;
+        if (file == null) {
+            return;
+        }
+        this.file = null;
+        try {
+            file.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close a file.", e);
+        }
+    }
+
+    @Override
+    public FileRegion retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public FileRegion retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+}
@@ -0,0 +1,102 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 限制一次读事件中最多读 maxMessagesPerRead 次。
+ * 之前一次读事件只读一次，数据量大的时候要经过很多轮 select 才能读完；但是一直读下去又会让同一个线程上的其他 channel 等太久，
+ * 所以只要上一次把缓冲区读满了（说明 socket 中很可能还有数据），并且还没有超过次数限制，就接着读
+ */
+public abstract class DefaultMaxMessagesRecvByteBufAllocator implements RecvByteBufAllocator {
+
+    private volatile int maxMessagesPerRead;
+
+    public DefaultMaxMessagesRecvByteBufAllocator() {
+        this(16);
+    }
+
+    public DefaultMaxMessagesRecvByteBufAllocator(int maxMessagesPerRead) {
+        maxMessagesPerRead(maxMessagesPerRead);
+    }
+
+    public int maxMessagesPerRead() {
+        return maxMessagesPerRead;
+    }
+
+    public DefaultMaxMessagesRecvByteBufAllocator maxMessagesPerRead(int maxMessagesPerRead) {
+        if (maxMessagesPerRead <= 0) {
+            throw new IllegalArgumentException("maxMessagesPerRead: " + maxMessagesPerRead + " (expected: > 0)");
+        }
+        this.maxMessagesPerRead = maxMessagesPerRead;
+        return this;
+    }
+
+    public abstract class MaxMessageHandle implements Handle {
+
+        private int maxMessagePerRead;
+
+        private int totalMessages;
+
+        private int totalBytesRead;
+
+        private int attemptedBytesRead;
+
+        private int lastBytesRead;
+
+        @Override
+        public ByteBuf allocate(ByteBufAllocator alloc) {
+            return alloc.buffer(guess());
+        }
+
+        @Override
+        public void reset() {
+            //每次读事件开始的时候再读取一次，这样修改了 maxMessagesPerRead 之后马上就能生效
+            maxMessagePerRead = maxMessagesPerRead();
+            totalMessages = totalBytesRead = 0;
+        }
+
+        @Override
+        public void attemptedBytesRead(int bytes) {
+            attemptedBytesRead = bytes;
+        }
+
+        @Override
+        public int attemptedBytesRead() {
+            return attemptedBytesRead;
+        }
+
+        @Override
+        public void lastBytesRead(int bytes) {
+            lastBytesRead = bytes;
+            if (bytes > 0) {
+                totalBytesRead += bytes;
+            }
+        }
+
+        @Override
+        public int lastBytesRead() {
+            return lastBytesRead;
+        }
+
+        @Override
+        public void incMessagesRead(int numMessages) {
+            totalMessages += numMessages;
+        }
+
+        @Override
+        public boolean continueReading() {
+            //没有把缓冲区读满，说明socket中的数据已经读完了，不需要再读一次去确认
+            return totalMessages < maxMessagePerRead
+                    && totalBytesRead > 0
+                    && attemptedBytesRead == lastBytesRead;
+        }
+
+        @Override
+        public void readComplete() {
+        }
+
+        protected final int totalBytesRead() {
+            return totalBytesRead < 0 ? Integer.MAX_VALUE : totalBytesRead;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package netty03;
+
+import java.util.List;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 按一个或多个分隔符拆分帧的解码器，有多个分隔符时按最先出现的那个拆分。
+ * 查找时先用 ByteBuf.forEachByte 找到某个分隔符的第一个字节，再比较剩下的字节。
+ * 帧还没有收全的时候记住已经确定不会出现分隔符的位置，下一次从那里接着找，只有结尾可能是半个分隔符的几个字节需要重新比较。
+ * 分隔符是 Delimiters.lineDelimiter() 的时候直接交给 LineBasedFrameDecoder 处理。
+ * 解码出的帧是累积缓冲区的切片，不拷贝数据
+ */
+public class DelimiterBasedFrameDecoder extends ByteToMessageDecoder {
+
+    private final byte[][] delimiters;
+
+    //遇到任意一个分隔符的第一个字节时停止
+    private final ByteProcessor delimiterStartFinder;
+
+    private final int maxDelimiterLength;
+
+    private final int maxFrameLength;
+
+    private final boolean stripDelimiter;
+
+    private final boolean failFast;
+
+    private boolean discardingTooLongFrame;
+
+    private int tooLongFrameLength;
+
+    //从readerIndex开始，已经查找过、确定不是分隔符开头的字节数
+    private int offset;
+
+    //最近一次找到的分隔符
+    private byte[] foundDelimiter;
+
+    //分隔符是换行符的时候使用
+    private final LineBasedFrameDecoder lineBasedDecoder;
+
+    public DelimiterBasedFrameDecoder(int maxFrameLength, ByteBuf delimiter) {
+        this(maxFrameLength, true, delimiter);
+    }
+
+    public DelimiterBasedFrameDecoder(int maxFrameLength, boolean stripDelimiter, ByteBuf delimiter) {
+        this(maxFrameLength, stripDelimiter, true, delimiter);
+    }
+
+    public DelimiterBasedFrameDecoder(int maxFrameLength, boolean stripDelimiter, boolean failFast,
+                                      ByteBuf delimiter) {
+        this(maxFrameLength, stripDelimiter, failFast, new ByteBuf[] { delimiter });
+    }
+
+    public DelimiterBasedFrameDecoder(int maxFrameLength, ByteBuf... delimiters) {
+        this(maxFrameLength, true, delimiters);
+    }
+
+    public DelimiterBasedFrameDecoder(int maxFrameLength, boolean stripDelimiter, ByteBuf... delimiters) {
+        this(maxFrameLength, stripDelimiter, true, delimiters);
+    }
+
+    /**
+     * @param delimiters 分隔符的可读部分会被拷贝下来，之后不再使用传进来的ByteBuf
+     */
+    public DelimiterBasedFrameDecoder(int maxFrameLength, boolean stripDelimiter, boolean failFast,
+                                      ByteBuf... delimiters) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be a positive integer: " + maxFrameLength);
+        }
+        if (delimiters == null) {
+            throw new NullPointerException("delimiters");
+        }
+        if (delimiters.length == 0) {
+            throw new IllegalArgumentException("empty delimiters");
+        }
+        this.delimiters = new byte[delimiters.length][];
+        final boolean[] startBytes = new boolean[256];
+        int maxDelimiterLength = 0;
+        for (int i = 0; i < delimiters.length; i++) {
+            ByteBuf d = delimiters[i];
+            if (d == null) {
+                throw new NullPointerException("delimiter");
+            }
+            if (!d.isReadable()) {
+                throw new IllegalArgumentException("empty delimiter");
+            }
+            byte[] bytes = new byte[d.readableBytes()];
+            d.getBytes(d.readerIndex(), bytes);
+            this.delimiters[i] = bytes;
+            startBytes[bytes[0] & 0xFF] = true;
+            maxDelimiterLength = Math.max(maxDelimiterLength, bytes.length);
+        }
+        this.maxDelimiterLength = maxDelimiterLength;
+        this.delimiterStartFinder = new ByteProcessor() {
+            @Override
+            public boolean process(byte value) {
+                return !startBytes[value & 0xFF];
+            }
+        };
+        if (isLineBased(this.delimiters) && !isSubclass()) {
+            lineBasedDecoder = new LineBasedFrameDecoder(maxFrameLength, stripDelimiter, failFast);
+        } else {
+            lineBasedDecoder = null;
+        }
+        this.maxFrameLength = maxFrameLength;
+        this.stripDelimiter = stripDelimiter;
+        this.failFast = failFast;
+    }
+
+    /**
+     * 分隔符是不是只有"\r\n"和"\n"
+     */
+    private static boolean isLineBased(final byte[][] delimiters) {
+        if (delimiters.length != 2) {
+            return false;
+        }
+        byte[] a = delimiters[0];
+        byte[] b = delimiters[1];
+        if (a.length < b.length) {
+            a = delimiters[1];
+            b = delimiters[0];
+        }
+        return a.length == 2 && b.length == 1
+                && a[0] == '\r' && a[1] == '\n'
+                && b[0] == '\n';
+    }
+
+    /**
+     * 子类可能重写了decode方法，这时不能换成LineBasedFrameDecoder
+     */
+    private boolean isSubclass() {
+        return getClass() != DelimiterBasedFrameDecoder.class;
+    }
+
+    @Override
+    protected final void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        Object decoded = decode(ctx, in);
+        if (decoded != null) {
+            out.add(decoded);
+        }
+    }
+
+    /**
+     * 从buffer中解码出一个帧，还没有收到分隔符的时候返回null
+     */
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf buffer) throws Exception {
+        if (lineBasedDecoder != null) {
+            return lineBasedDecoder.decode(ctx, buffer);
+        }
+        int frameLength = indexOfDelimiter(buffer);
+        if (frameLength >= 0) {
+            int delimLength = foundDelimiter.length;
+            foundDelimiter = null;
+            if (discardingTooLongFrame) {
+                //超长的帧终于结束了，丢弃到分隔符为止，开始解码下一个帧
+                discardingTooLongFrame = false;
+                buffer.skipBytes(frameLength + delimLength);
+                int tooLongFrameLength = this.tooLongFrameLength + frameLength;
+                this.tooLongFrameLength = 0;
+                if (!failFast) {
+                    fail(tooLongFrameLength);
+                }
+                return null;
+            }
+            if (frameLength > maxFrameLength) {
+                buffer.skipBytes(frameLength + delimLength);
+                fail(frameLength);
+                return null;
+            }
+            ByteBuf frame;
+            if (stripDelimiter) {
+                frame = buffer.readRetainedSlice(frameLength);
+                buffer.skipBytes(delimLength);
+            } else {
+                frame = buffer.readRetainedSlice(frameLength + delimLength);
+            }
+            return frame;
+        } else {
+            if (!discardingTooLongFrame) {
+                if (buffer.readableBytes() > maxFrameLength) {
+                    tooLongFrameLength = discardScanned(buffer);
+                    discardingTooLongFrame = true;
+                    if (failFast) {
+                        fail(tooLongFrameLength);
+                    }
+                }
+            } else {
+                tooLongFrameLength += discardScanned(buffer);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 丢弃已经确定不是分隔符开头的数据，结尾可能是半个分隔符的字节要留下来，否则会漏掉跨越两次读事件的分隔符
+     */
+    private int discardScanned(ByteBuf buffer) {
+        int discarded = offset;
+        buffer.skipBytes(discarded);
+        offset = 0;
+        return discarded;
+    }
+
+    /**
+     * 查找最先出现的分隔符，找到时把它记在foundDelimiter中
+     * @return 分隔符之前的字节数，没有找到时返回-1
+     */
+    private int indexOfDelimiter(ByteBuf buffer) {
+        final int readerIndex = buffer.readerIndex();
+        final int writerIndex = buffer.writerIndex();
+        int i = readerIndex + offset;
+        while (i < writerIndex) {
+            i = buffer.forEachByte(i, writerIndex - i, delimiterStartFinder);
+            if (i == -1) {
+                break;
+            }
+            for (byte[] delimiter : delimiters) {
+                if (matches(buffer, i, writerIndex, delimiter)) {
+                    foundDelimiter = delimiter;
+                    offset = 0;
+                    return i - readerIndex;
+                }
+            }
+            i++;
+        }
+        //最后maxDelimiterLength - 1个字节可能是一个还没有收全的分隔符，下一次要重新比较
+        offset = Math.max(0, writerIndex - readerIndex - maxDelimiterLength + 1);
+        return -1;
+    }
+
+    private static boolean matches(ByteBuf buffer, int index, int writerIndex, byte[] delimiter) {
+        if (writerIndex - index < delimiter.length) {
+            return false;
+        }
+        for (int j = 1; j < delimiter.length; j++) {
+            if (buffer.getByte(index + j) != delimiter[j]) {
+                return false;
+            }
+        }
+        return buffer.getByte(index) == delimiter[0];
+    }
+
+    private void fail(long frameLength) {
+        if (frameLength > 0) {
+            throw new TooLongFrameException(
+                    "frame length exceeds " + maxFrameLength + ": " + frameLength + " - discarded");
+        } else {
+            throw new TooLongFrameException("frame length exceeds " + maxFrameLength + " - discarding");
+        }
+    }
+}
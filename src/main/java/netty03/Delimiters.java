@@ -0,0 +1,30 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description DelimiterBasedFrameDecoder 常用的分隔符
+ */
+public final class Delimiters {
+
+    private Delimiters() {
+    }
+
+    /**
+     * 以'\0'结尾的帧，常用在 Flash XML socket 这类协议中
+     */
+    public static ByteBuf[] nulDelimiter() {
+        return new ByteBuf[] {
+                Unpooled.wrappedBuffer(new byte[] { 0 }) };
+    }
+
+    /**
+     * "\r\n" 和 "\n"，文本协议中的换行符
+     */
+    public static ByteBuf[] lineDelimiter() {
+        return new ByteBuf[] {
+                Unpooled.wrappedBuffer(new byte[] { '\r', '\n' }),
+                Unpooled.wrappedBuffer(new byte[] { '\n' }),
+        };
+    }
+}
@@ -0,0 +1,23 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 执行器选择器的工厂，NioEventLoopGroup 通过它为每一个新的 channel 挑选一个 NioEventLoop。
+ * 把选择策略做成可插拔的，用户可以根据需要替换成别的负载均衡方式
+ */
+public interface EventExecutorChooserFactory {
+
+    /**
+     * 根据执行器数组创建一个新的选择器
+     */
+    EventExecutorChooser newChooser(SingleThreadEventExecutor[] executors);
+
+    interface EventExecutorChooser {
+
+        /**
+         * 返回下一个要使用的执行器
+         */
+        SingleThreadEventExecutor next();
+    }
+}
@@ -0,0 +1,42 @@
+package netty03;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 文件中的一段区域，作为消息写到 channel 中时，数据通过 FileChannel.transferTo 直接从文件发送到 socket，
+ * 在 linux 上对应 sendfile 系统调用，数据不需要拷贝到用户空间，也不占用堆内存。
+ * 一次可能只发送一部分，剩下的等 socket 可写了再继续，全部发送完之后由 channel 释放，文件随之关闭
+ */
+public interface FileRegion extends ReferenceCounted {
+
+    /**
+     * 区域在文件中的起始位置
+     */
+    long position();
+
+    /**
+     * 已经发送的字节数
+     */
+    long transferred();
+
+    /**
+     * 区域一共有多少字节
+     */
+    long count();
+
+    /**
+     * 从区域中相对 position 的位置开始，把剩下的数据发送到 target 中
+     * @param position 相对区域起点的位置，一般就是 transferred()
+     * @return 这一次发送的字节数
+     */
+    long transferTo(WritableByteChannel target, long position) throws IOException;
+
+    @Override
+    FileRegion retain();
+
+    @Override
+    FileRegion retain(int increment);
+}
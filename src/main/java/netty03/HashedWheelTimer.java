@@ -0,0 +1,552 @@
+package netty03;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 时间轮定时器。时间轮就像一个钟表，表盘被分成了 ticksPerWheel 个格子，每个格子是一个存放定时任务的双向链表，
+ * 指针每隔 tickDuration 走一格，走到哪个格子，就把这个格子中到期的任务执行了。
+ * 如果一个任务的延迟超过了一圈，就记录它还需要转几圈（remainingRounds），每经过一次减一，减到0才到期。
+ * 和基于堆的定时任务队列相比，添加和取消任务都是O(1)的：添加只是放进一个无锁队列，取消只是把节点从链表中摘掉。
+ * 代价是时间精度只能到 tickDuration，非常适合给海量连接设置读写超时这种场景，这些超时任务大部分都会在到期之前被取消。
+ * 所有的任务都由一个工作线程推动，任务默认也在这个线程中执行，所以任务中不能有耗时的操作，
+ * 也可以指定一个 executor，比如 channel 所在的 NioEventLoop，到期之后把任务交给它执行
+ */
+public class HashedWheelTimer implements Timer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
+
+    private static final AtomicIntegerFieldUpdater<HashedWheelTimer> WORKER_STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(HashedWheelTimer.class, "workerState");
+
+    private static final int WORKER_STATE_INIT = 0;
+    private static final int WORKER_STATE_STARTED = 1;
+    private static final int WORKER_STATE_SHUTDOWN = 2;
+
+    //时间轮的最小刻度，太小的话工作线程会频繁醒来
+    private static final long MILLISECOND_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Worker worker = new Worker();
+
+    private final Thread workerThread;
+
+    @SuppressWarnings({"unused", "FieldMayBeFinal"})
+    private volatile int workerState;
+
+    private final long tickDuration;
+
+    private final HashedWheelBucket[] wheel;
+
+    private final int mask;
+
+    //工作线程启动之后才会给startTime赋值，调用newTimeout的线程要等待它完成
+    private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+
+    //新添加的任务先放在这个队列中，由工作线程在每一次tick的时候转移到时间轮的格子里，
+    //这样添加任务的线程就不需要和工作线程竞争格子中的链表了
+    private final Queue<HashedWheelTimeout> timeouts = new MpscLinkedQueue<HashedWheelTimeout>();
+
+    //被取消的任务也是先放在队列中，由工作线程从链表中删除
+    private final Queue<HashedWheelTimeout> cancelledTimeouts = new MpscLinkedQueue<HashedWheelTimeout>();
+
+    private final AtomicLong pendingTimeouts = new AtomicLong(0);
+
+    private volatile long startTime;
+
+    public HashedWheelTimer() {
+        this(100, TimeUnit.MILLISECONDS);
+    }
+
+    public HashedWheelTimer(long tickDuration, TimeUnit unit) {
+        this(tickDuration, unit, 512);
+    }
+
+    /**
+     * @param tickDuration  指针走一格的时间
+     * @param ticksPerWheel 时间轮的格子数量，会被调整为2的幂次方
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("ticksPerWheel must be greater than 0: " + ticksPerWheel);
+        }
+        wheel = createWheel(ticksPerWheel);
+        //格子数量是2的幂次方，就可以用 tick & mask 代替 tick % wheel.length
+        mask = wheel.length - 1;
+        long duration = unit.toNanos(tickDuration);
+        //防止 duration * wheel.length 溢出
+        if (duration >= Long.MAX_VALUE / wheel.length) {
+            throw new IllegalArgumentException(String.format(
+                    "tickDuration: %d (expected: 0 < tickDuration in nanos < %d",
+                    tickDuration, Long.MAX_VALUE / wheel.length));
+        }
+        if (duration < MILLISECOND_NANOS) {
+            logger.warn("Configured tickDuration {} smaller then {}, using 1ms.", tickDuration, MILLISECOND_NANOS);
+            this.tickDuration = MILLISECOND_NANOS;
+        } else {
+            this.tickDuration = duration;
+        }
+        workerThread = new Thread(worker, "hashedWheelTimer-" + INSTANCE_COUNTER.incrementAndGet());
+    }
+
+    private static HashedWheelBucket[] createWheel(int ticksPerWheel) {
+        if (ticksPerWheel > 1073741824) {
+            throw new IllegalArgumentException("ticksPerWheel may not be greater than 2^30: " + ticksPerWheel);
+        }
+        int normalizedTicksPerWheel = 1;
+        while (normalizedTicksPerWheel < ticksPerWheel) {
+            normalizedTicksPerWheel <<= 1;
+        }
+        HashedWheelBucket[] wheel = new HashedWheelBucket[normalizedTicksPerWheel];
+        for (int i = 0; i < wheel.length; i ++) {
+            wheel[i] = new HashedWheelBucket();
+        }
+        return wheel;
+    }
+
+    /**
+     * 启动工作线程，第一次添加任务的时候会自动调用，所以一般不需要手动调用
+     */
+    public void start() {
+        switch (WORKER_STATE_UPDATER.get(this)) {
+            case WORKER_STATE_INIT:
+                if (WORKER_STATE_UPDATER.compareAndSet(this, WORKER_STATE_INIT, WORKER_STATE_STARTED)) {
+                    workerThread.start();
+                }
+                break;
+            case WORKER_STATE_STARTED:
+                break;
+            case WORKER_STATE_SHUTDOWN:
+                throw new IllegalStateException("cannot be started once stopped");
+            default:
+                throw new Error("Invalid WorkerState");
+        }
+        //等待工作线程给startTime赋值
+        while (startTime == 0) {
+            try {
+                startTimeInitialized.await();
+            } catch (InterruptedException ignore) {
+                // 忽略，继续等待
+            }
+        }
+    }
+
+    @Override
+    public Set<Timeout> stop() {
+        if (Thread.currentThread() == workerThread) {
+            throw new IllegalStateException(
+                    HashedWheelTimer.class.getSimpleName() + ".stop() cannot be called from " +
+                            TimerTask.class.getSimpleName());
+        }
+        if (!WORKER_STATE_UPDATER.compareAndSet(this, WORKER_STATE_STARTED, WORKER_STATE_SHUTDOWN)) {
+            //工作线程还没有启动过，直接标记为关闭就可以了
+            WORKER_STATE_UPDATER.getAndSet(this, WORKER_STATE_SHUTDOWN);
+            return Collections.emptySet();
+        }
+        boolean interrupted = false;
+        while (workerThread.isAlive()) {
+            workerThread.interrupt();
+            try {
+                workerThread.join(100);
+            } catch (InterruptedException ignored) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return worker.unprocessedTimeouts();
+    }
+
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        return newTimeout(task, delay, unit, null);
+    }
+
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit, Executor executor) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        start();
+        pendingTimeouts.incrementAndGet();
+        //截止时间是相对于工作线程启动时间的
+        long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+        //防止溢出
+        if (delay > 0 && deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+        HashedWheelTimeout timeout = new HashedWheelTimeout(this, task, deadline, executor);
+        timeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 还没有到期也没有被取消的任务数量
+     */
+    public long pendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    private final class Worker implements Runnable {
+
+        private final Set<Timeout> unprocessedTimeouts = new HashSet<Timeout>();
+
+        //指针已经走过的格子数
+        private long tick;
+
+        @Override
+        public void run() {
+            startTime = System.nanoTime();
+            //System.nanoTime()有可能返回0，而0表示还没有初始化
+            if (startTime == 0) {
+                startTime = 1;
+            }
+            startTimeInitialized.countDown();
+            do {
+                final long deadline = waitForNextTick();
+                if (deadline > 0) {
+                    int idx = (int) (tick & mask);
+                    processCancelledTasks();
+                    HashedWheelBucket bucket = wheel[idx];
+                    transferTimeoutsToBuckets();
+                    bucket.expireTimeouts(deadline);
+                    tick++;
+                }
+            } while (WORKER_STATE_UPDATER.get(HashedWheelTimer.this) == WORKER_STATE_STARTED);
+            //定时器被停止了，把还没有执行的任务收集起来返回给用户
+            for (HashedWheelBucket bucket : wheel) {
+                bucket.clearTimeouts(unprocessedTimeouts);
+            }
+            for (;;) {
+                HashedWheelTimeout timeout = timeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (!timeout.isCancelled()) {
+                    unprocessedTimeouts.add(timeout);
+                }
+            }
+            processCancelledTasks();
+        }
+
+        private void transferTimeoutsToBuckets() {
+            //每次最多转移10万个任务，防止添加任务的线程太多，工作线程一直在这里转移任务
+            for (int i = 0; i < 100000; i++) {
+                HashedWheelTimeout timeout = timeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.state() == HashedWheelTimeout.ST_CANCELLED) {
+                    continue;
+                }
+                //算出这个任务要经过多少个格子才到期
+                long calculated = timeout.deadline / tickDuration;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+                //如果截止时间已经过了，就放在当前的格子中，马上执行
+                final long ticks = Math.max(calculated, tick);
+                int stopIndex = (int) (ticks & mask);
+                HashedWheelBucket bucket = wheel[stopIndex];
+                bucket.addTimeout(timeout);
+            }
+        }
+
+        private void processCancelledTasks() {
+            for (;;) {
+                HashedWheelTimeout timeout = cancelledTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                try {
+                    timeout.remove();
+                } catch (Throwable t) {
+                    logger.warn("An exception was thrown while process a cancellation task", t);
+                }
+            }
+        }
+
+        /**
+         * 睡眠到下一个格子的开始时间
+         * @return 当前时间（相对于startTime），如果定时器被停止了就返回Long.MIN_VALUE
+         */
+        private long waitForNextTick() {
+            long deadline = tickDuration * (tick + 1);
+            for (;;) {
+                final long currentTime = System.nanoTime() - startTime;
+                long sleepTimeMs = (deadline - currentTime + 999999) / 1000000;
+                if (sleepTimeMs <= 0) {
+                    if (currentTime == Long.MIN_VALUE) {
+                        return -Long.MAX_VALUE;
+                    } else {
+                        return currentTime;
+                    }
+                }
+                try {
+                    Thread.sleep(sleepTimeMs);
+                } catch (InterruptedException ignored) {
+                    if (WORKER_STATE_UPDATER.get(HashedWheelTimer.this) == WORKER_STATE_SHUTDOWN) {
+                        return Long.MIN_VALUE;
+                    }
+                }
+            }
+        }
+
+        Set<Timeout> unprocessedTimeouts() {
+            return Collections.unmodifiableSet(unprocessedTimeouts);
+        }
+    }
+
+    private static final class HashedWheelTimeout implements Timeout, Runnable {
+
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<HashedWheelTimeout> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(HashedWheelTimeout.class, "state");
+
+        private final HashedWheelTimer timer;
+
+        private final TimerTask task;
+
+        private final long deadline;
+
+        //任务到期之后交给它执行，为null则由定时器的工作线程执行
+        private final Executor executor;
+
+        @SuppressWarnings({"unused", "FieldMayBeFinal"})
+        private volatile int state = ST_INIT;
+
+        //还需要转几圈才到期，只会被工作线程访问
+        long remainingRounds;
+
+        //格子中的双向链表，只会被工作线程访问
+        HashedWheelTimeout next;
+        HashedWheelTimeout prev;
+
+        HashedWheelBucket bucket;
+
+        HashedWheelTimeout(HashedWheelTimer timer, TimerTask task, long deadline, Executor executor) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+            this.executor = executor;
+        }
+
+        @Override
+        public Timer timer() {
+            return timer;
+        }
+
+        @Override
+        public TimerTask task() {
+            return task;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!compareAndSetState(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            //这里只是把任务放进队列，真正从链表中删除由工作线程在下一次tick的时候完成，
+            //这样就不需要给链表加锁了
+            timer.pendingTimeouts.decrementAndGet();
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        void remove() {
+            //bucket为null说明任务还没有被放进时间轮，或者已经被工作线程从链表中删除了
+            HashedWheelBucket bucket = this.bucket;
+            if (bucket != null) {
+                bucket.remove(this);
+            }
+        }
+
+        public boolean compareAndSetState(int expected, int state) {
+            return STATE_UPDATER.compareAndSet(this, expected, state);
+        }
+
+        public int state() {
+            return state;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state() == ST_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state() == ST_EXPIRED;
+        }
+
+        public void expire() {
+            if (!compareAndSetState(ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            //每个任务要么到期、要么被取消，只会走其中一个分支，所以待执行任务数只会减一次
+            timer.pendingTimeouts.decrementAndGet();
+            if (executor == null) {
+                run();
+            } else {
+                try {
+                    executor.execute(this);
+                } catch (Throwable t) {
+                    logger.warn("An exception was thrown while submit {} for execution.", TimerTask.class.getSimpleName(), t);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run(this);
+            } catch (Throwable t) {
+                logger.warn("An exception was thrown by {}.", TimerTask.class.getSimpleName(), t);
+            }
+        }
+
+        @Override
+        public String toString() {
+            final long currentTime = System.nanoTime();
+            long remaining = deadline - currentTime + timer.startTime;
+            StringBuilder buf = new StringBuilder(192)
+                    .append("HashedWheelTimeout(deadline: ");
+            if (remaining > 0) {
+                buf.append(remaining).append(" ns later");
+            } else if (remaining < 0) {
+                buf.append(-remaining).append(" ns ago");
+            } else {
+                buf.append("now");
+            }
+            if (isCancelled()) {
+                buf.append(", cancelled");
+            }
+            return buf.append(", task: ").append(task()).append(')').toString();
+        }
+    }
+
+    /**
+     * 时间轮中的一个格子，用双向链表存放任务，只会被工作线程访问
+     */
+    private static final class HashedWheelBucket {
+
+        private HashedWheelTimeout head;
+        private HashedWheelTimeout tail;
+
+        public void addTimeout(HashedWheelTimeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        /**
+         * 执行这个格子中所有到期的任务，没有到期的任务剩余圈数减一
+         */
+        public void expireTimeouts(long deadline) {
+            HashedWheelTimeout timeout = head;
+            while (timeout != null) {
+                HashedWheelTimeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    next = remove(timeout);
+                    if (timeout.deadline <= deadline) {
+                        timeout.expire();
+                    } else {
+                        //任务被放进了错误的格子，这种情况不应该发生
+                        throw new IllegalStateException(String.format(
+                                "timeout.deadline (%d) > deadline (%d)", timeout.deadline, deadline));
+                    }
+                } else if (timeout.isCancelled()) {
+                    next = remove(timeout);
+                } else {
+                    timeout.remainingRounds --;
+                }
+                timeout = next;
+            }
+        }
+
+        public HashedWheelTimeout remove(HashedWheelTimeout timeout) {
+            HashedWheelTimeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                if (timeout == tail) {
+                    tail = null;
+                    head = null;
+                } else {
+                    head = next;
+                }
+            } else if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        public void clearTimeouts(Set<Timeout> set) {
+            for (;;) {
+                HashedWheelTimeout timeout = pollTimeout();
+                if (timeout == null) {
+                    return;
+                }
+                if (timeout.isExpired() || timeout.isCancelled()) {
+                    continue;
+                }
+                set.add(timeout);
+            }
+        }
+
+        private HashedWheelTimeout pollTimeout() {
+            HashedWheelTimeout head = this.head;
+            if (head == null) {
+                return null;
+            }
+            HashedWheelTimeout next = head.next;
+            if (next == null) {
+                tail = this.head =  null;
+            } else {
+                this.head = next;
+                next.prev = null;
+            }
+            head.next = null;
+            head.prev = null;
+            head.bucket = null;
+            return head;
+        }
+    }
+}
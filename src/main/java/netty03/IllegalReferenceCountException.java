@@ -0,0 +1,26 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 访问了已经被释放的对象，或者引用计数被多释放了的时候抛出
+ */
+public class IllegalReferenceCountException extends IllegalStateException {
+
+    private static final long serialVersionUID = -2507492394288153468L;
+
+    public IllegalReferenceCountException() {
+    }
+
+    public IllegalReferenceCountException(int refCnt) {
+        this("refCnt: " + refCnt);
+    }
+
+    public IllegalReferenceCountException(int refCnt, int increment) {
+        this("refCnt: " + refCnt + ", " + (increment > 0 ? "increment: " + increment : "decrement: " + -increment));
+    }
+
+    public IllegalReferenceCountException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,244 @@
+package netty03;
+
+import java.util.List;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 按消息中的长度字段拆分帧的解码器，适用于"消息头中带有长度"的二进制协议。
+ * 各个参数的含义：
+ * lengthFieldOffset 长度字段在帧中的偏移量；
+ * lengthFieldLength 长度字段占几个字节，只能是1、2、3、4、8，按大端序读取；
+ * lengthAdjustment 长度字段的值加上它才是长度字段之后的数据长度，比如长度字段的值包含了消息头的长度时，这里就是负数；
+ * initialBytesToStrip 解码出的帧要去掉开头的多少个字节，比如去掉消息头，只保留消息体；
+ * maxFrameLength 帧的最大长度，超过之后丢弃这个帧，并抛出 TooLongFrameException。
+ * 例如 lengthFieldOffset = 0, lengthFieldLength = 2, lengthAdjustment = 0, initialBytesToStrip = 2 时：
+ * <pre>
+ * 解码前 (14 bytes)                 解码后 (12 bytes)
+ * +--------+----------------+      +----------------+
+ * | Length | Actual Content |----->| Actual Content |
+ * | 0x000C | "HELLO, WORLD" |      | "HELLO, WORLD" |
+ * +--------+----------------+      +----------------+
+ * </pre>
+ * 解码出的帧是累积缓冲区的切片，不拷贝数据，后面的处理器用完之后要释放它
+ */
+public class LengthFieldBasedFrameDecoder extends ByteToMessageDecoder {
+
+    private final int maxFrameLength;
+
+    private final int lengthFieldOffset;
+
+    private final int lengthFieldLength;
+
+    //长度字段结束的位置，至少要收到这么多字节才能读出长度
+    private final int lengthFieldEndOffset;
+
+    private final int lengthAdjustment;
+
+    private final int initialBytesToStrip;
+
+    //为true时，一读到超长的长度字段就抛出异常；为false时，等超长的帧全部丢弃完了才抛出异常
+    private final boolean failFast;
+
+    //正在丢弃一个超长的帧
+    private boolean discardingTooLongFrame;
+
+    private long tooLongFrameLength;
+
+    //超长的帧还有多少字节没有丢弃
+    private long bytesToDiscard;
+
+    //上一次已经读出来的帧长度，帧的数据还没收全的时候记下来，下一次不用再读长度字段
+    private int frameLengthInt = -1;
+
+    public LengthFieldBasedFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength) {
+        this(maxFrameLength, lengthFieldOffset, lengthFieldLength, 0, 0);
+    }
+
+    public LengthFieldBasedFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength,
+                                        int lengthAdjustment, int initialBytesToStrip) {
+        this(maxFrameLength, lengthFieldOffset, lengthFieldLength, lengthAdjustment, initialBytesToStrip, true);
+    }
+
+    public LengthFieldBasedFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength,
+                                        int lengthAdjustment, int initialBytesToStrip, boolean failFast) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be a positive integer: " + maxFrameLength);
+        }
+        if (lengthFieldOffset < 0) {
+            throw new IllegalArgumentException("lengthFieldOffset must be a non-negative integer: " + lengthFieldOffset);
+        }
+        if (initialBytesToStrip < 0) {
+            throw new IllegalArgumentException("initialBytesToStrip must be a non-negative integer: " + initialBytesToStrip);
+        }
+        if (lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 3
+                && lengthFieldLength != 4 && lengthFieldLength != 8) {
+            throw new IllegalArgumentException("lengthFieldLength must be either 1, 2, 3, 4, or 8: " + lengthFieldLength);
+        }
+        if (lengthFieldOffset > maxFrameLength - lengthFieldLength) {
+            throw new IllegalArgumentException("maxFrameLength (" + maxFrameLength + ") must be equal to or greater than "
+                    + "lengthFieldOffset (" + lengthFieldOffset + ") + lengthFieldLength (" + lengthFieldLength + ").");
+        }
+        this.maxFrameLength = maxFrameLength;
+        this.lengthFieldOffset = lengthFieldOffset;
+        this.lengthFieldLength = lengthFieldLength;
+        this.lengthAdjustment = lengthAdjustment;
+        this.lengthFieldEndOffset = lengthFieldOffset + lengthFieldLength;
+        this.initialBytesToStrip = initialBytesToStrip;
+        this.failFast = failFast;
+    }
+
+    @Override
+    protected final void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        Object decoded = decode(ctx, in);
+        if (decoded != null) {
+            out.add(decoded);
+        }
+    }
+
+    /**
+     * 从in中解码出一个帧，数据不够的时候返回null
+     */
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        if (frameLengthInt == -1) {
+            if (discardingTooLongFrame) {
+                discardingTooLongFrame(in);
+            }
+            if (in.readableBytes() < lengthFieldEndOffset) {
+                return null;
+            }
+            int actualLengthFieldOffset = in.readerIndex() + lengthFieldOffset;
+            long frameLength = getUnadjustedFrameLength(in, actualLengthFieldOffset, lengthFieldLength);
+            if (frameLength < 0) {
+                failOnNegativeLengthField(in, frameLength, lengthFieldEndOffset);
+            }
+            frameLength += lengthAdjustment + lengthFieldEndOffset;
+            if (frameLength < lengthFieldEndOffset) {
+                failOnFrameLengthLessThanLengthFieldEndOffset(in, frameLength, lengthFieldEndOffset);
+            }
+            if (frameLength > maxFrameLength) {
+                exceededFrameLength(in, frameLength);
+                return null;
+            }
+            frameLengthInt = (int) frameLength;
+        }
+        //帧的数据还没有收全
+        if (in.readableBytes() < frameLengthInt) {
+            return null;
+        }
+        if (initialBytesToStrip > frameLengthInt) {
+            failOnFrameLengthLessThanInitialBytesToStrip(in, frameLengthInt, initialBytesToStrip);
+        }
+        in.skipBytes(initialBytesToStrip);
+        int readerIndex = in.readerIndex();
+        int actualFrameLength = frameLengthInt - initialBytesToStrip;
+        ByteBuf frame = extractFrame(ctx, in, readerIndex, actualFrameLength);
+        in.readerIndex(readerIndex + actualFrameLength);
+        frameLengthInt = -1;
+        return frame;
+    }
+
+    /**
+     * 按大端序读取长度字段的值，子类可以重写这个方法来支持其他的编码方式
+     */
+    protected long getUnadjustedFrameLength(ByteBuf buf, int offset, int length) {
+        long frameLength;
+        switch (length) {
+            case 1:
+                frameLength = buf.getUnsignedByte(offset);
+                break;
+            case 2:
+                frameLength = buf.getUnsignedShort(offset);
+                break;
+            case 3:
+                frameLength = buf.getUnsignedMedium(offset);
+                break;
+            case 4:
+                frameLength = buf.getUnsignedInt(offset);
+                break;
+            case 8:
+                frameLength = buf.getLong(offset);
+                break;
+            default:
+                throw new DecoderException(
+                        "unsupported lengthFieldLength: " + lengthFieldLength + " (expected: 1, 2, 3, 4, or 8)");
+        }
+        return frameLength;
+    }
+
+    /**
+     * 从累积缓冲区中取出帧，默认是带引用计数的切片，不拷贝数据。
+     * 累积缓冲区的引用计数因此增加，在切片被释放之前，累积缓冲区不会移动已经读过的数据
+     */
+    protected ByteBuf extractFrame(ChannelHandlerContext ctx, ByteBuf buffer, int index, int length) {
+        return buffer.retainedSlice(index, length);
+    }
+
+    private void exceededFrameLength(ByteBuf in, long frameLength) {
+        long discard = frameLength - in.readableBytes();
+        tooLongFrameLength = frameLength;
+        if (discard < 0) {
+            //整个超长的帧都已经收到了，直接跳过
+            in.skipBytes((int) frameLength);
+        } else {
+            //帧的一部分还没有收到，之后收到的数据也要丢弃
+            discardingTooLongFrame = true;
+            bytesToDiscard = discard;
+            in.skipBytes(in.readableBytes());
+        }
+        failIfNecessary(true);
+    }
+
+    private void discardingTooLongFrame(ByteBuf in) {
+        long bytesToDiscard = this.bytesToDiscard;
+        int localBytesToDiscard = (int) Math.min(bytesToDiscard, in.readableBytes());
+        in.skipBytes(localBytesToDiscard);
+        bytesToDiscard -= localBytesToDiscard;
+        this.bytesToDiscard = bytesToDiscard;
+        failIfNecessary(false);
+    }
+
+    private void failIfNecessary(boolean firstDetectionOfTooLongFrame) {
+        if (bytesToDiscard == 0) {
+            //超长的帧已经丢弃完了，重置状态，准备解码下一个帧
+            long tooLongFrameLength = this.tooLongFrameLength;
+            this.tooLongFrameLength = 0;
+            discardingTooLongFrame = false;
+            if (!failFast || firstDetectionOfTooLongFrame) {
+                fail(tooLongFrameLength);
+            }
+        } else {
+            if (failFast && firstDetectionOfTooLongFrame) {
+                fail(tooLongFrameLength);
+            }
+        }
+    }
+
+    private void fail(long frameLength) {
+        if (frameLength > 0) {
+            throw new TooLongFrameException(
+                    "Adjusted frame length exceeds " + maxFrameLength + ": " + frameLength + " - discarded");
+        } else {
+            throw new TooLongFrameException("Adjusted frame length exceeds " + maxFrameLength + " - discarding");
+        }
+    }
+
+    private static void failOnNegativeLengthField(ByteBuf in, long frameLength, int lengthFieldEndOffset) {
+        in.skipBytes(lengthFieldEndOffset);
+        throw new CorruptedFrameException("negative pre-adjustment length field: " + frameLength);
+    }
+
+    private static void failOnFrameLengthLessThanLengthFieldEndOffset(ByteBuf in, long frameLength,
+                                                                     int lengthFieldEndOffset) {
+        in.skipBytes(lengthFieldEndOffset);
+        throw new CorruptedFrameException("Adjusted frame length (" + frameLength + ") is less "
+                + "than lengthFieldEndOffset: " + lengthFieldEndOffset);
+    }
+
+    private void failOnFrameLengthLessThanInitialBytesToStrip(ByteBuf in, long frameLength, int initialBytesToStrip) {
+        in.skipBytes(frameLengthInt);
+        frameLengthInt = -1;
+        throw new CorruptedFrameException("Adjusted frame length (" + frameLength + ") is less "
+                + "than initialBytesToStrip: " + initialBytesToStrip);
+    }
+}
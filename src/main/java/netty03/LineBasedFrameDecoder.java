@@ -0,0 +1,134 @@
+package netty03;
+
+import java.util.List;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 按换行符拆分帧的解码器，"\n" 和 "\r\n" 都算作行尾。
+ * 用 ByteBuf.forEachByte 查找换行符，一行数据分好几次才收全的时候，记住上一次已经查找到的位置，
+ * 下一次从那里接着找，不会把前面的数据重新扫描一遍，所以总的查找时间和数据量成正比。
+ * 解码出的帧是累积缓冲区的切片，不拷贝数据，需要字符串的时候可以用 ByteBuf.readCharSequence 得到字符序列的视图
+ */
+public class LineBasedFrameDecoder extends ByteToMessageDecoder {
+
+    //一行的最大长度，不包括换行符
+    private final int maxLength;
+
+    //为true时，一行的长度一超过maxLength就触发异常；为false时，等这一行全部丢弃完了再触发异常
+    private final boolean failFast;
+
+    //解码出的帧是否去掉行尾的换行符
+    private final boolean stripDelimiter;
+
+    //正在丢弃超长的一行
+    private boolean discarding;
+
+    private int discardedBytes;
+
+    //从readerIndex开始，已经查找过、确定没有'\n'的字节数
+    private int offset;
+
+    public LineBasedFrameDecoder(int maxLength) {
+        this(maxLength, true, false);
+    }
+
+    public LineBasedFrameDecoder(int maxLength, boolean stripDelimiter, boolean failFast) {
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("maxLength must be a positive integer: " + maxLength);
+        }
+        this.maxLength = maxLength;
+        this.failFast = failFast;
+        this.stripDelimiter = stripDelimiter;
+    }
+
+    @Override
+    protected final void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        Object decoded = decode(ctx, in);
+        if (decoded != null) {
+            out.add(decoded);
+        }
+    }
+
+    /**
+     * 从buffer中解码出一行，还没有收到换行符的时候返回null
+     */
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf buffer) throws Exception {
+        final int eol = findEndOfLine(buffer);
+        if (!discarding) {
+            if (eol >= 0) {
+                final ByteBuf frame;
+                final int length = eol - buffer.readerIndex();
+                final int delimLength = buffer.getByte(eol) == '\r' ? 2 : 1;
+                if (length > maxLength) {
+                    buffer.readerIndex(eol + delimLength);
+                    fail(length);
+                    return null;
+                }
+                if (stripDelimiter) {
+                    frame = buffer.readRetainedSlice(length);
+                    buffer.skipBytes(delimLength);
+                } else {
+                    frame = buffer.readRetainedSlice(length + delimLength);
+                }
+                return frame;
+            } else {
+                final int length = buffer.readableBytes();
+                if (length > maxLength) {
+                    //这一行已经超长了，收到的数据全部丢弃，直到找到换行符
+                    discardedBytes = length;
+                    buffer.readerIndex(buffer.writerIndex());
+                    discarding = true;
+                    offset = 0;
+                    if (failFast) {
+                        fail("over " + discardedBytes);
+                    }
+                }
+                return null;
+            }
+        } else {
+            if (eol >= 0) {
+                final int length = discardedBytes + eol - buffer.readerIndex();
+                final int delimLength = buffer.getByte(eol) == '\r' ? 2 : 1;
+                buffer.readerIndex(eol + delimLength);
+                discardedBytes = 0;
+                discarding = false;
+                if (!failFast) {
+                    fail(length);
+                }
+            } else {
+                discardedBytes += buffer.readableBytes();
+                buffer.readerIndex(buffer.writerIndex());
+                offset = 0;
+            }
+            return null;
+        }
+    }
+
+    private void fail(int length) {
+        fail(String.valueOf(length));
+    }
+
+    private void fail(String length) {
+        throw new TooLongFrameException(
+                "frame length (" + length + ") exceeds the allowed maximum (" + maxLength + ')');
+    }
+
+    /**
+     * 返回行尾的下标，"\r\n"结尾时返回'\r'的下标，没有找到时返回-1
+     */
+    private int findEndOfLine(final ByteBuf buffer) {
+        int totalLength = buffer.readableBytes();
+        int i = buffer.forEachByte(buffer.readerIndex() + offset, totalLength - offset, ByteProcessor.FIND_LF);
+        if (i >= 0) {
+            offset = 0;
+            if (i > buffer.readerIndex() && buffer.getByte(i - 1) == '\r') {
+                i--;
+            }
+        } else {
+            //下一次从这里接着找
+            offset = totalLength;
+        }
+        return i;
+    }
+}
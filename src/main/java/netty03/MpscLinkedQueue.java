@@ -0,0 +1,139 @@
+package netty03;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 多生产者单消费者的无锁链表队列，算法来自 Dmitry Vyukov 的 intrusive MPSC node-based queue。
+ * 单线程执行器的任务队列正好是这种场景：很多线程向它提交任务，但只有执行器自己的线程会从队列中取任务。
+ * 和 LinkedBlockingQueue 相比，入队时不需要加锁，只需要一次原子的 getAndSet；出队时连原子操作都不需要。
+ * 队列中始终有一个哨兵节点，头指针指向哨兵，真正的第一个元素是哨兵的下一个节点。
+ * 注意：poll、peek、clear 只能由消费者线程调用，size 和迭代器只是一个大概的快照
+ */
+public final class MpscLinkedQueue<E> extends MpscLinkedQueueTailRef<E> {
+
+    //缓存行填充，把尾指针和后面分配的其他对象隔开
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+    long p28, p29, p2a, p2b, p2c, p2d, p2e;
+
+    public MpscLinkedQueue() {
+        MpscLinkedQueueNode<E> tombstone = new MpscLinkedQueueNode<E>(null);
+        setHeadRef(tombstone);
+        setTailRef(tombstone);
+    }
+
+    /**
+     * 得到第一个真正的元素所在的节点，如果队列为空就返回null
+     */
+    private MpscLinkedQueueNode<E> peekNode() {
+        MpscLinkedQueueNode<E> head = headRef();
+        MpscLinkedQueueNode<E> next = head.next();
+        if (next == null && head != tailRef()) {
+            //走到这里说明有生产者已经替换了尾指针，但是还没来得及把旧尾节点的next指向新节点，
+            //这个窗口非常短，自旋等待一下就好了
+            do {
+                next = head.next();
+            } while (next == null);
+        }
+        return next;
+    }
+
+    @Override
+    public boolean offer(E value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        MpscLinkedQueueNode<E> newTail = new MpscLinkedQueueNode<E>(value);
+        //先原子地把自己设置为尾节点，再把旧的尾节点和自己连接起来
+        MpscLinkedQueueNode<E> oldTail = getAndSetTailRef(newTail);
+        oldTail.setNext(newTail);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        MpscLinkedQueueNode<E> next = peekNode();
+        if (next == null) {
+            return null;
+        }
+        //next节点成为新的哨兵节点，旧的哨兵节点出队
+        MpscLinkedQueueNode<E> oldHead = headRef();
+        lazySetHeadRef(next);
+        oldHead.unlink();
+        return next.clearAndGetValue();
+    }
+
+    @Override
+    public E peek() {
+        MpscLinkedQueueNode<E> next = peekNode();
+        if (next == null) {
+            return null;
+        }
+        return next.value();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return headRef() == tailRef();
+    }
+
+    @Override
+    public int size() {
+        int count = 0;
+        MpscLinkedQueueNode<E> n = headRef();
+        for (;;) {
+            MpscLinkedQueueNode<E> next = n.next();
+            //next指向自己说明这个节点已经被消费者出队了，遍历到此为止
+            if (next == null || next == n) {
+                break;
+            }
+            n = next;
+            if (++count == Integer.MAX_VALUE) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) {
+            continue;
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private MpscLinkedQueueNode<E> node = nextNode(headRef());
+
+            private MpscLinkedQueueNode<E> nextNode(MpscLinkedQueueNode<E> n) {
+                MpscLinkedQueueNode<E> next = n.next();
+                return next == n ? null : next;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return node != null;
+            }
+
+            @Override
+            public E next() {
+                MpscLinkedQueueNode<E> node = this.node;
+                if (node == null) {
+                    throw new NoSuchElementException();
+                }
+                E value = node.value();
+                this.node = nextNode(node);
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,37 @@
+package netty03;
+
+import java.util.AbstractQueue;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description MpscLinkedQueue 的头指针，只有消费者线程会修改它。
+ * 头指针和尾指针分别放在父子类中，中间用 long 类型的字段填充，保证它们不在同一个缓存行上，
+ * 否则生产者修改尾指针的时候，会让消费者线程缓存的头指针失效，也就是伪共享
+ */
+abstract class MpscLinkedQueueHeadRef<E> extends AbstractQueue<E> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MpscLinkedQueueHeadRef, MpscLinkedQueueNode> HEAD_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(MpscLinkedQueueHeadRef.class, MpscLinkedQueueNode.class, "headRef");
+
+    //缓存行填充，JVM会先排布long类型的字段，再排布引用类型的字段
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p08, p09, p0a, p0b, p0c, p0d, p0e;
+
+    private volatile MpscLinkedQueueNode<E> headRef;
+
+    protected final MpscLinkedQueueNode<E> headRef() {
+        return headRef;
+    }
+
+    protected final void setHeadRef(MpscLinkedQueueNode<E> headRef) {
+        this.headRef = headRef;
+    }
+
+    //只有消费者线程会修改头指针，所以用 lazySet 就可以了
+    protected final void lazySetHeadRef(MpscLinkedQueueNode<E> headRef) {
+        HEAD_UPDATER.lazySet(this, headRef);
+    }
+}
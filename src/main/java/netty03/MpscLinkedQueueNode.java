@@ -0,0 +1,52 @@
+package netty03;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description MpscLinkedQueue 中的节点。next 属性只会被设置一次，用 lazySet 发布就足够了，
+ * 这样可以省掉 volatile 写带来的 StoreLoad 屏障
+ */
+final class MpscLinkedQueueNode<T> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MpscLinkedQueueNode, MpscLinkedQueueNode> NEXT_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(MpscLinkedQueueNode.class, MpscLinkedQueueNode.class, "next");
+
+    private volatile MpscLinkedQueueNode<T> next;
+
+    private T value;
+
+    MpscLinkedQueueNode(T value) {
+        this.value = value;
+    }
+
+    MpscLinkedQueueNode<T> next() {
+        return next;
+    }
+
+    void setNext(MpscLinkedQueueNode<T> newNext) {
+        NEXT_UPDATER.lazySet(this, newNext);
+    }
+
+    T value() {
+        return value;
+    }
+
+    /**
+     * 节点被消费之后会变成新的头节点（哨兵节点），要把值清空，防止内存泄漏
+     */
+    T clearAndGetValue() {
+        T value = this.value;
+        this.value = null;
+        return value;
+    }
+
+    /**
+     * 旧的头节点出队之后，让它的next指向自己，避免已经进入老年代的死节点拖住新节点，影响GC
+     */
+    void unlink() {
+        setNext(this);
+    }
+}
@@ -0,0 +1,35 @@
+package netty03;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description MpscLinkedQueue 的尾指针，多个生产者线程通过 getAndSet 竞争修改它
+ */
+abstract class MpscLinkedQueueTailRef<E> extends MpscLinkedQueueHeadRef<E> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MpscLinkedQueueTailRef, MpscLinkedQueueNode> TAIL_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(MpscLinkedQueueTailRef.class, MpscLinkedQueueNode.class, "tailRef");
+
+    //缓存行填充，把头指针和尾指针隔开
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+    long p18, p19, p1a, p1b, p1c, p1d, p1e;
+
+    private volatile MpscLinkedQueueNode<E> tailRef;
+
+    protected final MpscLinkedQueueNode<E> tailRef() {
+        return tailRef;
+    }
+
+    protected final void setTailRef(MpscLinkedQueueNode<E> tailRef) {
+        this.tailRef = tailRef;
+    }
+
+    //原子地把尾指针替换成新节点，并返回旧的尾节点，在x86上就是一条 xchg 指令，不会失败重试
+    @SuppressWarnings("unchecked")
+    protected final MpscLinkedQueueNode<E> getAndSetTailRef(MpscLinkedQueueNode<E> tailRef) {
+        return (MpscLinkedQueueNode<E>) TAIL_UPDATER.getAndSet(this, tailRef);
+    }
+}
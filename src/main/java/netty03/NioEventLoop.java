@@ -3,13 +3,17 @@ package netty03;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.lang.reflect.Field;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Joe Lee
@@ -20,47 +24,250 @@ public class NioEventLoop extends SingleThreadEventLoop{
 
     private static final Logger logger = LoggerFactory.getLogger(NioEventLoop.class);
 
+    private static final int MIN_PREMATURE_SELECTOR_RETURNS = 3;
+
+    //是否关闭就绪事件集合的优化，可以通过启动参数 -Dio.netty.noKeySetOptimization=true 关闭
+    private static final boolean DISABLE_KEY_SET_OPTIMIZATION = Boolean.getBoolean("io.netty.noKeySetOptimization");
+
+    //selector连续过早返回的次数达到这个值，就认为触发了空轮询bug，要重建selector，小于3时关闭该功能。
+    //可以通过启动参数 -Dio.netty.selectorAutoRebuildThreshold 配置
+    private static final int SELECTOR_AUTO_REBUILD_THRESHOLD;
+
+    static {
+        int selectorAutoRebuildThreshold = Integer.getInteger("io.netty.selectorAutoRebuildThreshold", 512);
+        if (selectorAutoRebuildThreshold < MIN_PREMATURE_SELECTOR_RETURNS) {
+            selectorAutoRebuildThreshold = 0;
+        }
+        SELECTOR_AUTO_REBUILD_THRESHOLD = selectorAutoRebuildThreshold;
+    }
+
     private final SelectorProvider provider;
 
-    private Selector selector;
+    //处理IO事件的时间占事件循环总时间的百分比
+    private volatile int ioRatio = 50;
+
+    //标记selector是否已经被唤醒了，避免重复调用 selector.wakeup()
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+    //重建selector之后会指向新的selector，外部线程唤醒selector的时候也会读取它，所以要用volatile修饰
+    private volatile Selector selector;
+
+    //替换成功之后，selector内部存放就绪事件的集合就是它，替换失败则为null
+    private SelectedSelectionKeySet selectedKeys;
+
+    //注册到这个事件循环上的客户端channel，都用它来创建自己的RecvByteBufAllocator.Handle
+    private volatile RecvByteBufAllocator recvByteBufAllocator = AdaptiveRecvByteBufAllocator.DEFAULT;
 
     public NioEventLoop() {
+        this(DEFAULT_MAX_PENDING_TASKS, RejectedExecutionHandlers.reject());
+    }
+
+    public NioEventLoop(int maxPendingTasks, RejectedExecutionHandler rejectedExecutionHandler) {
+        super(maxPendingTasks, rejectedExecutionHandler);
         //java中的方法，通过provider不仅可以得到selector，还可以得到ServerSocketChannel和SocketChannel
         this.provider = SelectorProvider.provider();
         this.selector = openSecector();
     }
 
     /**
-     *得到用于多路复用的selector
+     *得到用于多路复用的selector。如果JDK允许，就通过反射把selector内部存放就绪事件的两个HashSet
+     * 替换成数组实现的SelectedSelectionKeySet，替换失败就使用原来的selector，不影响功能
      */
     private Selector openSecector() {
+        final Selector unwrappedSelector;
         try {
-            selector = provider.openSelector();
-            return selector;
+            unwrappedSelector = provider.openSelector();
         } catch (IOException e) {
             throw new RuntimeException("failed to open a new selector", e);
         }
+        //重建selector时，新的selector可能替换失败，所以先把旧的集合清掉
+        selectedKeys = null;
+        if (DISABLE_KEY_SET_OPTIMIZATION) {
+            return unwrappedSelector;
+        }
+        final SelectedSelectionKeySet selectedKeySet = new SelectedSelectionKeySet();
+        try {
+            //selector的实现类都继承自sun.nio.ch.SelectorImpl，就绪的key存放在它的selectedKeys属性中，
+            //publicSelectedKeys是暴露给用户的不可增加元素的视图
+            Class<?> selectorImplClass = Class.forName("sun.nio.ch.SelectorImpl", false, ClassLoader.getSystemClassLoader());
+            if (!selectorImplClass.isAssignableFrom(unwrappedSelector.getClass())) {
+                return unwrappedSelector;
+            }
+            Field selectedKeysField = selectorImplClass.getDeclaredField("selectedKeys");
+            Field publicSelectedKeysField = selectorImplClass.getDeclaredField("publicSelectedKeys");
+            //JDK9之后，如果没有用 --add-opens java.base/sun.nio.ch=ALL-UNNAMED 开放模块，这里会抛出异常
+            selectedKeysField.setAccessible(true);
+            publicSelectedKeysField.setAccessible(true);
+            selectedKeysField.set(unwrappedSelector, selectedKeySet);
+            publicSelectedKeysField.set(unwrappedSelector, selectedKeySet);
+        } catch (Exception e) {
+            logger.debug("failed to instrument a special java.util.Set into: {}", unwrappedSelector, e);
+            return unwrappedSelector;
+        }
+        selectedKeys = selectedKeySet;
+        logger.debug("instrumented a special java.util.Set into: {}", unwrappedSelector);
+        return unwrappedSelector;
     }
 
+    @Override
     public Selector selector() {
         return selector;
     }
 
+    /**
+     * 外部线程提交任务之后会调用该方法唤醒selector。wakenUp 保证了在执行器线程醒来之前，
+     * 无论提交了多少个任务，都只会调用一次 selector.wakeup()，这是一个比较昂贵的系统调用
+     */
+    @Override
+    protected void wakeup(boolean inEventLoop) {
+        if (!inEventLoop && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
     private void select() throws IOException {
         Selector selector = this.selector;
+        //记录selector连续过早返回的次数
+        int selectCnt = 0;
+        long currentTimeNanos = System.nanoTime();
+        //selector最多只能阻塞到最近的一个定时任务到期的时候，否则定时任务就不能按时执行了
+        long selectDeadLineNanos = currentTimeNanos + delayNanos(currentTimeNanos);
         //这里是一个死循环
         for (;;){
-            //如果没有就绪事件，就在这里阻塞3秒，有限时的阻塞
-            logger.info("新线程阻塞在这里3秒吧。。。。。。。");
-            int selectedKeys = selector.select(3000);
-            //如果有io事件或者单线程执行器中有任务待执行，就退出循环
-            if (selectedKeys != 0 || hasTasks()) {
+            //计算还可以阻塞多少毫秒，加上0.5毫秒是为了四舍五入
+            long timeoutMillis = (selectDeadLineNanos - currentTimeNanos + 500000L) / 1000000L;
+            if (timeoutMillis <= 0) {
+                //定时任务已经到期了，不能再阻塞。如果这一轮还没有查询过IO事件，就非阻塞地查询一次
+                if (selectCnt == 0) {
+                    selector.selectNow();
+                }
+                break;
+            }
+            //任务队列中已经有任务了，就不能再阻塞，非阻塞地查询一下就绪的IO事件，然后去执行任务
+            if (hasTasks()) {
+                selector.selectNow();
                 break;
             }
+            //如果没有就绪事件，就在这里阻塞，外部线程提交任务的时候会把selector唤醒
+            logger.trace("新线程阻塞在这里，直到有IO事件、定时任务到期或者被唤醒。。。。。。。");
+            int selectedKeys = selector.select(timeoutMillis);
+            selectCnt++;
+            //如果有io事件、被外部线程唤醒了，或者单线程执行器中有任务待执行，就退出循环
+            if (selectedKeys != 0 || wakenUp.get() || hasTasks()) {
+                break;
+            }
+            //线程被中断也会让select立刻返回，这种情况不是空轮询，直接退出循环
+            if (Thread.interrupted()) {
+                logger.debug("Selector.select() returned prematurely because Thread.currentThread().interrupt() was called.");
+                break;
+            }
+            long time = System.nanoTime();
+            if (time - TimeUnit.MILLISECONDS.toNanos(timeoutMillis) >= currentTimeNanos) {
+                //阻塞的时间达到了超时时间，说明select是正常超时返回的，计数重新开始
+                selectCnt = 1;
+            } else if (SELECTOR_AUTO_REBUILD_THRESHOLD > 0 && selectCnt >= SELECTOR_AUTO_REBUILD_THRESHOLD) {
+                //没有任何就绪事件，也没有阻塞到超时时间，select就返回了，并且连续发生了很多次，
+                //这就是JDK中epoll的空轮询bug，线程会在这个for循环里把CPU跑满。
+                //解决办法是创建一个新的selector，把所有channel都注册到新的selector上，再把旧的selector关闭
+                logger.warn("Selector.select() returned prematurely {} times in a row; rebuilding Selector {}.",
+                        selectCnt, selector);
+                rebuildSelector();
+                selector = this.selector;
+                selector.selectNow();
+                break;
+            }
+            currentTimeNanos = time;
+        }
+    }
+
+    /**
+     * 用新的selector替换当前的selector，用来解决JDK的空轮询bug。
+     * 这个方法必须由执行器的线程来执行，如果是外部线程调用，就把它封装成任务提交给执行器
+     */
+    public void rebuildSelector() {
+        if (!inEventLoop(Thread.currentThread())) {
+            executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    rebuildSelector();
+                }
+            });
+            return;
+        }
+        final Selector oldSelector = selector;
+        final Selector newSelector;
+        try {
+            newSelector = openSecector();
+        } catch (Exception e) {
+            logger.warn("Failed to create a new Selector.", e);
+            return;
+        }
+        //把注册在旧selector上的所有channel都注册到新的selector上，感兴趣的事件和附件都保持不变
+        int nChannels = 0;
+        for (SelectionKey key : oldSelector.keys()) {
+            Object a = key.attachment();
+            try {
+                if (!key.isValid() || key.channel().keyFor(newSelector) != null) {
+                    continue;
+                }
+                int interestOps = key.interestOps();
+                key.cancel();
+                SelectionKey newKey = key.channel().register(newSelector, interestOps, a);
+                if (a instanceof AbstractNioChannel) {
+                    //channel中保存的key也要换成新的，否则之后修改感兴趣的事件会作用在已经取消的key上
+                    ((AbstractNioChannel) a).selectionKey = newKey;
+                }
+                nChannels++;
+            } catch (Exception e) {
+                logger.warn("Failed to re-register a Channel to the new Selector.", e);
+                if (a instanceof AbstractNioChannel) {
+                    ((AbstractNioChannel) a).unsafe().close();
+                } else {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignore) {
+                        // 忽略
+                    }
+                }
+            }
+        }
+        selector = newSelector;
+        try {
+            //所有的channel都已经转移到新的selector上了，旧的selector可以关闭了
+            oldSelector.close();
+        } catch (Throwable t) {
+            logger.warn("Failed to close the old Selector.", t);
+        }
+        logger.info("Migrated {} channel(s) to the new Selector.", nChannels);
+    }
+
+    private void processSelectedKeys() {
+        if (selectedKeys != null) {
+            processSelectedKeysOptimized();
+        } else {
+            processSelectedKeysPlain(selector.selectedKeys());
+        }
+    }
+
+    /**
+     * 替换成数组之后的处理方式，按下标遍历就绪的key，处理完一个就把对应的位置置为null
+     */
+    private void processSelectedKeysOptimized() {
+        try {
+            for (int i = 0; i < selectedKeys.size; ++i) {
+                final SelectionKey k = selectedKeys.keys[i];
+                //置为null之后，channel关闭时这个key就可以被垃圾回收了
+                selectedKeys.keys[i] = null;
+                //处理就绪事件
+                processSelectedKey(k);
+            }
+        } finally {
+            //中途抛出异常也要重置，否则下一轮会读到已经置为null的位置。没处理完的key还是就绪的，下一次select会再次选出来
+            selectedKeys.reset(0);
         }
     }
 
-    private void processSelectedKeys(Set<SelectionKey> selectedKeys) throws IOException {
+    private void processSelectedKeysPlain(Set<SelectionKey> selectedKeys) {
         if (selectedKeys.isEmpty()) {
             return;
         }
@@ -76,38 +283,156 @@ public class NioEventLoop extends SingleThreadEventLoop{
         }
     }
 
-    private void processSelectedKey(SelectionKey k) throws IOException {
-        //如果是读事件
-        if (k.isReadable()) {
-            SocketChannel channel = (SocketChannel)k.channel();
-            ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
-            int len = channel.read(byteBuffer);
-            if (len == -1) {
-                logger.info("客户端通道要关闭！");
-                channel.close();
-                return;
+    private void processSelectedKey(SelectionKey k) {
+        //注册的时候把channel作为附件放进了key中
+        final AbstractNioChannel ch = (AbstractNioChannel) k.attachment();
+        final AbstractNioChannel.NioUnsafe unsafe = ch.unsafe();
+        //key可能已经因为channel关闭而失效了
+        if (!k.isValid()) {
+            unsafe.close();
+            return;
+        }
+        try {
+            int readyOps = k.readyOps();
+            //之前发送缓冲区满了，现在socket可写了，先把没写完的数据写出去，数据写完之后会取消OP_WRITE
+            if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                unsafe.forceFlush();
+            }
+            //服务端channel的接收连接事件和客户端channel的读事件都交给unsafe的read方法处理，
+            //readyOps为0时也读一次，避免JDK的bug导致空轮询
+            if ((readyOps & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) != 0 || readyOps == 0) {
+                unsafe.read();
             }
-            byte[] bytes = new byte[len];
-            byteBuffer.flip();
-            byteBuffer.get(bytes);
-            logger.info("新线程收到客户端发送的数据:{}",new String(bytes));
+        } catch (CancelledKeyException ignored) {
+            //某一个channel出现异常时只关闭这个channel，不能影响同一批就绪的其他channel
+            unsafe.close();
+        } catch (RuntimeException e) {
+            logger.warn("Unexpected exception while processing a selected key, closing {}", ch, e);
+            unsafe.close();
         }
     }
 
+    public RecvByteBufAllocator getRecvByteBufAllocator() {
+        return recvByteBufAllocator;
+    }
+
+    /**
+     * 设置读数据时使用的缓冲区分配策略，只对之后注册的channel生效
+     */
+    public void setRecvByteBufAllocator(RecvByteBufAllocator recvByteBufAllocator) {
+        if (recvByteBufAllocator == null) {
+            throw new NullPointerException("recvByteBufAllocator");
+        }
+        this.recvByteBufAllocator = recvByteBufAllocator;
+    }
+
+    public int getIoRatio() {
+        return ioRatio;
+    }
+
+    /**
+     * 设置处理IO事件的时间在整个事件循环中所占的百分比，默认是50，也就是处理IO和执行任务的时间各占一半。
+     * 如果设置为100，就不限制执行任务的时间，每一轮都会把任务队列中的任务全部执行完
+     */
+    public void setIoRatio(int ioRatio) {
+        if (ioRatio <= 0 || ioRatio > 100) {
+            throw new IllegalArgumentException("ioRatio: " + ioRatio + " (expected: 0 < ioRatio <= 100)");
+        }
+        this.ioRatio = ioRatio;
+    }
+
     @Override
     public void run() {
-        while (true) {
+        for (;;) {
+            //一轮循环中的任何异常都不能让线程退出，否则注册在这个事件循环上的channel就再也没有线程处理了
             try {
+                //每次阻塞之前先把wakenUp重置为false，之后外部线程提交任务时就可以再次唤醒selector了。
+                //重置之后select方法还会再检查一次任务队列，所以不会错过重置前提交的任务
+                wakenUp.set(false);
                 //没有事件就阻塞在这里
                 select();
-                //如果走到这里，就说明selector没有阻塞了，可能有IO事件，可能任务队列中有任务
-                processSelectedKeys(selector.selectedKeys());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }finally {
-                //执行单线程执行器中的所有任务
-                runAllTasks();
+                final int ioRatio = this.ioRatio;
+                if (ioRatio == 100) {
+                    try {
+                        //如果走到这里，就说明selector没有阻塞了，可能有IO事件，可能任务队列中有任务
+                        processSelectedKeys();
+                    } finally {
+                        //执行单线程执行器中的所有任务
+                        runAllTasks();
+                    }
+                } else {
+                    final long ioStartTime = System.nanoTime();
+                    try {
+                        processSelectedKeys();
+                    } finally {
+                        //根据处理IO事件花费的时间和ioRatio，算出这一轮可以用来执行任务的时间。
+                        //比如ioRatio是50，处理IO用了10毫秒，那么执行任务最多也只能用10毫秒
+                        final long ioTime = System.nanoTime() - ioStartTime;
+                        runAllTasks(ioTime * (100 - ioRatio) / ioRatio);
+                    }
+                }
+            } catch (Throwable t) {
+                handleLoopException(t);
+            }
+            //正在优雅关闭，先关闭所有的channel，等到静默期内没有新任务了，就退出循环
+            try {
+                if (isShuttingDown()) {
+                    closeAll();
+                    if (confirmShutdown()) {
+                        return;
+                    }
+                }
+            } catch (Throwable t) {
+                handleLoopException(t);
             }
         }
     }
+
+    private static void handleLoopException(Throwable t) {
+        logger.warn("Unexpected exception in the selector loop.", t);
+        //异常可能会连续出现，睡眠一会儿，避免线程空转把CPU占满
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            // 忽略
+        }
+    }
+
+    /**
+     * 关闭所有注册在这个事件循环上的channel，channel关闭时会触发channelInactive，释放还没有发送的数据
+     */
+    private void closeAll() {
+        //先做一次非阻塞的查询，清理掉已经取消的key
+        try {
+            selector.selectNow();
+        } catch (IOException e) {
+            logger.warn("Failed to update SelectionKeys.", e);
+        }
+        Set<SelectionKey> keys = selector.keys();
+        //关闭channel会修改keys，所以先拷贝一份
+        Collection<AbstractNioChannel> channels = new ArrayList<AbstractNioChannel>(keys.size());
+        for (SelectionKey k : keys) {
+            Object a = k.attachment();
+            if (a instanceof AbstractNioChannel) {
+                channels.add((AbstractNioChannel) a);
+            } else {
+                k.cancel();
+            }
+        }
+        for (AbstractNioChannel ch : channels) {
+            ch.unsafe().close();
+        }
+    }
+
+    /**
+     * 事件循环的线程结束之前关闭selector
+     */
+    @Override
+    protected void cleanup() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close a selector.", e);
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package netty03;
+
+import netty05.DefaultPromise;
+import netty05.Promise;
+import netty05.PromiseCombiner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 管理多个 NioEventLoop 的事件循环组。之前所有客户端的 channel 都注册到同一个 NioEventLoop 上，
+ * 无论机器有多少个核，所有的IO都只能由一个线程来处理。现在有了事件循环组，每接收到一个客户端 channel，
+ * 就通过选择器从组中挑出一个 NioEventLoop，把 channel 注册到它的 selector 上，这样IO就可以分散到多个线程中了
+ */
+public class NioEventLoopGroup {
+
+    private static final Logger logger = LoggerFactory.getLogger(NioEventLoopGroup.class);
+
+    //默认的线程数量，是CPU核数的2倍
+    private static final int DEFAULT_EVENT_LOOP_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() * 2);
+
+    private final NioEventLoop[] children;
+
+    private final EventExecutorChooserFactory.EventExecutorChooser chooser;
+
+    //所有的NioEventLoop都结束之后完成
+    private final Promise<Void> terminationFuture = new DefaultPromise<Void>((SingleThreadEventExecutor) null);
+
+    public NioEventLoopGroup() {
+        this(0);
+    }
+
+    public NioEventLoopGroup(int nThreads) {
+        this(nThreads, DefaultEventExecutorChooserFactory.INSTANCE);
+    }
+
+    public NioEventLoopGroup(int nThreads, EventExecutorChooserFactory chooserFactory) {
+        this(nThreads, chooserFactory, SingleThreadEventExecutor.DEFAULT_MAX_PENDING_TASKS,
+                RejectedExecutionHandlers.reject());
+    }
+
+    /**
+     * @param maxPendingTasks 每个 NioEventLoop 的任务队列中最多能积压多少个任务
+     * @param rejectedExecutionHandler 任务队列满了的时候使用的拒绝策略，组中所有的 NioEventLoop 共用这一个
+     */
+    public NioEventLoopGroup(int nThreads, EventExecutorChooserFactory chooserFactory,
+                             int maxPendingTasks, RejectedExecutionHandler rejectedExecutionHandler) {
+        if (nThreads < 0) {
+            throw new IllegalArgumentException(String.format("nThreads: %d (expected: >= 0)", nThreads));
+        }
+        if (chooserFactory == null) {
+            throw new NullPointerException("chooserFactory");
+        }
+        //如果用户没有指定线程数量，就使用默认值
+        if (nThreads == 0) {
+            nThreads = DEFAULT_EVENT_LOOP_THREADS;
+        }
+        children = new NioEventLoop[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            //这里只是创建了 NioEventLoop，线程要等到第一次提交任务的时候才会启动
+            children[i] = new NioEventLoop(maxPendingTasks, rejectedExecutionHandler);
+        }
+        chooser = chooserFactory.newChooser(children);
+        //每个NioEventLoop的terminationFuture都完成之后，组的terminationFuture才完成
+        PromiseCombiner combiner = new PromiseCombiner();
+        for (NioEventLoop child : children) {
+            combiner.add(child.terminationFuture());
+        }
+        combiner.finish(terminationFuture);
+        logger.info("创建了拥有{}个NioEventLoop的事件循环组", nThreads);
+    }
+
+    /**
+     * 通过选择器挑选出下一个要使用的 NioEventLoop
+     */
+    public NioEventLoop next() {
+        return (NioEventLoop) chooser.next();
+    }
+
+    /**
+     * 把 channel 注册到组中的某一个 NioEventLoop 上
+     */
+    public void register(Channel channel) {
+        next().register(channel);
+    }
+
+    /**
+     * 给组中所有的 NioEventLoop 设置读数据时使用的缓冲区分配策略
+     */
+    public void setRecvByteBufAllocator(RecvByteBufAllocator recvByteBufAllocator) {
+        for (NioEventLoop child : children) {
+            child.setRecvByteBufAllocator(recvByteBufAllocator);
+        }
+    }
+
+    public int executorCount() {
+        return children.length;
+    }
+
+    public Promise<Void> shutdownGracefully() {
+        return shutdownGracefully(SingleThreadEventExecutor.DEFAULT_SHUTDOWN_QUIET_PERIOD,
+                SingleThreadEventExecutor.DEFAULT_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 优雅地关闭组中所有的 NioEventLoop，参数的含义见 SingleThreadEventExecutor.shutdownGracefully
+     * @return 所有的 NioEventLoop 都结束之后完成的 terminationFuture
+     */
+    public Promise<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        for (NioEventLoop child : children) {
+            child.shutdownGracefully(quietPeriod, timeout, unit);
+        }
+        return terminationFuture();
+    }
+
+    public Promise<Void> terminationFuture() {
+        return terminationFuture;
+    }
+
+    public boolean isShuttingDown() {
+        for (NioEventLoop child : children) {
+            if (!child.isShuttingDown()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isTerminated() {
+        for (NioEventLoop child : children) {
+            if (!child.isTerminated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 阻塞等待组中所有的 NioEventLoop 结束
+     * @return 在超时之前全部结束了返回true
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminationFuture.await(timeout, unit);
+    }
+}
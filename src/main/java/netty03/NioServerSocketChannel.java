@@ -0,0 +1,99 @@
+package netty03;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 服务端的 Channel，读事件就是接收连接，每接收到一个连接就创建一个 NioSocketChannel，
+ * 作为消息通过 channelRead 交给 pipeline 中的处理器，由处理器把它注册到 worker 事件循环上
+ */
+public class NioServerSocketChannel extends AbstractNioChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(NioServerSocketChannel.class);
+
+    //boss线程每次处理OP_ACCEPT事件时最多接收的连接数量
+    private static final int MAX_ACCEPTS_PER_LOOP = 16;
+
+    public NioServerSocketChannel() throws IOException {
+        this(ServerSocketChannel.open());
+    }
+
+    public NioServerSocketChannel(ServerSocketChannel channel) {
+        super(null, channel, SelectionKey.OP_ACCEPT);
+    }
+
+    @Override
+    protected ServerSocketChannel javaChannel() {
+        return (ServerSocketChannel) super.javaChannel();
+    }
+
+    /**
+     * 绑定端口，绑定之后channel才是激活状态
+     */
+    public void bind(SocketAddress localAddress) throws IOException {
+        javaChannel().bind(localAddress);
+    }
+
+    @Override
+    public boolean isActive() {
+        ServerSocketChannel ch = javaChannel();
+        return ch.isOpen() && ch.socket().isBound();
+    }
+
+    @Override
+    public SocketAddress localAddress() {
+        return javaChannel().socket().getLocalSocketAddress();
+    }
+
+    @Override
+    public SocketAddress remoteAddress() {
+        return null;
+    }
+
+    @Override
+    protected NioUnsafe newUnsafe() {
+        return new NioMessageUnsafe();
+    }
+
+    @Override
+    protected void doWrite(ChannelOutboundBuffer in) throws Exception {
+        throw new UnsupportedOperationException();
+    }
+
+    private final class NioMessageUnsafe extends AbstractNioUnsafe {
+
+        @Override
+        public void read() {
+            final ChannelPipeline pipeline = pipeline();
+            try {
+                //连接风暴的时候一次就绪事件可能对应多个等待接收的连接，这里一次最多接收16个，
+                //既减少了select的次数，又不会让boss线程在接收连接上停留太久
+                for (int i = 0; i < MAX_ACCEPTS_PER_LOOP; i++) {
+                    SocketChannel socketChannel = javaChannel().accept();
+                    if (socketChannel == null) {
+                        break;
+                    }
+                    try {
+                        pipeline.fireChannelRead(new NioSocketChannel(NioServerSocketChannel.this, socketChannel));
+                    } catch (Throwable t) {
+                        logger.warn("Failed to create a new channel from an accepted socket.", t);
+                        socketChannel.close();
+                    }
+                }
+                pipeline.fireChannelReadComplete();
+            } catch (Throwable t) {
+                //接收某一个连接失败，不影响服务端channel继续接收其他连接
+                pipeline.fireChannelReadComplete();
+                pipeline.fireExceptionCaught(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package netty03;
+
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 客户端连接对应的 Channel。读事件中读到的数据放在 ByteBuf 中，通过 channelRead 交给处理器，
+ * 处理器负责释放它；写出去的消息必须是 ByteBuf 或者 FileRegion，先放进 ChannelOutboundBuffer，flush 时写到 socket 中，写完之后由 channel 释放
+ */
+public class NioSocketChannel extends AbstractNioChannel {
+
+    //一次flush中最多调用多少次write，避免一个写不完的channel一直占着事件循环线程
+    private static final int WRITE_SPIN_COUNT = 16;
+
+    //发送缓冲区满了，减去它之后writeSpinCount一定小于0
+    private static final int WRITE_STATUS_SNDBUF_FULL = Integer.MAX_VALUE;
+
+    //一次gathering write最多使用的ByteBuffer数量，linux上writev最多接收1024个iovec
+    private static final int MAX_NIO_BUFFERS = 1024;
+
+    //每个channel都有自己的Handle，记录着这个channel最近读到的数据量
+    private RecvByteBufAllocator.Handle allocHandle;
+
+    //一次gathering write最多写的字节数，超过socket发送缓冲区的部分一次也写不进去，收集了也没用
+    private final long maxBytesPerGatheringWrite;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            unsafe().forceFlush();
+        }
+    };
+
+    public NioSocketChannel(SocketChannel socket) {
+        this(null, socket);
+    }
+
+    public NioSocketChannel(Channel parent, SocketChannel socket) {
+        super(parent, socket, SelectionKey.OP_READ);
+        long maxBytes;
+        try {
+            maxBytes = (long) socket.socket().getSendBufferSize() << 1;
+        } catch (SocketException e) {
+            maxBytes = Integer.MAX_VALUE;
+        }
+        maxBytesPerGatheringWrite = maxBytes > 0 ? maxBytes : Integer.MAX_VALUE;
+    }
+
+    @Override
+    protected SocketChannel javaChannel() {
+        return (SocketChannel) super.javaChannel();
+    }
+
+    @Override
+    public boolean isActive() {
+        SocketChannel ch = javaChannel();
+        return ch.isOpen() && ch.isConnected();
+    }
+
+    @Override
+    public SocketAddress localAddress() {
+        return javaChannel().socket().getLocalSocketAddress();
+    }
+
+    @Override
+    public SocketAddress remoteAddress() {
+        return javaChannel().socket().getRemoteSocketAddress();
+    }
+
+    @Override
+    protected NioUnsafe newUnsafe() {
+        return new NioByteUnsafe();
+    }
+
+    @Override
+    protected Object filterOutboundMessage(Object msg) {
+        if (msg instanceof ByteBuf || msg instanceof FileRegion) {
+            return msg;
+        }
+        throw new UnsupportedOperationException("unsupported message type: " + msg.getClass().getName()
+                + " (expected: ByteBuf, FileRegion)");
+    }
+
+    /**
+     * 用gathering write把多个ByteBuf一次写出去。一次flush最多写writeSpinCount次，
+     * 写不进去说明发送缓冲区满了，关注OP_WRITE等socket可写；次数用完了还没写完，
+     * 就把剩下的写操作作为任务提交给事件循环，先让同一个线程上的其他channel处理IO
+     */
+    @Override
+    protected void doWrite(ChannelOutboundBuffer in) throws Exception {
+        SocketChannel ch = javaChannel();
+        int writeSpinCount = WRITE_SPIN_COUNT;
+        do {
+            if (in.isEmpty()) {
+                //全部写完了
+                clearOpWrite();
+                return;
+            }
+            ByteBuffer[] nioBuffers = in.nioBuffers(MAX_NIO_BUFFERS, maxBytesPerGatheringWrite);
+            int nioBufferCnt = in.nioBufferCount();
+            switch (nioBufferCnt) {
+                case 0:
+                    //没有收集到ByteBuffer，当前的消息是FileRegion，或者只能单独写
+                    writeSpinCount -= doWrite0(in);
+                    break;
+                case 1: {
+                    ByteBuffer buffer = nioBuffers[0];
+                    final int localWrittenBytes = ch.write(buffer);
+                    if (localWrittenBytes <= 0) {
+                        incompleteWrite(true);
+                        return;
+                    }
+                    in.removeBytes(localWrittenBytes);
+                    --writeSpinCount;
+                    break;
+                }
+                default: {
+                    final long localWrittenBytes = ch.write(nioBuffers, 0, nioBufferCnt);
+                    if (localWrittenBytes <= 0) {
+                        incompleteWrite(true);
+                        return;
+                    }
+                    in.removeBytes(localWrittenBytes);
+                    --writeSpinCount;
+                    break;
+                }
+            }
+        } while (writeSpinCount > 0);
+        incompleteWrite(writeSpinCount < 0);
+    }
+
+    /**
+     * 单独写队列中的当前消息
+     * @return 这次写用掉的次数，发送缓冲区满了的时候返回WRITE_STATUS_SNDBUF_FULL
+     */
+    private int doWrite0(ChannelOutboundBuffer in) throws Exception {
+        Object msg = in.current();
+        if (msg instanceof FileRegion) {
+            FileRegion region = (FileRegion) msg;
+            if (region.transferred() >= region.count()) {
+                in.remove();
+                return 0;
+            }
+            //从上次发送到的位置继续，数据由内核直接从文件发送到socket
+            long localFlushedAmount = region.transferTo(javaChannel(), region.transferred());
+            if (localFlushedAmount > 0) {
+                if (region.transferred() >= region.count()) {
+                    //发送完了，删除的时候会释放它，关闭文件
+                    in.remove();
+                }
+                return 1;
+            }
+            return WRITE_STATUS_SNDBUF_FULL;
+        }
+        ByteBuf buf = (ByteBuf) msg;
+        if (!buf.isReadable()) {
+            in.remove();
+            return 0;
+        }
+        final int localFlushedAmount = buf.readBytes(javaChannel(), buf.readableBytes());
+        if (localFlushedAmount <= 0) {
+            return WRITE_STATUS_SNDBUF_FULL;
+        }
+        if (!buf.isReadable()) {
+            in.remove();
+        }
+        return 1;
+    }
+
+    private void incompleteWrite(boolean setOpWrite) {
+        if (setOpWrite) {
+            setOpWrite();
+        } else {
+            //socket还能写，只是这次写的次数用完了，不需要关注OP_WRITE
+            clearOpWrite();
+            eventLoop().executeInternal(flushTask);
+        }
+    }
+
+    private final class NioByteUnsafe extends AbstractNioUnsafe {
+
+        private RecvByteBufAllocator.Handle recvBufAllocHandle() {
+            if (allocHandle == null) {
+                allocHandle = eventLoop().getRecvByteBufAllocator().newHandle();
+            }
+            return allocHandle;
+        }
+
+        /**
+         * 处理读事件。缓冲区的大小由channel自己的Handle根据最近读到的数据量决定，
+         * 一次读事件中会连续读多次，直到socket中的数据读完了，或者达到了maxMessagesPerRead的限制
+         */
+        @Override
+        public void read() {
+            final RecvByteBufAllocator.Handle allocHandle = recvBufAllocHandle();
+            final ChannelPipeline pipeline = pipeline();
+            allocHandle.reset();
+            ByteBuf byteBuf = null;
+            boolean close = false;
+            try {
+                do {
+                    //从内存池中分配ByteBuf，数据直接从channel读进ByteBuf
+                    byteBuf = allocHandle.allocate(alloc());
+                    allocHandle.attemptedBytesRead(byteBuf.writableBytes());
+                    allocHandle.lastBytesRead(byteBuf.writeBytes(javaChannel(), byteBuf.writableBytes()));
+                    if (allocHandle.lastBytesRead() <= 0) {
+                        //读到-1说明客户端关闭了连接，读到0说明数据已经读完了
+                        byteBuf.release();
+                        byteBuf = null;
+                        close = allocHandle.lastBytesRead() < 0;
+                        break;
+                    }
+                    allocHandle.incMessagesRead(1);
+                    //ByteBuf交给处理器之后就由处理器负责释放了
+                    pipeline.fireChannelRead(byteBuf);
+                    byteBuf = null;
+                } while (allocHandle.continueReading());
+                //根据这次读事件一共读到的数据量，调整下一次分配的缓冲区大小
+                allocHandle.readComplete();
+                pipeline.fireChannelReadComplete();
+                if (close) {
+                    close();
+                }
+            } catch (Throwable t) {
+                if (byteBuf != null) {
+                    if (byteBuf.isReadable()) {
+                        pipeline.fireChannelRead(byteBuf);
+                    } else {
+                        byteBuf.release();
+                    }
+                }
+                allocHandle.readComplete();
+                pipeline.fireChannelReadComplete();
+                handleReadException(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package netty03;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 内存池中的一个分配区域，管理着多个 chunk。按照申请的大小，内存被分成了几种规格：
+ * tiny：小于512字节，按16字节对齐，比如申请100字节实际分配112字节
+ * small：512字节到一个page之间，按2的幂次方对齐
+ * normal：一个page到chunk大小之间，按2的幂次方对齐，直接在chunk中分配连续的page
+ * huge：超过chunk大小，不池化，单独分配
+ * 一个内存池中有多个 arena，每个线程固定使用其中的一个，这样多个线程分配内存的时候就不会竞争同一把锁了。
+ * arena 中的操作都用 synchronized 保护，大部分分配和释放会先经过线程本地缓存 PoolThreadCache，根本走不到这里
+ */
+abstract class PoolArena<T> {
+
+    static final int numTinySubpagePools = 512 >>> 4;
+
+    final PooledByteBufferAllocator parent;
+
+    private final int maxOrder;
+
+    final int pageSize;
+
+    final int pageShifts;
+
+    final int chunkSize;
+
+    final int subpageOverflowMask;
+
+    final int numSmallSubpagePools;
+
+    //tiny规格的subpage链表头，下标是 规格 / 16
+    private final PoolSubpage<T>[] tinySubpagePools;
+
+    //small规格的subpage链表头，512、1024、2048、4096分别对应下标0、1、2、3
+    private final PoolSubpage<T>[] smallSubpagePools;
+
+    private final List<PoolChunk<T>> chunks = new ArrayList<PoolChunk<T>>();
+
+    //有多少个线程使用这个arena，创建线程缓存的时候会选择使用线程最少的arena
+    final AtomicInteger numThreadCaches = new AtomicInteger();
+
+    protected PoolArena(PooledByteBufferAllocator parent, int pageSize, int maxOrder, int pageShifts, int chunkSize) {
+        this.parent = parent;
+        this.pageSize = pageSize;
+        this.maxOrder = maxOrder;
+        this.pageShifts = pageShifts;
+        this.chunkSize = chunkSize;
+        subpageOverflowMask = ~(pageSize - 1);
+        tinySubpagePools = newSubpagePoolArray(numTinySubpagePools);
+        for (int i = 0; i < tinySubpagePools.length; i ++) {
+            tinySubpagePools[i] = new PoolSubpage<T>(pageSize);
+        }
+        numSmallSubpagePools = pageShifts - 9;
+        smallSubpagePools = newSubpagePoolArray(numSmallSubpagePools);
+        for (int i = 0; i < smallSubpagePools.length; i ++) {
+            smallSubpagePools[i] = new PoolSubpage<T>(pageSize);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private PoolSubpage<T>[] newSubpagePoolArray(int size) {
+        return new PoolSubpage[size];
+    }
+
+    PooledByteBuffer allocate(PoolThreadCache cache, int reqCapacity) {
+        PooledByteBuffer buf = new PooledByteBuffer();
+        allocate(cache, buf, reqCapacity);
+        return buf;
+    }
+
+    private void allocate(PoolThreadCache cache, PooledByteBuffer buf, final int reqCapacity) {
+        final int normCapacity = normalizeCapacity(reqCapacity);
+        if (normCapacity > chunkSize) {
+            allocateHuge(buf, reqCapacity);
+            return;
+        }
+        //先从线程缓存中分配，这里不需要加锁
+        if (cache != null && cache.allocate(this, buf, reqCapacity, normCapacity)) {
+            return;
+        }
+        synchronized (this) {
+            if (isTinyOrSmall(normCapacity)) {
+                //先看看有没有还有空闲小块的subpage
+                final PoolSubpage<T> head = findSubpagePoolHead(normCapacity);
+                final PoolSubpage<T> s = head.next;
+                if (s != head) {
+                    long handle = s.allocate();
+                    s.chunk.initBuf(buf, handle, reqCapacity, cache);
+                    return;
+                }
+            }
+            allocateNormal(buf, reqCapacity, normCapacity, cache);
+        }
+    }
+
+    //调用者已经持有了锁
+    private void allocateNormal(PooledByteBuffer buf, int reqCapacity, int normCapacity, PoolThreadCache cache) {
+        for (int i = 0; i < chunks.size(); i ++) {
+            PoolChunk<T> c = chunks.get(i);
+            long handle = c.allocate(normCapacity);
+            if (handle >= 0) {
+                c.initBuf(buf, handle, reqCapacity, cache);
+                return;
+            }
+        }
+        //现有的chunk都分配不出来，创建一个新的chunk
+        PoolChunk<T> c = newChunk(pageSize, maxOrder, pageShifts, chunkSize);
+        long handle = c.allocate(normCapacity);
+        c.initBuf(buf, handle, reqCapacity, cache);
+        chunks.add(c);
+    }
+
+    private void allocateHuge(PooledByteBuffer buf, int reqCapacity) {
+        PoolChunk<T> chunk = newUnpooledChunk(reqCapacity);
+        chunk.initBufWithUnpooled(buf, reqCapacity);
+    }
+
+    /**
+     * 释放内存，如果是当前线程的缓存分配出去的，就先放回缓存中，缓存满了才真正归还给chunk
+     */
+    void free(PoolChunk<T> chunk, long handle, int normCapacity, PoolThreadCache cache) {
+        if (chunk.unpooled) {
+            destroyChunk(chunk);
+            return;
+        }
+        if (cache != null && cache.add(this, chunk, handle, normCapacity)) {
+            return;
+        }
+        freeChunk(chunk, handle);
+    }
+
+    synchronized void freeChunk(PoolChunk<T> chunk, long handle) {
+        chunk.free(handle);
+        //chunk完全空闲了，并且还有别的chunk可以用，就把它销毁，把内存还给JVM
+        if (chunk.freeBytes == chunk.chunkSize() && chunks.size() > 1) {
+            chunks.remove(chunk);
+            destroyChunk(chunk);
+        }
+    }
+
+    PoolSubpage<T> findSubpagePoolHead(int elemSize) {
+        int tableIdx;
+        PoolSubpage<T>[] table;
+        if (isTiny(elemSize)) {
+            tableIdx = elemSize >>> 4;
+            table = tinySubpagePools;
+        } else {
+            tableIdx = 0;
+            elemSize >>>= 10;
+            while (elemSize != 0) {
+                elemSize >>>= 1;
+                tableIdx ++;
+            }
+            table = smallSubpagePools;
+        }
+        return table[tableIdx];
+    }
+
+    /**
+     * 把申请的大小规格化：大于等于512字节的向上取整到2的幂次方，小于512字节的向上取整到16的倍数
+     */
+    int normalizeCapacity(int reqCapacity) {
+        if (reqCapacity < 0) {
+            throw new IllegalArgumentException("capacity: " + reqCapacity + " (expected: 0+)");
+        }
+        if (reqCapacity >= chunkSize) {
+            return reqCapacity;
+        }
+        if (!isTiny(reqCapacity)) {
+            int normalizedCapacity = reqCapacity;
+            normalizedCapacity --;
+            normalizedCapacity |= normalizedCapacity >>>  1;
+            normalizedCapacity |= normalizedCapacity >>>  2;
+            normalizedCapacity |= normalizedCapacity >>>  4;
+            normalizedCapacity |= normalizedCapacity >>>  8;
+            normalizedCapacity |= normalizedCapacity >>> 16;
+            normalizedCapacity ++;
+            if (normalizedCapacity < 0) {
+                normalizedCapacity >>>= 1;
+            }
+            return normalizedCapacity;
+        }
+        //最小分配16字节
+        if (reqCapacity == 0) {
+            return 16;
+        }
+        if ((reqCapacity & 15) == 0) {
+            return reqCapacity;
+        }
+        return (reqCapacity & ~15) + 16;
+    }
+
+    //小于一个page
+    boolean isTinyOrSmall(int normCapacity) {
+        return (normCapacity & subpageOverflowMask) == 0;
+    }
+
+    //小于512字节
+    static boolean isTiny(int normCapacity) {
+        return (normCapacity & 0xFFFFFE00) == 0;
+    }
+
+    static int tinyIdx(int normCapacity) {
+        return normCapacity >>> 4;
+    }
+
+    static int smallIdx(int normCapacity) {
+        int tableIdx = 0;
+        int i = normCapacity >>> 10;
+        while (i != 0) {
+            i >>>= 1;
+            tableIdx ++;
+        }
+        return tableIdx;
+    }
+
+    abstract boolean isDirect();
+
+    protected abstract PoolChunk<T> newChunk(int pageSize, int maxOrder, int pageShifts, int chunkSize);
+
+    protected abstract PoolChunk<T> newUnpooledChunk(int capacity);
+
+    protected abstract void destroyChunk(PoolChunk<T> chunk);
+
+    /**
+     * 创建一个指向chunk中这段内存的ByteBuffer，position为0，limit和capacity都是length
+     */
+    abstract ByteBuffer newNioBuffer(T memory, int offset, int length);
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "(chunks: " + chunks + ", threadCaches: " + numThreadCaches.get() + ')';
+    }
+
+    static final class HeapArena extends PoolArena<byte[]> {
+
+        HeapArena(PooledByteBufferAllocator parent, int pageSize, int maxOrder, int pageShifts, int chunkSize) {
+            super(parent, pageSize, maxOrder, pageShifts, chunkSize);
+        }
+
+        @Override
+        boolean isDirect() {
+            return false;
+        }
+
+        @Override
+        protected PoolChunk<byte[]> newChunk(int pageSize, int maxOrder, int pageShifts, int chunkSize) {
+            return new PoolChunk<byte[]>(this, new byte[chunkSize], pageSize, maxOrder, pageShifts, chunkSize);
+        }
+
+        @Override
+        protected PoolChunk<byte[]> newUnpooledChunk(int capacity) {
+            return new PoolChunk<byte[]>(this, new byte[capacity], capacity);
+        }
+
+        @Override
+        protected void destroyChunk(PoolChunk<byte[]> chunk) {
+            // 堆内存交给GC回收就可以了
+        }
+
+        @Override
+        ByteBuffer newNioBuffer(byte[] memory, int offset, int length) {
+            return ByteBuffer.wrap(memory, offset, length).slice();
+        }
+    }
+
+    static final class DirectArena extends PoolArena<ByteBuffer> {
+
+        DirectArena(PooledByteBufferAllocator parent, int pageSize, int maxOrder, int pageShifts, int chunkSize) {
+            super(parent, pageSize, maxOrder, pageShifts, chunkSize);
+        }
+
+        @Override
+        boolean isDirect() {
+            return true;
+        }
+
+        @Override
+        protected PoolChunk<ByteBuffer> newChunk(int pageSize, int maxOrder, int pageShifts, int chunkSize) {
+            return new PoolChunk<ByteBuffer>(this, ByteBuffer.allocateDirect(chunkSize), pageSize, maxOrder, pageShifts, chunkSize);
+        }
+
+        @Override
+        protected PoolChunk<ByteBuffer> newUnpooledChunk(int capacity) {
+            return new PoolChunk<ByteBuffer>(this, ByteBuffer.allocateDirect(capacity), capacity);
+        }
+
+        @Override
+        protected void destroyChunk(PoolChunk<ByteBuffer> chunk) {
+            // 直接内存在ByteBuffer对象被GC回收的时候由Cleaner释放
+        }
+
+        @Override
+        ByteBuffer newNioBuffer(ByteBuffer memory, int offset, int length) {
+            ByteBuffer buffer = memory.duplicate();
+            buffer.limit(offset + length).position(offset);
+            return buffer.slice();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 内存池中的一大块连续内存，默认是 8K * 2^11 = 16M。chunk 被划分成大小相同的 page（默认8K），
+ * 用一棵完全二叉树（伙伴算法）管理 page 的分配：叶子节点是一个 page，父节点是两个子节点合起来的一段连续内存。
+ * memoryMap 数组存放这棵树，下标从1开始，memoryMap[id] 的值表示以 id 为根的子树中能分配的最大内存块所在的层数：
+ * 1) memoryMap[id] == depth(id)：这个节点完全空闲
+ * 2) depth(id) < memoryMap[id] <= maxOrder：这个节点被部分分配了，最多还能分配 memoryMap[id] 层大小的内存块
+ * 3) memoryMap[id] == maxOrder + 1：这个节点已经被完全分配了
+ * 小于一个 page 的内存交给 PoolSubpage 管理，一个 page 被切分成多个大小相同的小块。
+ * 分配的结果用一个 long 类型的 handle 表示：低32位是 memoryMap 的下标，高32位是 subpage 中小块的下标
+ */
+final class PoolChunk<T> {
+
+    final PoolArena<T> arena;
+
+    final T memory;
+
+    //超过chunk大小的内存不会被池化，直接单独分配一个chunk，释放的时候直接销毁
+    final boolean unpooled;
+
+    private final byte[] memoryMap;
+
+    private final byte[] depthMap;
+
+    private final PoolSubpage<T>[] subpages;
+
+    //用来判断申请的内存是否小于一个page，等于 ~(pageSize - 1)
+    private final int subpageOverflowMask;
+
+    private final int pageSize;
+
+    private final int pageShifts;
+
+    private final int maxOrder;
+
+    private final int chunkSize;
+
+    private final int log2ChunkSize;
+
+    private final int maxSubpageAllocs;
+
+    //表示节点已经被分配的标记，等于 maxOrder + 1
+    private final byte unusable;
+
+    int freeBytes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    PoolChunk(PoolArena<T> arena, T memory, int pageSize, int maxOrder, int pageShifts, int chunkSize) {
+        unpooled = false;
+        this.arena = arena;
+        this.memory = memory;
+        this.pageSize = pageSize;
+        this.pageShifts = pageShifts;
+        this.maxOrder = maxOrder;
+        this.chunkSize = chunkSize;
+        unusable = (byte) (maxOrder + 1);
+        log2ChunkSize = log2(chunkSize);
+        subpageOverflowMask = ~(pageSize - 1);
+        freeBytes = chunkSize;
+        maxSubpageAllocs = 1 << maxOrder;
+        //初始化二叉树，每个节点的值就是它所在的层数
+        memoryMap = new byte[maxSubpageAllocs << 1];
+        depthMap = new byte[memoryMap.length];
+        int memoryMapIndex = 1;
+        for (int d = 0; d <= maxOrder; ++ d) {
+            int depth = 1 << d;
+            for (int p = 0; p < depth; ++ p) {
+                memoryMap[memoryMapIndex] = (byte) d;
+                depthMap[memoryMapIndex] = (byte) d;
+                memoryMapIndex ++;
+            }
+        }
+        subpages = new PoolSubpage[maxSubpageAllocs];
+    }
+
+    /**
+     * 创建一个不池化的chunk，用来存放超过chunk大小的内存
+     */
+    PoolChunk(PoolArena<T> arena, T memory, int size) {
+        unpooled = true;
+        this.arena = arena;
+        this.memory = memory;
+        memoryMap = null;
+        depthMap = null;
+        subpages = null;
+        subpageOverflowMask = 0;
+        pageSize = 0;
+        pageShifts = 0;
+        maxOrder = 0;
+        unusable = (byte) (maxOrder + 1);
+        chunkSize = size;
+        log2ChunkSize = log2(chunkSize);
+        maxSubpageAllocs = 0;
+    }
+
+    /**
+     * 分配内存，normCapacity 是已经规格化的大小
+     * @return handle，分配失败返回-1
+     */
+    long allocate(int normCapacity) {
+        if ((normCapacity & subpageOverflowMask) != 0) {
+            //大于等于一个page
+            return allocateRun(normCapacity);
+        } else {
+            return allocateSubpage(normCapacity);
+        }
+    }
+
+    /**
+     * 在第d层找到一个空闲的节点
+     * @return 节点的下标，没有空闲节点返回-1
+     */
+    private int allocateNode(int d) {
+        int id = 1;
+        //第d层的节点下标都大于等于 1 << d，initial的低d位都是0
+        int initial = - (1 << d);
+        byte val = value(id);
+        //根节点都分配不出来，说明这个chunk没有足够的空间了
+        if (val > d) {
+            return -1;
+        }
+        //从根节点开始往下找，优先找左子节点，左子节点不够就找右子节点
+        while (val < d || (id & initial) == 0) {
+            id <<= 1;
+            val = value(id);
+            if (val > d) {
+                id ^= 1;
+                val = value(id);
+            }
+        }
+        //标记为已分配，并更新所有的父节点
+        setValue(id, unusable);
+        updateParentsAlloc(id);
+        return id;
+    }
+
+    private long allocateRun(int normCapacity) {
+        //根据申请的大小算出要在第几层分配
+        int d = maxOrder - (log2(normCapacity) - pageShifts);
+        int id = allocateNode(d);
+        if (id < 0) {
+            return id;
+        }
+        freeBytes -= runLength(id);
+        return id;
+    }
+
+    private long allocateSubpage(int normCapacity) {
+        //subpage一定是在叶子节点上分配的
+        int d = maxOrder;
+        int id = allocateNode(d);
+        if (id < 0) {
+            return id;
+        }
+        final PoolSubpage<T>[] subpages = this.subpages;
+        final int pageSize = this.pageSize;
+        freeBytes -= pageSize;
+        int subpageIdx = subpageIdx(id);
+        PoolSubpage<T> subpage = subpages[subpageIdx];
+        PoolSubpage<T> head = arena.findSubpagePoolHead(normCapacity);
+        if (subpage == null) {
+            subpage = new PoolSubpage<T>(head, this, id, runOffset(id), pageSize, normCapacity);
+            subpages[subpageIdx] = subpage;
+        } else {
+            subpage.init(head, normCapacity);
+        }
+        return subpage.allocate();
+    }
+
+    /**
+     * 释放handle对应的内存
+     */
+    void free(long handle) {
+        int memoryMapIdx = memoryMapIdx(handle);
+        int bitmapIdx = bitmapIdx(handle);
+        if (bitmapIdx != 0) {
+            PoolSubpage<T> subpage = subpages[subpageIdx(memoryMapIdx)];
+            PoolSubpage<T> head = arena.findSubpagePoolHead(subpage.elemSize);
+            //subpage中还有别的小块在使用，或者它是池中唯一的subpage，就不释放这个page
+            if (subpage.free(head, bitmapIdx & 0x3FFFFFFF)) {
+                return;
+            }
+        }
+        freeBytes += runLength(memoryMapIdx);
+        setValue(memoryMapIdx, depth(memoryMapIdx));
+        updateParentsFree(memoryMapIdx);
+    }
+
+    /**
+     * 把handle对应的内存交给PooledByteBuffer
+     */
+    void initBuf(PooledByteBuffer buf, long handle, int reqCapacity, PoolThreadCache threadCache) {
+        int memoryMapIdx = memoryMapIdx(handle);
+        int bitmapIdx = bitmapIdx(handle);
+        if (bitmapIdx == 0) {
+            buf.init(this, handle, runOffset(memoryMapIdx), reqCapacity, runLength(memoryMapIdx), threadCache);
+        } else {
+            PoolSubpage<T> subpage = subpages[subpageIdx(memoryMapIdx)];
+            buf.init(this, handle,
+                    runOffset(memoryMapIdx) + (bitmapIdx & 0x3FFFFFFF) * subpage.elemSize,
+                    reqCapacity, subpage.elemSize, threadCache);
+        }
+    }
+
+    void initBufWithUnpooled(PooledByteBuffer buf, int reqCapacity) {
+        buf.init(this, 0, 0, reqCapacity, chunkSize, null);
+    }
+
+    int chunkSize() {
+        return chunkSize;
+    }
+
+    int usage() {
+        if (freeBytes == 0) {
+            return 100;
+        }
+        int freePercentage = (int) (freeBytes * 100L / chunkSize);
+        if (freePercentage == 0) {
+            return 99;
+        }
+        return 100 - freePercentage;
+    }
+
+    //分配之后，父节点的值等于两个子节点中较小的那个
+    private void updateParentsAlloc(int id) {
+        while (id > 1) {
+            int parentId = id >>> 1;
+            byte val1 = value(id);
+            byte val2 = value(id ^ 1);
+            byte val = val1 < val2 ? val1 : val2;
+            setValue(parentId, val);
+            id = parentId;
+        }
+    }
+
+    //释放之后，如果两个子节点都完全空闲，父节点也就完全空闲了
+    private void updateParentsFree(int id) {
+        int logChild = depth(id) + 1;
+        while (id > 1) {
+            int parentId = id >>> 1;
+            byte val1 = value(id);
+            byte val2 = value(id ^ 1);
+            logChild -= 1;
+            if (val1 == logChild && val2 == logChild) {
+                setValue(parentId, (byte) (logChild - 1));
+            } else {
+                byte val = val1 < val2 ? val1 : val2;
+                setValue(parentId, val);
+            }
+            id = parentId;
+        }
+    }
+
+    private byte value(int id) {
+        return memoryMap[id];
+    }
+
+    private void setValue(int id, byte val) {
+        memoryMap[id] = val;
+    }
+
+    private byte depth(int id) {
+        return depthMap[id];
+    }
+
+    private static int log2(int val) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(val);
+    }
+
+    //节点对应的内存大小
+    private int runLength(int id) {
+        return 1 << log2ChunkSize - depth(id);
+    }
+
+    //节点对应的内存在chunk中的偏移量
+    private int runOffset(int id) {
+        int shift = id ^ 1 << depth(id);
+        return shift * runLength(id);
+    }
+
+    //叶子节点在subpages数组中的下标
+    private int subpageIdx(int memoryMapIdx) {
+        return memoryMapIdx ^ maxSubpageAllocs;
+    }
+
+    private static int memoryMapIdx(long handle) {
+        return (int) handle;
+    }
+
+    private static int bitmapIdx(long handle) {
+        return (int) (handle >>> Integer.SIZE);
+    }
+
+    @Override
+    public String toString() {
+        return "Chunk(" + Integer.toHexString(System.identityHashCode(this)) + ": " + usage() + "%, "
+                + (chunkSize - freeBytes) + '/' + chunkSize + ')';
+    }
+}
@@ -0,0 +1,197 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 小于一个 page 的内存由 subpage 管理。一个 page 被切分成 maxNumElems 个大小为 elemSize 的小块，
+ * 用位图 bitmap 记录每个小块是否被分配了。
+ * 同样大小的 subpage 会被串成一个双向链表，链表头保存在 PoolArena 的 tinySubpagePools 和 smallSubpagePools 中，
+ * 分配小内存的时候直接从链表中找一个还有空闲小块的 subpage，不需要再去 chunk 中分配 page
+ */
+final class PoolSubpage<T> {
+
+    final PoolChunk<T> chunk;
+
+    private final int memoryMapIdx;
+
+    private final int runOffset;
+
+    private final int pageSize;
+
+    private final long[] bitmap;
+
+    PoolSubpage<T> prev;
+
+    PoolSubpage<T> next;
+
+    //为false表示这个subpage已经被回收了，不能再分配
+    boolean doNotDestroy;
+
+    int elemSize;
+
+    private int maxNumElems;
+
+    private int bitmapLength;
+
+    private int nextAvail;
+
+    private int numAvail;
+
+    /**
+     * 创建链表头节点
+     */
+    PoolSubpage(int pageSize) {
+        chunk = null;
+        memoryMapIdx = -1;
+        runOffset = -1;
+        elemSize = -1;
+        this.pageSize = pageSize;
+        bitmap = null;
+        prev = this;
+        next = this;
+    }
+
+    PoolSubpage(PoolSubpage<T> head, PoolChunk<T> chunk, int memoryMapIdx, int runOffset, int pageSize, int elemSize) {
+        this.chunk = chunk;
+        this.memoryMapIdx = memoryMapIdx;
+        this.runOffset = runOffset;
+        this.pageSize = pageSize;
+        //最小的小块是16字节，所以位图最多需要 pageSize / 16 / 64 个long
+        bitmap = new long[pageSize >>> 10];
+        init(head, elemSize);
+    }
+
+    void init(PoolSubpage<T> head, int elemSize) {
+        doNotDestroy = true;
+        this.elemSize = elemSize;
+        if (elemSize != 0) {
+            maxNumElems = numAvail = pageSize / elemSize;
+            nextAvail = 0;
+            bitmapLength = maxNumElems >>> 6;
+            if ((maxNumElems & 63) != 0) {
+                bitmapLength ++;
+            }
+            for (int i = 0; i < bitmapLength; i ++) {
+                bitmap[i] = 0;
+            }
+        }
+        addToPool(head);
+    }
+
+    /**
+     * 分配一个小块
+     * @return handle，分配失败返回-1
+     */
+    long allocate() {
+        if (numAvail == 0 || !doNotDestroy) {
+            return -1;
+        }
+        final int bitmapIdx = getNextAvail();
+        int q = bitmapIdx >>> 6;
+        int r = bitmapIdx & 63;
+        bitmap[q] |= 1L << r;
+        //小块分配完了，从链表中移除，下次就不会再从这个subpage中分配了
+        if (-- numAvail == 0) {
+            removeFromPool();
+        }
+        return toHandle(bitmapIdx);
+    }
+
+    /**
+     * 释放一个小块
+     * @return 如果这个subpage还在使用中就返回true，返回false表示整个page都可以归还给chunk了
+     */
+    boolean free(PoolSubpage<T> head, int bitmapIdx) {
+        int q = bitmapIdx >>> 6;
+        int r = bitmapIdx & 63;
+        bitmap[q] ^= 1L << r;
+        setNextAvail(bitmapIdx);
+        //之前所有的小块都被分配了，现在有了空闲的小块，重新加入链表
+        if (numAvail ++ == 0) {
+            addToPool(head);
+            return true;
+        }
+        if (numAvail != maxNumElems) {
+            return true;
+        }
+        //所有的小块都空闲了，如果它是链表中唯一的subpage，就留着它，避免频繁地分配和释放page
+        if (prev == next) {
+            return true;
+        }
+        doNotDestroy = false;
+        removeFromPool();
+        return false;
+    }
+
+    private void addToPool(PoolSubpage<T> head) {
+        prev = head;
+        next = head.next;
+        next.prev = this;
+        head.next = this;
+    }
+
+    private void removeFromPool() {
+        prev.next = next;
+        next.prev = prev;
+        next = null;
+        prev = null;
+    }
+
+    private void setNextAvail(int bitmapIdx) {
+        nextAvail = bitmapIdx;
+    }
+
+    private int getNextAvail() {
+        //刚释放的小块可以直接使用，不需要再去位图中查找
+        int nextAvail = this.nextAvail;
+        if (nextAvail >= 0) {
+            this.nextAvail = -1;
+            return nextAvail;
+        }
+        return findNextAvail();
+    }
+
+    private int findNextAvail() {
+        final long[] bitmap = this.bitmap;
+        final int bitmapLength = this.bitmapLength;
+        for (int i = 0; i < bitmapLength; i ++) {
+            long bits = bitmap[i];
+            //有0的位说明有空闲的小块
+            if (~bits != 0) {
+                return findNextAvail0(i, bits);
+            }
+        }
+        return -1;
+    }
+
+    private int findNextAvail0(int i, long bits) {
+        final int maxNumElems = this.maxNumElems;
+        final int baseVal = i << 6;
+        for (int j = 0; j < 64; j ++) {
+            if ((bits & 1) == 0) {
+                int val = baseVal | j;
+                if (val < maxNumElems) {
+                    return val;
+                } else {
+                    break;
+                }
+            }
+            bits >>>= 1;
+        }
+        return -1;
+    }
+
+    //最高的两位设置为01，用来和bitmapIdx为0的情况区分开
+    private long toHandle(int bitmapIdx) {
+        return 0x4000000000000000L | (long) bitmapIdx << 32 | memoryMapIdx;
+    }
+
+    @Override
+    public String toString() {
+        if (!doNotDestroy) {
+            return "(" + memoryMapIdx + ": not in use)";
+        }
+        return "(" + memoryMapIdx + ": " + (maxNumElems - numAvail) + '/' + maxNumElems +
+                ", offset: " + runOffset + ", length: " + pageSize + ", elemSize: " + elemSize + ')';
+    }
+}
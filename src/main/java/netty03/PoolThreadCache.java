@@ -0,0 +1,293 @@
+package netty03;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 线程本地的内存缓存。一块内存被释放的时候，如果释放它的线程就是分配它的线程，
+ * 就先不归还给 arena，而是放进这个线程的缓存中，下次这个线程再申请同样规格的内存时，直接从缓存中取出来，
+ * 分配和释放都不需要加锁。只有 tiny、small 和不超过 maxCachedBufferCapacity 的 normal 规格会被缓存。
+ * 为了防止缓存一直占着用不到的内存，每分配 freeSweepAllocationThreshold 次就清理一次缓存，
+ * 把这段时间内没有被用到的内存归还给 arena。
+ * 这个类只会被它所属的线程访问，所以不需要考虑并发问题
+ */
+final class PoolThreadCache {
+
+    final PoolArena<byte[]> heapArena;
+
+    final PoolArena<ByteBuffer> directArena;
+
+    //创建这个缓存的线程，只有这个线程释放内存的时候才会放进缓存
+    final Thread thread = Thread.currentThread();
+
+    private final MemoryRegionCache<byte[]>[] tinySubPageHeapCaches;
+    private final MemoryRegionCache<byte[]>[] smallSubPageHeapCaches;
+    private final MemoryRegionCache<byte[]>[] normalHeapCaches;
+    private final MemoryRegionCache<ByteBuffer>[] tinySubPageDirectCaches;
+    private final MemoryRegionCache<ByteBuffer>[] smallSubPageDirectCaches;
+    private final MemoryRegionCache<ByteBuffer>[] normalDirectCaches;
+
+    private final int numShiftsNormalHeap;
+    private final int numShiftsNormalDirect;
+
+    private final int freeSweepAllocationThreshold;
+
+    private int allocations;
+
+    private boolean freed;
+
+    PoolThreadCache(PoolArena<byte[]> heapArena, PoolArena<ByteBuffer> directArena,
+                    int tinyCacheSize, int smallCacheSize, int normalCacheSize,
+                    int maxCachedBufferCapacity, int freeSweepAllocationThreshold) {
+        this.heapArena = heapArena;
+        this.directArena = directArena;
+        this.freeSweepAllocationThreshold = freeSweepAllocationThreshold;
+        if (directArena != null) {
+            tinySubPageDirectCaches = createSubPageCaches(tinyCacheSize, PoolArena.numTinySubpagePools);
+            smallSubPageDirectCaches = createSubPageCaches(smallCacheSize, directArena.numSmallSubpagePools);
+            numShiftsNormalDirect = log2(directArena.pageSize);
+            normalDirectCaches = createNormalCaches(normalCacheSize, maxCachedBufferCapacity, directArena);
+            directArena.numThreadCaches.getAndIncrement();
+        } else {
+            tinySubPageDirectCaches = null;
+            smallSubPageDirectCaches = null;
+            normalDirectCaches = null;
+            numShiftsNormalDirect = -1;
+        }
+        if (heapArena != null) {
+            tinySubPageHeapCaches = createSubPageCaches(tinyCacheSize, PoolArena.numTinySubpagePools);
+            smallSubPageHeapCaches = createSubPageCaches(smallCacheSize, heapArena.numSmallSubpagePools);
+            numShiftsNormalHeap = log2(heapArena.pageSize);
+            normalHeapCaches = createNormalCaches(normalCacheSize, maxCachedBufferCapacity, heapArena);
+            heapArena.numThreadCaches.getAndIncrement();
+        } else {
+            tinySubPageHeapCaches = null;
+            smallSubPageHeapCaches = null;
+            normalHeapCaches = null;
+            numShiftsNormalHeap = -1;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> MemoryRegionCache<T>[] createSubPageCaches(int cacheSize, int numCaches) {
+        if (cacheSize <= 0 || numCaches <= 0) {
+            return null;
+        }
+        MemoryRegionCache<T>[] cache = new MemoryRegionCache[numCaches];
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = new MemoryRegionCache<T>(cacheSize);
+        }
+        return cache;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> MemoryRegionCache<T>[] createNormalCaches(int cacheSize, int maxCachedBufferCapacity, PoolArena<T> area) {
+        if (cacheSize <= 0 || maxCachedBufferCapacity <= 0) {
+            return null;
+        }
+        int max = Math.min(area.chunkSize, maxCachedBufferCapacity);
+        //8K、16K、32K各一个缓存
+        int arraySize = Math.max(1, log2(max / area.pageSize) + 1);
+        MemoryRegionCache<T>[] cache = new MemoryRegionCache[arraySize];
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = new MemoryRegionCache<T>(cacheSize);
+        }
+        return cache;
+    }
+
+    private static int log2(int val) {
+        int res = 0;
+        while (val > 1) {
+            val >>= 1;
+            res++;
+        }
+        return res;
+    }
+
+    /**
+     * 尝试从缓存中分配内存
+     * @return 分配成功返回true
+     */
+    @SuppressWarnings("unchecked")
+    <T> boolean allocate(PoolArena<T> area, PooledByteBuffer buf, int reqCapacity, int normCapacity) {
+        MemoryRegionCache<T> cache = (MemoryRegionCache<T>) cacheFor(area, normCapacity);
+        if (cache == null) {
+            return false;
+        }
+        boolean allocated = cache.allocate(buf, reqCapacity, this);
+        if (++ allocations >= freeSweepAllocationThreshold) {
+            allocations = 0;
+            trim();
+        }
+        return allocated;
+    }
+
+    /**
+     * 把要释放的内存放进缓存
+     * @return 缓存满了或者这个规格不缓存就返回false，调用者要把内存归还给arena
+     */
+    @SuppressWarnings("unchecked")
+    <T> boolean add(PoolArena<T> area, PoolChunk<T> chunk, long handle, int normCapacity) {
+        if (Thread.currentThread() != thread) {
+            return false;
+        }
+        MemoryRegionCache<T> cache = (MemoryRegionCache<T>) cacheFor(area, normCapacity);
+        if (cache == null) {
+            return false;
+        }
+        return cache.add(chunk, handle);
+    }
+
+    private MemoryRegionCache<?> cacheFor(PoolArena<?> area, int normCapacity) {
+        if (area.isTinyOrSmall(normCapacity)) {
+            if (PoolArena.isTiny(normCapacity)) {
+                if (area.isDirect()) {
+                    return cache(tinySubPageDirectCaches, PoolArena.tinyIdx(normCapacity));
+                }
+                return cache(tinySubPageHeapCaches, PoolArena.tinyIdx(normCapacity));
+            }
+            if (area.isDirect()) {
+                return cache(smallSubPageDirectCaches, PoolArena.smallIdx(normCapacity));
+            }
+            return cache(smallSubPageHeapCaches, PoolArena.smallIdx(normCapacity));
+        }
+        if (area.isDirect()) {
+            return cache(normalDirectCaches, log2(normCapacity >> numShiftsNormalDirect));
+        }
+        return cache(normalHeapCaches, log2(normCapacity >> numShiftsNormalHeap));
+    }
+
+    private static <T> MemoryRegionCache<T> cache(MemoryRegionCache<T>[] cache, int idx) {
+        if (cache == null || idx > cache.length - 1) {
+            return null;
+        }
+        return cache[idx];
+    }
+
+    /**
+     * 把缓存中的内存全部归还给arena，线程结束之前要调用该方法，否则这些内存就泄漏了
+     */
+    void free() {
+        //线程结束的监听器和用户主动调用的freeThreadLocalCache都可能走到这里，只释放一次
+        if (freed) {
+            return;
+        }
+        freed = true;
+        free(tinySubPageDirectCaches);
+        free(smallSubPageDirectCaches);
+        free(normalDirectCaches);
+        free(tinySubPageHeapCaches);
+        free(smallSubPageHeapCaches);
+        free(normalHeapCaches);
+        if (directArena != null) {
+            directArena.numThreadCaches.getAndDecrement();
+        }
+        if (heapArena != null) {
+            heapArena.numThreadCaches.getAndDecrement();
+        }
+    }
+
+    private static void free(MemoryRegionCache<?>[] caches) {
+        if (caches == null) {
+            return;
+        }
+        for (MemoryRegionCache<?> c : caches) {
+            c.free(Integer.MAX_VALUE);
+        }
+    }
+
+    void trim() {
+        trim(tinySubPageDirectCaches);
+        trim(smallSubPageDirectCaches);
+        trim(normalDirectCaches);
+        trim(tinySubPageHeapCaches);
+        trim(smallSubPageHeapCaches);
+        trim(normalHeapCaches);
+    }
+
+    private static void trim(MemoryRegionCache<?>[] caches) {
+        if (caches == null) {
+            return;
+        }
+        for (MemoryRegionCache<?> c : caches) {
+            c.trim();
+        }
+    }
+
+    /**
+     * 缓存同一种规格内存的环形队列，用两个数组分别保存chunk和handle，放进缓存的时候不需要创建对象
+     */
+    private static final class MemoryRegionCache<T> {
+
+        private final PoolChunk<T>[] chunks;
+
+        private final long[] handles;
+
+        private int head;
+
+        private int size;
+
+        //上一次清理之后，从这个缓存中分配的次数
+        private int allocations;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        MemoryRegionCache(int size) {
+            chunks = new PoolChunk[size];
+            handles = new long[size];
+        }
+
+        boolean add(PoolChunk<T> chunk, long handle) {
+            if (size == chunks.length) {
+                return false;
+            }
+            int tail = (head + size) % chunks.length;
+            chunks[tail] = chunk;
+            handles[tail] = handle;
+            size ++;
+            return true;
+        }
+
+        boolean allocate(PooledByteBuffer buf, int reqCapacity, PoolThreadCache threadCache) {
+            if (size == 0) {
+                return false;
+            }
+            //最后放进去的内存最有可能还在CPU缓存中，所以从队尾取
+            int tail = (head + size - 1) % chunks.length;
+            PoolChunk<T> chunk = chunks[tail];
+            long handle = handles[tail];
+            chunks[tail] = null;
+            size --;
+            chunk.initBuf(buf, handle, reqCapacity, threadCache);
+            ++ allocations;
+            return true;
+        }
+
+        /**
+         * 从队头开始，把最多max个内存归还给arena
+         */
+        int free(int max) {
+            int numFreed = 0;
+            for (; numFreed < max && size > 0; numFreed++) {
+                PoolChunk<T> chunk = chunks[head];
+                long handle = handles[head];
+                chunks[head] = null;
+                head = (head + 1) % chunks.length;
+                size --;
+                chunk.arena.freeChunk(chunk, handle);
+            }
+            return numFreed;
+        }
+
+        /**
+         * 上一次清理之后缓存中的内存只被用了allocations次，多出来的就是用不到的，归还给arena
+         */
+        void trim() {
+            int free = size - allocations;
+            allocations = 0;
+            if (free > 0) {
+                free(free);
+            }
+        }
+    }
+}
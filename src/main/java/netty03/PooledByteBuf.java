@@ -0,0 +1,294 @@
+package netty03;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 内存来自内存池的 ByteBuf，底层是 PooledByteBufferAllocator 分配出来的一段内存 PooledByteBuffer。
+ * 堆内存和直接内存都通过这段内存的 ByteBuffer 视图来读写，引用计数减到0的时候把内存还给内存池。
+ * 扩容的时候会重新从内存池中分配一段更大的内存，把数据拷贝过去，再把原来的内存还回去
+ */
+final class PooledByteBuf extends AbstractReferenceCountedByteBuf {
+
+    private final PooledByteBufferAllocator alloc;
+
+    private final boolean direct;
+
+    private PooledByteBuffer lease;
+
+    //指向这段内存的ByteBuffer，只使用它的绝对下标方法，position和limit始终是0和capacity
+    private ByteBuffer memory;
+
+    private ByteBuffer tmpNioBuf;
+
+    PooledByteBuf(PooledByteBufferAllocator alloc, PooledByteBuffer lease, int maxCapacity) {
+        super(maxCapacity);
+        this.alloc = alloc;
+        this.direct = lease.isDirect();
+        setLease(lease);
+    }
+
+    private void setLease(PooledByteBuffer lease) {
+        this.lease = lease;
+        this.memory = lease.nioBuffer();
+        this.tmpNioBuf = null;
+    }
+
+    @Override
+    public ByteBufAllocator alloc() {
+        return alloc;
+    }
+
+    @Override
+    public boolean isDirect() {
+        return direct;
+    }
+
+    @Override
+    public int capacity() {
+        return memory == null ? 0 : memory.capacity();
+    }
+
+    @Override
+    public ByteBuf capacity(int newCapacity) {
+        ensureAccessible();
+        if (newCapacity < 0 || newCapacity > maxCapacity()) {
+            throw new IllegalArgumentException("newCapacity: " + newCapacity);
+        }
+        int oldCapacity = capacity();
+        if (newCapacity == oldCapacity) {
+            return this;
+        }
+        PooledByteBuffer oldLease = lease;
+        PooledByteBuffer newLease = direct ? alloc.allocateDirect(newCapacity) : alloc.allocateHeap(newCapacity);
+        ByteBuffer src = memory.duplicate();
+        src.limit(Math.min(oldCapacity, newCapacity));
+        newLease.nioBuffer().duplicate().put(src);
+        setLease(newLease);
+        oldLease.release();
+        adjustIndexes(newCapacity);
+        return this;
+    }
+
+    @Override
+    public ByteBuf unwrap() {
+        return null;
+    }
+
+    @Override
+    public boolean hasArray() {
+        return !direct;
+    }
+
+    @Override
+    public byte[] array() {
+        ensureAccessible();
+        return memory.array();
+    }
+
+    @Override
+    public int arrayOffset() {
+        ensureAccessible();
+        return memory.arrayOffset();
+    }
+
+    @Override
+    protected byte _getByte(int index) {
+        return memory.get(index);
+    }
+
+    @Override
+    protected short _getShort(int index) {
+        return memory.getShort(index);
+    }
+
+    @Override
+    protected int _getUnsignedMedium(int index) {
+        return (memory.get(index) & 0xff) << 16 | (memory.get(index + 1) & 0xff) << 8 | memory.get(index + 2) & 0xff;
+    }
+
+    @Override
+    protected int _getInt(int index) {
+        return memory.getInt(index);
+    }
+
+    @Override
+    protected long _getLong(int index) {
+        return memory.getLong(index);
+    }
+
+    @Override
+    protected void _setByte(int index, int value) {
+        memory.put(index, (byte) value);
+    }
+
+    @Override
+    protected void _setShort(int index, int value) {
+        memory.putShort(index, (short) value);
+    }
+
+    @Override
+    protected void _setMedium(int index, int value) {
+        memory.put(index, (byte) (value >>> 16));
+        memory.put(index + 1, (byte) (value >>> 8));
+        memory.put(index + 2, (byte) value);
+    }
+
+    @Override
+    protected void _setInt(int index, int value) {
+        memory.putInt(index, value);
+    }
+
+    @Override
+    protected void _setLong(int index, long value) {
+        memory.putLong(index, value);
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, ByteBuf dst, int dstIndex, int length) {
+        checkDstIndex(index, length, dstIndex, dst.capacity());
+        if (dst.hasArray()) {
+            getBytes(index, dst.array(), dst.arrayOffset() + dstIndex, length);
+        } else if (dst.nioBufferCount() > 0) {
+            for (ByteBuffer bb: dst.nioBuffers(dstIndex, length)) {
+                int bbLen = bb.remaining();
+                getBytes(index, bb);
+                index += bbLen;
+            }
+        } else {
+            dst.setBytes(dstIndex, this, index, length);
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, byte[] dst, int dstIndex, int length) {
+        checkDstIndex(index, length, dstIndex, dst.length);
+        ByteBuffer tmpBuf = internalNioBuffer();
+        tmpBuf.clear().position(index).limit(index + length);
+        tmpBuf.get(dst, dstIndex, length);
+        return this;
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, ByteBuffer dst) {
+        checkIndex(index, dst.remaining());
+        ByteBuffer tmpBuf = internalNioBuffer();
+        tmpBuf.clear().position(index).limit(index + dst.remaining());
+        dst.put(tmpBuf);
+        return this;
+    }
+
+    @Override
+    public int getBytes(int index, GatheringByteChannel out, int length) throws IOException {
+        checkIndex(index, length);
+        if (length == 0) {
+            return 0;
+        }
+        return out.write(internalNioBuffer(index, length));
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, ByteBuf src, int srcIndex, int length) {
+        checkSrcIndex(index, length, srcIndex, src.capacity());
+        if (src.hasArray()) {
+            setBytes(index, src.array(), src.arrayOffset() + srcIndex, length);
+        } else if (src.nioBufferCount() > 0) {
+            for (ByteBuffer bb: src.nioBuffers(srcIndex, length)) {
+                int bbLen = bb.remaining();
+                setBytes(index, bb);
+                index += bbLen;
+            }
+        } else {
+            src.getBytes(srcIndex, this, index, length);
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, byte[] src, int srcIndex, int length) {
+        checkSrcIndex(index, length, srcIndex, src.length);
+        ByteBuffer tmpBuf = internalNioBuffer();
+        tmpBuf.clear().position(index).limit(index + length);
+        tmpBuf.put(src, srcIndex, length);
+        return this;
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, ByteBuffer src) {
+        checkIndex(index, src.remaining());
+        ByteBuffer tmpBuf = internalNioBuffer();
+        if (src == tmpBuf) {
+            src = src.duplicate();
+        }
+        tmpBuf.clear().position(index).limit(index + src.remaining());
+        tmpBuf.put(src);
+        return this;
+    }
+
+    @Override
+    public int setBytes(int index, ScatteringByteChannel in, int length) throws IOException {
+        checkIndex(index, length);
+        try {
+            return in.read(internalNioBuffer(index, length));
+        } catch (ClosedChannelException ignored) {
+            return -1;
+        }
+    }
+
+    @Override
+    public ByteBuf copy(int index, int length) {
+        checkIndex(index, length);
+        ByteBuf copy = direct ? alloc.directBuffer(length, maxCapacity()) : alloc.heapBuffer(length, maxCapacity());
+        copy.writeBytes(this, index, length);
+        return copy;
+    }
+
+    @Override
+    public int nioBufferCount() {
+        return 1;
+    }
+
+    @Override
+    public ByteBuffer nioBuffer(int index, int length) {
+        checkIndex(index, length);
+        ByteBuffer dup = memory.duplicate();
+        dup.position(index).limit(index + length);
+        return dup.slice();
+    }
+
+    @Override
+    public ByteBuffer internalNioBuffer(int index, int length) {
+        checkIndex(index, length);
+        ByteBuffer tmpBuf = internalNioBuffer();
+        tmpBuf.clear().position(index).limit(index + length);
+        return tmpBuf;
+    }
+
+    private ByteBuffer internalNioBuffer() {
+        ByteBuffer tmpNioBuf = this.tmpNioBuf;
+        if (tmpNioBuf == null) {
+            this.tmpNioBuf = tmpNioBuf = memory.duplicate();
+        }
+        return tmpNioBuf;
+    }
+
+    @Override
+    public ByteBuffer[] nioBuffers(int index, int length) {
+        return new ByteBuffer[] { nioBuffer(index, length) };
+    }
+
+    @Override
+    protected void deallocate() {
+        PooledByteBuffer lease = this.lease;
+        this.lease = null;
+        memory = null;
+        tmpNioBuf = null;
+        lease.release();
+    }
+}
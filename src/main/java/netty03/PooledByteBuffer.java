@@ -0,0 +1,130 @@
+package netty03;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 从内存池中分配出来的一段内存。通过 nioBuffer() 得到指向这段内存的 ByteBuffer 来读写数据，
+ * 用完之后必须调用 release() 把内存还给内存池，释放之后就不能再使用了。
+ * 这个类不是线程安全的，同一时刻只能被一个线程使用
+ */
+public final class PooledByteBuffer {
+
+    private PoolChunk<?> chunk;
+
+    private long handle;
+
+    private int offset;
+
+    private int length;
+
+    //规格化之后的大小，释放的时候要根据它找到对应的缓存
+    private int maxLength;
+
+    private PoolThreadCache cache;
+
+    private ByteBuffer nioBuffer;
+
+    PooledByteBuffer() {
+    }
+
+    void init(PoolChunk<?> chunk, long handle, int offset, int length, int maxLength, PoolThreadCache cache) {
+        this.chunk = chunk;
+        this.handle = handle;
+        this.offset = offset;
+        this.length = length;
+        this.maxLength = maxLength;
+        this.cache = cache;
+        this.nioBuffer = null;
+    }
+
+    /**
+     * 申请的容量
+     */
+    public int capacity() {
+        return length;
+    }
+
+    /**
+     * 实际占用的容量，申请的容量会被向上取整，多出来的部分也可以使用
+     */
+    public int maxCapacity() {
+        return maxLength;
+    }
+
+    public boolean isDirect() {
+        return chunk().arena.isDirect();
+    }
+
+    /**
+     * 得到指向这段内存的 ByteBuffer，position为0，limit为capacity。
+     * 多次调用返回的是同一个对象，所以调用者改变了它的 position 和 limit 之后，下次得到的还是改变之后的
+     */
+    public ByteBuffer nioBuffer() {
+        ByteBuffer nioBuffer = this.nioBuffer;
+        if (nioBuffer == null) {
+            this.nioBuffer = nioBuffer = newNioBuffer(chunk());
+        }
+        return nioBuffer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ByteBuffer newNioBuffer(PoolChunk<T> chunk) {
+        return chunk.arena.newNioBuffer(chunk.memory, offset, length);
+    }
+
+    public boolean hasArray() {
+        return !isDirect();
+    }
+
+    /**
+     * 堆内存对应的byte数组，数据从 arrayOffset() 开始存放，这个数组是和其他内存共享的
+     */
+    public byte[] array() {
+        if (isDirect()) {
+            throw new UnsupportedOperationException("direct buffer");
+        }
+        return (byte[]) chunk().memory;
+    }
+
+    public int arrayOffset() {
+        if (isDirect()) {
+            throw new UnsupportedOperationException("direct buffer");
+        }
+        return offset;
+    }
+
+    /**
+     * 把内存还给内存池
+     */
+    public void release() {
+        PoolChunk<?> chunk = chunk();
+        free(chunk);
+        this.chunk = null;
+        this.nioBuffer = null;
+        this.cache = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void free(PoolChunk<T> chunk) {
+        chunk.arena.free(chunk, handle, maxLength, cache);
+    }
+
+    private PoolChunk<?> chunk() {
+        PoolChunk<?> chunk = this.chunk;
+        if (chunk == null) {
+            throw new IllegalStateException("buffer has been released");
+        }
+        return chunk;
+    }
+
+    @Override
+    public String toString() {
+        if (chunk == null) {
+            return "PooledByteBuffer(released)";
+        }
+        return "PooledByteBuffer(" + (isDirect() ? "direct" : "heap") + ", offset: " + offset
+                + ", capacity: " + length + '/' + maxLength + ')';
+    }
+}
@@ -0,0 +1,287 @@
+package netty03;
+
+import netty05.GenericFutureListener;
+import netty05.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 池化的内存分配器。之前每次读数据都要 ByteBuffer.allocate(1024)，再 new 一个 byte 数组把数据拷贝出来，
+ * 消息量大的时候，这些用完就扔的对象会让新生代GC非常频繁。现在内存从预先分配好的 chunk 中切出来，用完之后还回来，
+ * 下次接着用。分配器中有多个堆内存的 arena 和多个直接内存的 arena，每个线程第一次分配内存的时候绑定一个使用线程最少的 arena。
+ * 执行器的线程还会拥有一个线程本地缓存，同一个线程分配、释放内存的时候直接走缓存，不需要加锁。
+ * 其他线程默认不创建缓存，因为这些线程可能很快就结束了，缓存中的内存来不及归还给 arena。
+ * 通过 ByteBufAllocator 的方法分配的是 ByteBuf，引用计数减到0的时候内存会自动还给内存池
+ */
+public class PooledByteBufferAllocator extends AbstractByteBufAllocator {
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledByteBufferAllocator.class);
+
+    private static final int DEFAULT_PAGE_SIZE = 8192;
+
+    private static final int DEFAULT_MAX_ORDER = 11;
+
+    private static final int DEFAULT_NUM_HEAP_ARENA;
+
+    private static final int DEFAULT_NUM_DIRECT_ARENA;
+
+    private static final int DEFAULT_TINY_CACHE_SIZE = 512;
+
+    private static final int DEFAULT_SMALL_CACHE_SIZE = 256;
+
+    private static final int DEFAULT_NORMAL_CACHE_SIZE = 64;
+
+    //超过32K的内存不放进线程缓存
+    private static final int DEFAULT_MAX_CACHED_BUFFER_CAPACITY = 32 * 1024;
+
+    //每分配8192次清理一次线程缓存
+    private static final int DEFAULT_CACHE_TRIM_INTERVAL = 8192;
+
+    private static final int MIN_PAGE_SIZE = 4096;
+
+    private static final int MAX_CHUNK_SIZE = (int) (((long) Integer.MAX_VALUE + 1) / 2);
+
+    static {
+        //arena的数量默认是CPU核数的2倍，和执行器线程的数量一样，这样每个执行器线程都可以独享一个arena。
+        //同时要保证所有arena的第一个chunk加起来不超过最大内存的一半
+        final int defaultChunkSize = DEFAULT_PAGE_SIZE << DEFAULT_MAX_ORDER;
+        final int defaultMinNumArena = Runtime.getRuntime().availableProcessors() * 2;
+        final Runtime runtime = Runtime.getRuntime();
+        DEFAULT_NUM_HEAP_ARENA = Math.max(0, (int) Math.min(defaultMinNumArena,
+                runtime.maxMemory() / defaultChunkSize / 2 / 3));
+        DEFAULT_NUM_DIRECT_ARENA = Math.max(0, (int) Math.min(defaultMinNumArena,
+                runtime.maxMemory() / defaultChunkSize / 2 / 3));
+    }
+
+    public static final PooledByteBufferAllocator DEFAULT = new PooledByteBufferAllocator();
+
+    private final PoolArena<byte[]>[] heapArenas;
+
+    private final PoolArena<ByteBuffer>[] directArenas;
+
+    private final int tinyCacheSize;
+
+    private final int smallCacheSize;
+
+    private final int normalCacheSize;
+
+    private final boolean useCacheForAllThreads;
+
+    private final PoolThreadLocalCache threadCache;
+
+    //arena数量为0时使用，只分配不池化的内存
+    private final PoolArena<byte[]> unpooledHeapArena;
+
+    private final PoolArena<ByteBuffer> unpooledDirectArena;
+
+    public PooledByteBufferAllocator() {
+        this(false);
+    }
+
+    /**
+     * @param preferDirect buffer()方法是否默认分配直接内存
+     */
+    public PooledByteBufferAllocator(boolean preferDirect) {
+        this(preferDirect, DEFAULT_NUM_HEAP_ARENA, DEFAULT_NUM_DIRECT_ARENA, DEFAULT_PAGE_SIZE, DEFAULT_MAX_ORDER,
+                DEFAULT_TINY_CACHE_SIZE, DEFAULT_SMALL_CACHE_SIZE, DEFAULT_NORMAL_CACHE_SIZE, false);
+    }
+
+    public PooledByteBufferAllocator(int nHeapArena, int nDirectArena, int pageSize, int maxOrder) {
+        this(false, nHeapArena, nDirectArena, pageSize, maxOrder,
+                DEFAULT_TINY_CACHE_SIZE, DEFAULT_SMALL_CACHE_SIZE, DEFAULT_NORMAL_CACHE_SIZE, false);
+    }
+
+    /**
+     * @param useCacheForAllThreads 为true时所有线程都会创建线程缓存，为false时只有执行器的线程才会创建
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PooledByteBufferAllocator(boolean preferDirect, int nHeapArena, int nDirectArena, int pageSize, int maxOrder,
+                                     int tinyCacheSize, int smallCacheSize, int normalCacheSize,
+                                     boolean useCacheForAllThreads) {
+        super(preferDirect);
+        if (nHeapArena < 0) {
+            throw new IllegalArgumentException("nHeapArena: " + nHeapArena + " (expected: >= 0)");
+        }
+        if (nDirectArena < 0) {
+            throw new IllegalArgumentException("nDirectArena: " + nDirectArena + " (expected: >= 0)");
+        }
+        this.tinyCacheSize = tinyCacheSize;
+        this.smallCacheSize = smallCacheSize;
+        this.normalCacheSize = normalCacheSize;
+        this.useCacheForAllThreads = useCacheForAllThreads;
+        int pageShifts = validateAndCalculatePageShifts(pageSize);
+        int chunkSize = validateAndCalculateChunkSize(pageSize, maxOrder);
+        heapArenas = new PoolArena[nHeapArena];
+        for (int i = 0; i < heapArenas.length; i ++) {
+            heapArenas[i] = new PoolArena.HeapArena(this, pageSize, maxOrder, pageShifts, chunkSize);
+        }
+        directArenas = new PoolArena[nDirectArena];
+        for (int i = 0; i < directArenas.length; i ++) {
+            directArenas[i] = new PoolArena.DirectArena(this, pageSize, maxOrder, pageShifts, chunkSize);
+        }
+        threadCache = new PoolThreadLocalCache();
+        unpooledHeapArena = new PoolArena.HeapArena(this, pageSize, 0, pageShifts, pageSize);
+        unpooledDirectArena = new PoolArena.DirectArena(this, pageSize, 0, pageShifts, pageSize);
+        logger.debug("创建了内存池，heapArenas: {}, directArenas: {}, pageSize: {}, chunkSize: {}",
+                nHeapArena, nDirectArena, pageSize, chunkSize);
+    }
+
+    private static int validateAndCalculatePageShifts(int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE) {
+            throw new IllegalArgumentException("pageSize: " + pageSize + " (expected: " + MIN_PAGE_SIZE + ")");
+        }
+        if ((pageSize & pageSize - 1) != 0) {
+            throw new IllegalArgumentException("pageSize: " + pageSize + " (expected: power of 2)");
+        }
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(pageSize);
+    }
+
+    private static int validateAndCalculateChunkSize(int pageSize, int maxOrder) {
+        if (maxOrder > 14) {
+            throw new IllegalArgumentException("maxOrder: " + maxOrder + " (expected: 0-14)");
+        }
+        int chunkSize = pageSize;
+        for (int i = maxOrder; i > 0; i --) {
+            if (chunkSize > MAX_CHUNK_SIZE / 2) {
+                throw new IllegalArgumentException(String.format(
+                        "pageSize (%d) << maxOrder (%d) must not exceed %d", pageSize, maxOrder, MAX_CHUNK_SIZE));
+            }
+            chunkSize <<= 1;
+        }
+        return chunkSize;
+    }
+
+    /**
+     * 分配一段堆内存，读到的数据可以直接通过 array() 访问，不需要再拷贝到新的数组中
+     */
+    public PooledByteBuffer allocateHeap(int capacity) {
+        PoolThreadCache cache = threadCache();
+        PoolArena<byte[]> heapArena = cache.heapArena;
+        if (heapArena == null) {
+            //没有堆内存的arena，退化成不池化的内存
+            return allocateUnpooled(unpooledHeapArena, capacity);
+        }
+        return heapArena.allocate(cache, capacity);
+    }
+
+    /**
+     * 分配一段直接内存，socket读写直接内存的时候不需要在堆内存和直接内存之间拷贝
+     */
+    public PooledByteBuffer allocateDirect(int capacity) {
+        PoolThreadCache cache = threadCache();
+        PoolArena<ByteBuffer> directArena = cache.directArena;
+        if (directArena == null) {
+            return allocateUnpooled(unpooledDirectArena, capacity);
+        }
+        return directArena.allocate(cache, capacity);
+    }
+
+    @Override
+    protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+        return new PooledByteBuf(this, allocateHeap(initialCapacity), maxCapacity);
+    }
+
+    @Override
+    protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+        return new PooledByteBuf(this, allocateDirect(initialCapacity), maxCapacity);
+    }
+
+    @Override
+    public boolean isDirectBufferPooled() {
+        return directArenas.length > 0;
+    }
+
+    private static <T> PooledByteBuffer allocateUnpooled(PoolArena<T> arena, int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity: " + capacity + " (expected: 0+)");
+        }
+        PooledByteBuffer buf = new PooledByteBuffer();
+        arena.newUnpooledChunk(capacity).initBufWithUnpooled(buf, capacity);
+        return buf;
+    }
+
+    /**
+     * 得到当前线程的缓存，第一次调用的时候创建。
+     * 执行器的线程创建缓存的时候，在执行器的terminationFuture上注册监听器，线程结束的时候把缓存中的内存还给这个分配器
+     */
+    private PoolThreadCache threadCache() {
+        PoolThreadCache cache = threadCache.get();
+        if (cache == null) {
+            SingleThreadEventExecutor executor = SingleThreadEventExecutor.currentExecutor();
+            cache = threadCache.newCache(useCacheForAllThreads || executor != null);
+            threadCache.set(cache);
+            if (executor != null) {
+                freeOnTermination(executor, cache);
+            }
+        }
+        return cache;
+    }
+
+    private void freeOnTermination(SingleThreadEventExecutor executor, final PoolThreadCache cache) {
+        executor.terminationFuture().addListener(new GenericFutureListener<Promise<Void>>() {
+            @Override
+            public void operationComplete(Promise<Void> future) {
+                //terminationFuture由执行器的线程在退出之前完成，这里就是缓存所属的线程
+                if (threadCache.get() == cache) {
+                    threadCache.remove();
+                }
+                cache.free();
+            }
+        });
+    }
+
+    /**
+     * 让当前线程也拥有线程缓存。netty01、netty02 中自己管理线程的事件循环不是执行器的线程，默认不会创建缓存，
+     * 每次分配内存都要对 arena 加锁。这样的线程在进入循环之前调用该方法，退出之前必须调用 freeThreadLocalCache
+     */
+    public void useThreadLocalCache() {
+        PoolThreadCache old = threadCache.get();
+        if (old != null) {
+            old.free();
+        }
+        threadCache.set(threadCache.newCache(true));
+    }
+
+    /**
+     * 把当前线程缓存中的内存全部归还给arena，执行器的线程结束之前应该调用该方法。当前线程还没有缓存时什么也不做
+     */
+    public void freeThreadLocalCache() {
+        PoolThreadCache cache = threadCache.get();
+        if (cache != null) {
+            threadCache.remove();
+            cache.free();
+        }
+    }
+
+    private final class PoolThreadLocalCache extends ThreadLocal<PoolThreadCache> {
+
+        PoolThreadCache newCache(boolean useCache) {
+            final PoolArena<byte[]> heapArena = leastUsedArena(heapArenas);
+            final PoolArena<ByteBuffer> directArena = leastUsedArena(directArenas);
+            if (useCache) {
+                return new PoolThreadCache(heapArena, directArena, tinyCacheSize, smallCacheSize, normalCacheSize,
+                        DEFAULT_MAX_CACHED_BUFFER_CAPACITY, DEFAULT_CACHE_TRIM_INTERVAL);
+            }
+            //不是执行器的线程，只绑定arena，不缓存内存
+            return new PoolThreadCache(heapArena, directArena, 0, 0, 0, 0, 0);
+        }
+
+        private <T> PoolArena<T> leastUsedArena(PoolArena<T>[] arenas) {
+            if (arenas == null || arenas.length == 0) {
+                return null;
+            }
+            PoolArena<T> minArena = arenas[0];
+            for (int i = 1; i < arenas.length; i++) {
+                PoolArena<T> arena = arenas[i];
+                if (arena.numThreadCaches.get() < minArena.numThreadCaches.get()) {
+                    minArena = arena;
+                }
+            }
+            return minArena;
+        }
+    }
+}
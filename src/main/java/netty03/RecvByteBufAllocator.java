@@ -0,0 +1,59 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 决定读数据时分配多大的缓冲区，以及一次读事件中要读多少次。
+ * 每个客户端 channel 都持有一个自己的 Handle，Handle 会根据这个 channel 最近读到的数据量来调整下一次分配的大小
+ */
+public interface RecvByteBufAllocator {
+
+    /**
+     * 为一个新的 channel 创建 Handle
+     */
+    Handle newHandle();
+
+    interface Handle {
+
+        /**
+         * 分配一个缓冲区，大小由 guess() 决定
+         */
+        ByteBuf allocate(ByteBufAllocator alloc);
+
+        /**
+         * 猜测下一次读数据需要多大的缓冲区
+         */
+        int guess();
+
+        /**
+         * 每次处理读事件之前调用，清空上一次读事件的统计数据
+         */
+        void reset();
+
+        /**
+         * 记录本次打算读取的字节数，也就是缓冲区的大小
+         */
+        void attemptedBytesRead(int bytes);
+
+        int attemptedBytesRead();
+
+        /**
+         * 记录上一次 read 实际读到的字节数
+         */
+        void lastBytesRead(int bytes);
+
+        int lastBytesRead();
+
+        void incMessagesRead(int numMessages);
+
+        /**
+         * 本次读事件中是否还要继续读
+         */
+        boolean continueReading();
+
+        /**
+         * 一次读事件处理完了
+         */
+        void readComplete();
+    }
+}
@@ -0,0 +1,47 @@
+package netty03;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 处理器收到的消息不一定是有引用计数的对象，用这些方法释放消息的时候不需要先判断类型
+ */
+public final class ReferenceCountUtil {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReferenceCountUtil.class);
+
+    private ReferenceCountUtil() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T retain(T msg) {
+        if (msg instanceof ReferenceCounted) {
+            return (T) ((ReferenceCounted) msg).retain();
+        }
+        return msg;
+    }
+
+    /**
+     * msg有引用计数就把计数减1
+     * @return 计数减到0、msg被释放的时候返回true
+     */
+    public static boolean release(Object msg) {
+        if (msg instanceof ReferenceCounted) {
+            return ((ReferenceCounted) msg).release();
+        }
+        return false;
+    }
+
+    /**
+     * 和release一样，但是释放失败的时候只打印日志，不抛出异常
+     */
+    public static void safeRelease(Object msg) {
+        try {
+            release(msg);
+        } catch (Throwable t) {
+            logger.warn("Failed to release a message: {}", msg, t);
+        }
+    }
+}
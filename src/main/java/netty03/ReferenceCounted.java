@@ -0,0 +1,27 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 需要显式释放的对象。对象刚创建的时候引用计数为1，retain() 加1，release() 减1，
+ * 计数减到0的时候对象持有的资源（比如内存池中的内存）就被释放了，之后就不能再访问这个对象了
+ */
+public interface ReferenceCounted {
+
+    /**
+     * 当前的引用计数，为0表示已经被释放了
+     */
+    int refCnt();
+
+    ReferenceCounted retain();
+
+    ReferenceCounted retain(int increment);
+
+    /**
+     * 引用计数减1
+     * @return 计数减到0、对象被释放的时候返回true
+     */
+    boolean release();
+
+    boolean release(int decrement);
+}
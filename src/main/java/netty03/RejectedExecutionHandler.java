@@ -0,0 +1,18 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 单线程执行器中积压的任务达到 maxPendingTasks、外部通过 execute、submit 提交的新任务放不进去的时候调用的拒绝策略。
+ * 框架内部的任务（注册channel、flush、通知监听器等）不会交给拒绝策略，所以这里拿到的一定是用户自己的任务。
+ * 常用的几种实现在 RejectedExecutionHandlers 中，也可以自己实现，比如记录日志之后再抛出异常
+ */
+public interface RejectedExecutionHandler {
+
+    /**
+     * 处理被拒绝的任务，可以直接抛出 RejectedExecutionException，也可以用别的方式把任务执行掉或者丢弃掉
+     * @param task 放不进任务队列的任务
+     * @param executor 拒绝这个任务的执行器
+     */
+    void rejected(Runnable task, SingleThreadEventExecutor executor);
+}
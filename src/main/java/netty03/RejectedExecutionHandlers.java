@@ -0,0 +1,122 @@
+package netty03;
+
+import netty05.Promise;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 常用的几种拒绝策略：直接抛出异常、由提交任务的线程自己执行、丢弃并计数、退避之后重试
+ */
+public final class RejectedExecutionHandlers {
+
+    private static final RejectedExecutionHandler REJECT = new RejectedExecutionHandler() {
+        @Override
+        public void rejected(Runnable task, SingleThreadEventExecutor executor) {
+            throw new RejectedExecutionException("event executor task queue is full");
+        }
+    };
+
+    private static final RejectedExecutionHandler CALLER_RUNS = new RejectedExecutionHandler() {
+        @Override
+        public void rejected(Runnable task, SingleThreadEventExecutor executor) {
+            //执行器自己的线程提交任务时队列满了，就地执行会打乱任务的顺序，还可能一层层递归下去，只能抛出异常
+            if (executor.inEventLoop(Thread.currentThread())) {
+                throw new RejectedExecutionException("event executor task queue is full");
+            }
+            //外部线程自己执行任务，顺便降低了它提交任务的速度
+            task.run();
+        }
+    };
+
+    private RejectedExecutionHandlers() {
+    }
+
+    /**
+     * 直接抛出 RejectedExecutionException，这是执行器默认的拒绝策略
+     */
+    public static RejectedExecutionHandler reject() {
+        return REJECT;
+    }
+
+    /**
+     * 由提交任务的线程自己执行任务。注意任务不再在执行器的线程中执行了，任务中不能有依赖执行器线程的操作；
+     * 如果提交任务的就是执行器自己的线程，还是抛出异常
+     */
+    public static RejectedExecutionHandler callerRuns() {
+        return CALLER_RUNS;
+    }
+
+    /**
+     * 悄悄地丢弃任务，只记录丢弃的数量。通过submit提交的任务会以 RejectedExecutionException 失败，不会让等待结果的线程一直阻塞。
+     * 每次调用返回一个新的实例，计数互不影响
+     */
+    public static Discard discard() {
+        return new Discard();
+    }
+
+    /**
+     * 外部线程提交任务时队列满了，就唤醒执行器，等待一段时间之后重试，最多重试retries次，还是放不进去就抛出异常。
+     * 执行器自己的线程等待也没用，队列不会变空，所以直接抛出异常
+     */
+    public static RejectedExecutionHandler backoff(final int retries, long backoffAmount, TimeUnit unit) {
+        if (retries <= 0) {
+            throw new IllegalArgumentException("retries: " + retries + " (expected: > 0)");
+        }
+        if (backoffAmount <= 0) {
+            throw new IllegalArgumentException("backoffAmount: " + backoffAmount + " (expected: > 0)");
+        }
+        final long backOffNanos = unit.toNanos(backoffAmount);
+        return new RejectedExecutionHandler() {
+            @Override
+            public void rejected(Runnable task, SingleThreadEventExecutor executor) {
+                if (!executor.inEventLoop(Thread.currentThread())) {
+                    for (int i = 0; i < retries; i++) {
+                        //执行器的线程可能阻塞在selector上，先把它叫醒，让它尽快把队列中的任务消费掉
+                        executor.wakeup(false);
+                        LockSupport.parkNanos(backOffNanos);
+                        if (executor.isShutdown()) {
+                            break;
+                        }
+                        if (executor.offerTask(task)) {
+                            return;
+                        }
+                    }
+                }
+                throw new RejectedExecutionException("event executor task queue is full");
+            }
+        };
+    }
+
+    /**
+     * 丢弃任务并计数的拒绝策略，可以通过 discardedTasks 监控执行器是否过载
+     */
+    public static final class Discard implements RejectedExecutionHandler {
+
+        //多个线程可能同时被拒绝，用LongAdder计数，避免在同一个变量上竞争
+        private final LongAdder discardedTasks = new LongAdder();
+
+        private Discard() {
+        }
+
+        @Override
+        public void rejected(Runnable task, SingleThreadEventExecutor executor) {
+            //submit提交的任务本身就是Promise，丢掉之后它永远不会完成，在上面get、await的线程会一直等下去，所以先让它失败
+            if (task instanceof Promise) {
+                ((Promise<?>) task).tryFailure(new RejectedExecutionException("event executor task queue is full"));
+            }
+            discardedTasks.increment();
+        }
+
+        /**
+         * 到目前为止丢弃的任务数量
+         */
+        public long discardedTasks() {
+            return discardedTasks.sum();
+        }
+    }
+}
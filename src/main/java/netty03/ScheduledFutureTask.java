@@ -0,0 +1,132 @@
+package netty03;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 定时任务，存放在单线程执行器的定时任务队列中。定时任务队列是一个优先级队列，
+ * 截止时间越早的任务越靠前，截止时间相同就按照创建的顺序排列。
+ * 定时任务队列只会被执行器自己的线程访问，所以这个类中的属性都不需要考虑并发问题
+ */
+final class ScheduledFutureTask<V> extends FutureTask<V> implements ScheduledFuture<V> {
+
+    private static final AtomicLong nextTaskId = new AtomicLong();
+
+    //以类加载的时间作为起点，所有定时任务的截止时间都是相对这个时间计算的
+    private static final long START_TIME = System.nanoTime();
+
+    static long nanoTime() {
+        return System.nanoTime() - START_TIME;
+    }
+
+    static long deadlineNanos(long delay) {
+        long deadlineNanos = nanoTime() + delay;
+        //防止溢出
+        return deadlineNanos < 0 ? Long.MAX_VALUE : deadlineNanos;
+    }
+
+    //截止时间相同时，用id保证先创建的任务先执行
+    private final long id = nextTaskId.getAndIncrement();
+
+    private final SingleThreadEventExecutor executor;
+
+    private long deadlineNanos;
+
+    //0表示只执行一次，大于0表示以固定的频率执行，小于0表示以固定的延迟执行
+    private final long periodNanos;
+
+    ScheduledFutureTask(SingleThreadEventExecutor executor, Runnable runnable, V result, long nanoTime) {
+        this(executor, runnable, result, nanoTime, 0);
+    }
+
+    ScheduledFutureTask(SingleThreadEventExecutor executor, Runnable runnable, V result, long nanoTime, long period) {
+        super(runnable, result);
+        this.executor = executor;
+        this.deadlineNanos = nanoTime;
+        this.periodNanos = period;
+    }
+
+    ScheduledFutureTask(SingleThreadEventExecutor executor, Callable<V> callable, long nanoTime) {
+        super(callable);
+        this.executor = executor;
+        this.deadlineNanos = nanoTime;
+        this.periodNanos = 0;
+    }
+
+    public long deadlineNanos() {
+        return deadlineNanos;
+    }
+
+    public long delayNanos() {
+        return Math.max(0, deadlineNanos() - nanoTime());
+    }
+
+    /**
+     * @param currentTimeNanos 调用 System.nanoTime() 得到的时间
+     */
+    public long delayNanos(long currentTimeNanos) {
+        return Math.max(0, deadlineNanos() - (currentTimeNanos - START_TIME));
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(delayNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+        if (this == o) {
+            return 0;
+        }
+        ScheduledFutureTask<?> that = (ScheduledFutureTask<?>) o;
+        long d = deadlineNanos() - that.deadlineNanos();
+        if (d < 0) {
+            return -1;
+        } else if (d > 0) {
+            return 1;
+        } else if (id < that.id) {
+            return -1;
+        } else {
+            return 1;
+        }
+    }
+
+    @Override
+    public void run() {
+        //只执行一次的任务
+        if (periodNanos == 0) {
+            super.run();
+            return;
+        }
+        //周期性的任务，runAndReset执行完之后不会设置结果，任务可以被再次执行
+        if (runAndReset()) {
+            if (periodNanos > 0) {
+                //固定频率，下一次的截止时间是在这一次截止时间的基础上加上周期
+                deadlineNanos += periodNanos;
+            } else {
+                //固定延迟，下一次的截止时间是从现在开始再延迟一段时间
+                deadlineNanos = nanoTime() - periodNanos;
+            }
+            if (!isCancelled()) {
+                //重新放回定时任务队列，当前就在执行器的线程中，可以直接操作队列
+                executor.scheduledTaskQueue().add(this);
+            }
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean canceled = super.cancel(mayInterruptIfRunning);
+        //取消成功之后，把任务从定时任务队列中删除，否则要等到截止时间才会被移除
+        if (canceled) {
+            executor.removeScheduled(this);
+        }
+        return canceled;
+    }
+}
@@ -0,0 +1,94 @@
+package netty03;
+
+import java.nio.channels.SelectionKey;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 用数组实现的就绪事件集合，用来替换 selector 内部的 HashSet。
+ * selector 每次把就绪的 key 放进集合时调用的是 add 方法，这里只是把 key 追加到数组末尾，
+ * 不需要计算哈希值，也不需要创建 HashMap 的节点。NioEventLoop 处理就绪事件时直接按下标遍历数组，
+ * 不用再创建迭代器、调用 remove 方法。
+ * 同一个 key 在一次 select 中只会被添加一次，所以这里不需要去重，remove 和 contains 也用不到
+ */
+final class SelectedSelectionKeySet extends AbstractSet<SelectionKey> {
+
+    SelectionKey[] keys;
+
+    int size;
+
+    SelectedSelectionKeySet() {
+        keys = new SelectionKey[1024];
+    }
+
+    @Override
+    public boolean add(SelectionKey o) {
+        if (o == null) {
+            return false;
+        }
+        keys[size++] = o;
+        //数组满了就扩容为原来的两倍
+        if (size == keys.length) {
+            increaseCapacity();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+            private int idx;
+
+            @Override
+            public boolean hasNext() {
+                return idx < size;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return keys[idx++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * 清空集合，把数组中从start开始的元素置为null，方便垃圾回收
+     */
+    void reset(int start) {
+        Arrays.fill(keys, start, size, null);
+        size = 0;
+    }
+
+    private void increaseCapacity() {
+        SelectionKey[] newKeys = new SelectionKey[keys.length << 1];
+        System.arraycopy(keys, 0, newKeys, 0, size);
+        keys = newKeys;
+    }
+}
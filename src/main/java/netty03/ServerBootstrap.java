@@ -0,0 +1,113 @@
+package netty03;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 启动服务端的辅助类。服务端 channel 注册到 boss 组上，它的 pipeline 中有一个 ServerBootstrapAcceptor，
+ * 接收到的客户端 channel 从这里添加 childHandler，再注册到 worker 组中的某一个 NioEventLoop 上
+ */
+public class ServerBootstrap {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerBootstrap.class);
+
+    private NioEventLoopGroup group;
+
+    private NioEventLoopGroup childGroup;
+
+    private ChannelHandler handler;
+
+    private ChannelHandler childHandler;
+
+    public ServerBootstrap group(NioEventLoopGroup parentGroup, NioEventLoopGroup childGroup) {
+        if (parentGroup == null) {
+            throw new NullPointerException("parentGroup");
+        }
+        if (childGroup == null) {
+            throw new NullPointerException("childGroup");
+        }
+        this.group = parentGroup;
+        this.childGroup = childGroup;
+        return this;
+    }
+
+    /**
+     * 添加到服务端channel的处理器
+     */
+    public ServerBootstrap handler(ChannelHandler handler) {
+        this.handler = handler;
+        return this;
+    }
+
+    /**
+     * 添加到每一个客户端channel的处理器，一般是ChannelInitializer
+     */
+    public ServerBootstrap childHandler(ChannelHandler childHandler) {
+        if (childHandler == null) {
+            throw new NullPointerException("childHandler");
+        }
+        this.childHandler = childHandler;
+        return this;
+    }
+
+    public NioServerSocketChannel bind(int inetPort) throws IOException {
+        return bind(new InetSocketAddress(inetPort));
+    }
+
+    /**
+     * 在调用者的线程中绑定端口，然后把服务端channel注册到boss组上，之后接收连接都由boss线程完成
+     */
+    public NioServerSocketChannel bind(SocketAddress localAddress) throws IOException {
+        if (group == null) {
+            throw new IllegalStateException("group not set");
+        }
+        if (childHandler == null) {
+            throw new IllegalStateException("childHandler not set");
+        }
+        NioServerSocketChannel channel = new NioServerSocketChannel();
+        try {
+            channel.bind(localAddress);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        ChannelPipeline p = channel.pipeline();
+        if (handler != null) {
+            p.addLast(handler);
+        }
+        p.addLast(new ServerBootstrapAcceptor(childGroup, childHandler));
+        group.register(channel);
+        return channel;
+    }
+
+    private static class ServerBootstrapAcceptor extends ChannelInboundHandlerAdapter {
+
+        private final NioEventLoopGroup childGroup;
+
+        private final ChannelHandler childHandler;
+
+        ServerBootstrapAcceptor(NioEventLoopGroup childGroup, ChannelHandler childHandler) {
+            this.childGroup = childGroup;
+            this.childHandler = childHandler;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            final Channel child = (Channel) msg;
+            child.pipeline().addLast(childHandler);
+            try {
+                //把客户端的channel交给worker线程
+                childGroup.register(child);
+            } catch (Throwable t) {
+                logger.warn("Failed to register an accepted channel: {}", child, t);
+                child.unsafe().close();
+            }
+        }
+    }
+}
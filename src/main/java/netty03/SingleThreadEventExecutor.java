@@ -1,14 +1,22 @@
 package netty03;
 
-import com.sun.org.glassfish.gmbal.Description;
+import netty05.BlockingOperationException;
+import netty05.DefaultPromise;
+import netty05.Promise;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * @author Joe Lee
@@ -20,86 +28,554 @@ public abstract class  SingleThreadEventExecutor implements Executor {
 
     private static final Logger logger = LoggerFactory.getLogger(SingleThreadEventExecutor.class);
 
-    //任务队列的容量，默认是Integer的最大值
-    protected static final int DEFAULT_MAX_PENDING_TASKS = Integer.MAX_VALUE;
+    //任务队列的容量，默认是Integer的最大值，也就是不限制。
+    //可以通过启动参数 -Dio.netty.eventexecutor.maxPendingTasks 配置，最小是16
+    protected static final int DEFAULT_MAX_PENDING_TASKS =
+            Math.max(16, Integer.getInteger("io.netty.eventexecutor.maxPendingTasks", Integer.MAX_VALUE));
+
+    //记录执行器的线程属于哪一个执行器，只有执行器自己的线程才会设置该值
+    private static final ThreadLocal<SingleThreadEventExecutor> CURRENT_EXECUTOR = new ThreadLocal<SingleThreadEventExecutor>();
+
+    //没有定时任务时，selector最多阻塞的时间
+    private static final long SCHEDULE_PURGE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    //执行器的状态，只能从小往大变化
+    private static final int ST_NOT_STARTED = 1;
+    private static final int ST_STARTED = 2;
+    //正在优雅关闭，还会执行新提交的任务，直到静默期内没有新任务
+    private static final int ST_SHUTTING_DOWN = 3;
+    //不再接收新任务，只把队列中剩下的任务执行完
+    private static final int ST_SHUTDOWN = 4;
+    private static final int ST_TERMINATED = 5;
+
+    private static final AtomicIntegerFieldUpdater<SingleThreadEventExecutor> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(SingleThreadEventExecutor.class, "state");
+
+    private static final AtomicIntegerFieldUpdater<SingleThreadEventExecutor> PENDING_TASKS_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(SingleThreadEventExecutor.class, "pendingTaskCount");
+
+    //优雅关闭时的默认静默期和超时时间，单位是秒
+    static final long DEFAULT_SHUTDOWN_QUIET_PERIOD = 2;
+    static final long DEFAULT_SHUTDOWN_TIMEOUT = 15;
+
+    //关闭的时候放进任务队列，让阻塞在selector上的线程醒过来检查状态，本身什么也不做
+    private static final Runnable WAKEUP_TASK = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
 
     private final Queue<Runnable> taskQueue;
 
+    //定时任务队列，第一次添加定时任务的时候才创建
+    private PriorityQueue<ScheduledFutureTask<?>> scheduledTaskQueue;
+
     private final RejectedExecutionHandler rejectedExecutionHandler;
 
-    private volatile boolean start = false;
+    //外部提交的任务最多能积压多少个，为Integer.MAX_VALUE时不限制，也不计数
+    private final int maxPendingTasks;
+
+    //限制了maxPendingTasks时，任务队列中还没有执行的任务数量，框架内部的任务也算在里面
+    private volatile int pendingTaskCount;
+
+    private volatile int state = ST_NOT_STARTED;
+
+    //下面三个属性由发起关闭的线程写入，执行器的线程在confirmShutdown中读取
+    private volatile long gracefulShutdownQuietPeriod;
+
+    private volatile long gracefulShutdownTimeout;
+
+    private long gracefulShutdownStartTime;
+
+    //最近一次执行任务的时间，只由执行器的线程访问
+    private long lastExecutionTime;
+
+    //执行器的线程结束之后完成。执行器自己已经不能再执行任务了，所以监听器在完成它的线程中直接通知
+    private final Promise<Void> terminationFuture = new DefaultPromise<Void>((SingleThreadEventExecutor) null);
 
-    private Thread thread;
+    //执行器的线程由新线程自己赋值，其他线程会在inEventLoop中读取，所以要用volatile修饰
+    private volatile Thread thread;
 
     public SingleThreadEventExecutor() {
-        this.taskQueue = newTaskQueue(DEFAULT_MAX_PENDING_TASKS);
-        this.rejectedExecutionHandler = new ThreadPoolExecutor.AbortPolicy();
+        this(DEFAULT_MAX_PENDING_TASKS, RejectedExecutionHandlers.reject());
     }
 
-    protected Queue<Runnable> newTaskQueue(int maxPendingTasks) {
-        return new LinkedBlockingQueue<Runnable>(maxPendingTasks);
+    /**
+     * @param maxPendingTasks 任务队列中最多能积压多少个任务，超过之后外部通过execute、submit提交的任务交给拒绝策略处理。
+     *                        框架内部的任务（注册channel、flush、通知监听器等）不受这个限制
+     * @param rejectedExecutionHandler 任务队列满了的时候使用的拒绝策略
+     */
+    public SingleThreadEventExecutor(int maxPendingTasks, RejectedExecutionHandler rejectedExecutionHandler) {
+        if (maxPendingTasks <= 0) {
+            throw new IllegalArgumentException("maxPendingTasks: " + maxPendingTasks + " (expected: > 0)");
+        }
+        if (rejectedExecutionHandler == null) {
+            throw new NullPointerException("rejectedExecutionHandler");
+        }
+        this.taskQueue = newTaskQueue();
+        this.rejectedExecutionHandler = rejectedExecutionHandler;
+        this.maxPendingTasks = maxPendingTasks;
+    }
+
+    /**
+     * 创建任务队列。单线程执行器是多个线程提交任务、只有一个线程消费任务的场景，所以默认使用无锁的 MpscLinkedQueue，
+     * 提交任务时不用再像 LinkedBlockingQueue 那样加锁。子类可以重写该方法，换成别的队列，但必须是无界队列：
+     * 框架内部的任务一定要能放进去，外部任务的数量由 maxPendingTasks 计数来限制
+     */
+    protected Queue<Runnable> newTaskQueue() {
+        return new MpscLinkedQueue<Runnable>();
+    }
+
+    /**
+     * 任务队列中还没有执行的任务数量，只是一个大概的值，可以用来监控执行器是否过载
+     */
+    public int pendingTasks() {
+        if (maxPendingTasks == Integer.MAX_VALUE) {
+            return taskQueue.size();
+        }
+        return pendingTaskCount;
     }
 
     @Override
     public void execute(Runnable task) {
+        execute(task, true, false);
+    }
+
+    /**
+     * 提交一个对延迟不敏感的任务，和execute不同的是，这里不会唤醒阻塞在selector上的线程，
+     * 任务会在执行器线程下一次醒来的时候被执行，这样可以省掉一次 wakeup 系统调用
+     */
+    public void lazyExecute(Runnable task) {
+        execute(task, false, false);
+    }
+
+    /**
+     * 提交框架内部的任务，比如注册channel、flush、在事件循环中回调处理器、通知监听器。
+     * 这些任务丢掉或者换一个线程执行都会破坏channel的状态，所以不受 maxPendingTasks 的限制，也不交给拒绝策略，
+     * 只有执行器关闭之后才会被拒绝。用户自己的任务应该用execute提交
+     */
+    public void executeInternal(Runnable task) {
+        execute(task, true, true);
+    }
+
+    private void execute(Runnable task, boolean immediate, boolean internal) {
         if (task == null) {
             throw new NullPointerException("task");
         }
+        boolean inEventLoop = inEventLoop(Thread.currentThread());
         //把任务提交到任务队列中
-        addTask(task);
+        addTask(task, internal);
         //启动单线程执行器中的线程
         startThread();
+        //如果是外部线程提交的任务，执行器的线程可能正阻塞在selector上，要把它唤醒，任务才能被及时执行
+        if (immediate && !inEventLoop) {
+            wakeup(inEventLoop);
+        }
+    }
+
+    /**
+     * 创建一个在这个执行器中通知监听器的Promise，由调用者设置结果
+     */
+    public <V> Promise<V> newPromise() {
+        return new DefaultPromise<V>(this);
+    }
+
+    /**
+     * 提交一个有返回值的任务，返回的Promise在这个执行器中通知监听器。
+     * Promise本身就是Runnable，直接放进任务队列，不用再包装一层
+     */
+    public <V> Promise<V> submit(Callable<V> task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        Promise<V> promise = new DefaultPromise<V>(this, task);
+        execute(promise);
+        return promise;
+    }
+
+    public Promise<?> submit(Runnable task) {
+        return submit(task, null);
     }
 
-    private void addTask(Runnable task) {
+    /**
+     * 任务执行成功之后，以result作为Promise的结果
+     */
+    public <V> Promise<V> submit(Runnable task, V result) {
         if (task == null) {
             throw new NullPointerException("task");
         }
-        //如果添加失败，执行拒绝策略
-        if (!offerTask(task)) {
+        Promise<V> promise = new DefaultPromise<V>(this, task, result);
+        execute(promise);
+        return promise;
+    }
+
+    /**
+     * 提交所有的任务，等待它们全部完成之后返回。在执行器自己的线程中调用会永远等不到结果，所以直接抛出异常
+     */
+    public <V> List<Promise<V>> invokeAll(Collection<? extends Callable<V>> tasks) throws InterruptedException {
+        if (tasks == null) {
+            throw new NullPointerException("tasks");
+        }
+        if (inEventLoop(Thread.currentThread())) {
+            throw new BlockingOperationException("invokeAll() called from the event loop: " + this);
+        }
+        List<Promise<V>> promises = new ArrayList<Promise<V>>(tasks.size());
+        for (Callable<V> task : tasks) {
+            promises.add(submit(task));
+        }
+        boolean done = false;
+        try {
+            for (Promise<V> promise : promises) {
+                promise.await();
+            }
+            done = true;
+            return promises;
+        } finally {
+            //被中断了，还没有开始执行的任务就不用执行了
+            if (!done) {
+                for (Promise<V> promise : promises) {
+                    promise.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 唤醒执行器的线程，这里什么也不做，由持有selector的子类来实现
+     */
+    protected void wakeup(boolean inEventLoop) {
+    }
+
+    private void addTask(Runnable task, boolean internal) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        if (isShutdown()) {
+            //已经关闭了，不再接收新任务
+            reject(task);
+        } else if (internal) {
+            if (!offerInternalTask(task)) {
+                throw new RejectedExecutionException("event executor task queue is full");
+            }
+        } else if (!offerTask(task)) {
+            //外部任务超过了maxPendingTasks，执行拒绝策略
             reject(task);
         }
     }
 
     private void startThread() {
-        if (start) {
-            return;
+        //现在会有多个线程同时向执行器提交任务，必须用CAS保证线程只被启动一次
+        if (state == ST_NOT_STARTED && STATE_UPDATER.compareAndSet(this, ST_NOT_STARTED, ST_STARTED)) {
+            doStartThread();
         }
-        start = true;
+    }
+
+    private void doStartThread() {
         new Thread(new Runnable() {
             @Override
             public void run() {
                 //这里得到了新创建的线程
                 thread = Thread.currentThread();
-                //执行run方法，在run方法中，就是对io事件的处理
-                SingleThreadEventExecutor.this.run();
+                CURRENT_EXECUTOR.set(SingleThreadEventExecutor.this);
+                lastExecutionTime = ScheduledFutureTask.nanoTime();
+                try {
+                    //执行run方法，在run方法中，就是对io事件的处理，直到执行器被关闭才会返回
+                    SingleThreadEventExecutor.this.run();
+                } catch (Throwable t) {
+                    logger.warn("Unexpected exception from an event executor: ", t);
+                } finally {
+                    shutdownAndTerminate();
+                }
             }
         }).start();
         logger.info("新线程创建了！");
     }
 
+    /**
+     * run方法返回之后，在执行器的线程中完成关闭：执行完剩下的任务，释放资源，最后完成terminationFuture
+     */
+    private void shutdownAndTerminate() {
+        //run方法因为异常返回的时候状态还没有变，也要进入关闭流程
+        for (;;) {
+            int oldState = state;
+            if (oldState >= ST_SHUTTING_DOWN || STATE_UPDATER.compareAndSet(this, oldState, ST_SHUTTING_DOWN)) {
+                break;
+            }
+        }
+        try {
+            //静默期内还可能有新任务提交进来，一直执行到静默期内没有新任务为止
+            for (;;) {
+                if (confirmShutdown()) {
+                    break;
+                }
+            }
+            //之后提交的任务都会被拒绝，再把队列中剩下的任务执行一遍
+            for (;;) {
+                int oldState = state;
+                if (oldState >= ST_SHUTDOWN || STATE_UPDATER.compareAndSet(this, oldState, ST_SHUTDOWN)) {
+                    break;
+                }
+            }
+            confirmShutdown();
+        } finally {
+            try {
+                cleanup();
+            } finally {
+                STATE_UPDATER.set(this, ST_TERMINATED);
+                CURRENT_EXECUTOR.remove();
+                if (!taskQueue.isEmpty()) {
+                    logger.warn("An event executor terminated with non-empty task queue ({})", taskQueue.size());
+                }
+                terminationFuture.setSuccess(null);
+            }
+        }
+    }
+
+    /**
+     * 执行器的线程结束之前调用，子类在这里释放自己持有的资源，比如关闭selector
+     */
+    protected void cleanup() {
+    }
+
+    /**
+     * 使用默认的静默期2秒和超时时间15秒优雅关闭
+     */
+    public Promise<Void> shutdownGracefully() {
+        return shutdownGracefully(DEFAULT_SHUTDOWN_QUIET_PERIOD, DEFAULT_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 优雅地关闭执行器。执行器会继续执行任务，直到连续quietPeriod的时间内都没有新任务提交进来，
+     * 但是从开始关闭算起最多只等待timeout的时间。然后关闭所有的channel和selector，线程结束，完成terminationFuture
+     * @return terminationFuture
+     */
+    public Promise<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        if (quietPeriod < 0) {
+            throw new IllegalArgumentException("quietPeriod: " + quietPeriod + " (expected >= 0)");
+        }
+        if (timeout < quietPeriod) {
+            throw new IllegalArgumentException(
+                    "timeout: " + timeout + " (expected >= quietPeriod (" + quietPeriod + "))");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        if (isShuttingDown()) {
+            return terminationFuture();
+        }
+        //先设置参数再修改状态，执行器的线程看到状态变化的时候一定也能看到参数
+        gracefulShutdownQuietPeriod = unit.toNanos(quietPeriod);
+        gracefulShutdownTimeout = unit.toNanos(timeout);
+        int oldState;
+        for (;;) {
+            oldState = state;
+            if (oldState >= ST_SHUTTING_DOWN) {
+                return terminationFuture();
+            }
+            if (STATE_UPDATER.compareAndSet(this, oldState, ST_SHUTTING_DOWN)) {
+                break;
+            }
+        }
+        if (oldState == ST_NOT_STARTED) {
+            //线程还没有启动过，也要启动它来完成关闭的流程
+            doStartThread();
+        } else {
+            boolean inEventLoop = inEventLoop(Thread.currentThread());
+            taskQueue.offer(WAKEUP_TASK);
+            wakeup(inEventLoop);
+        }
+        return terminationFuture();
+    }
+
+    /**
+     * 执行器的线程结束之后完成
+     */
+    public Promise<Void> terminationFuture() {
+        return terminationFuture;
+    }
+
+    public boolean isShuttingDown() {
+        return state >= ST_SHUTTING_DOWN;
+    }
+
+    public boolean isShutdown() {
+        return state >= ST_SHUTDOWN;
+    }
+
+    public boolean isTerminated() {
+        return state == ST_TERMINATED;
+    }
+
+    /**
+     * 阻塞等待执行器的线程结束
+     * @return 在超时之前结束了返回true
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (inEventLoop(Thread.currentThread())) {
+            throw new IllegalStateException("cannot await termination of the current thread");
+        }
+        return terminationFuture.await(timeout, unit);
+    }
+
+    /**
+     * 在执行器的线程中调用，判断能不能结束了。正在关闭时先取消所有的定时任务，再执行任务队列中的任务：
+     * 执行了任务说明还有人在提交任务，要继续等；静默期内都没有新任务，或者超过了关闭的超时时间，就可以结束了
+     * @return 可以结束run方法的时候返回true
+     */
+    protected boolean confirmShutdown() {
+        if (!isShuttingDown()) {
+            return false;
+        }
+        if (!inEventLoop(Thread.currentThread())) {
+            throw new IllegalStateException("must be invoked from an event loop");
+        }
+        cancelScheduledTasks();
+        if (gracefulShutdownStartTime == 0) {
+            gracefulShutdownStartTime = ScheduledFutureTask.nanoTime();
+        }
+        if (runAllTasks()) {
+            if (isShutdown()) {
+                //已经不接收新任务了，执行完就可以结束
+                return true;
+            }
+            if (gracefulShutdownQuietPeriod == 0) {
+                return true;
+            }
+            //刚执行过任务，静默期要从现在重新算起
+            taskQueue.offer(WAKEUP_TASK);
+            return false;
+        }
+        final long nanoTime = ScheduledFutureTask.nanoTime();
+        if (isShutdown() || nanoTime - gracefulShutdownStartTime > gracefulShutdownTimeout) {
+            return true;
+        }
+        if (nanoTime - lastExecutionTime <= gracefulShutdownQuietPeriod) {
+            //静默期还没有过完，每100毫秒检查一次有没有新任务
+            taskQueue.offer(WAKEUP_TASK);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                // 忽略
+            }
+            return false;
+        }
+        //静默期内没有新任务，可以结束了
+        return true;
+    }
+
+    /**
+     * 关闭的时候取消所有还没有到期的定时任务
+     */
+    private void cancelScheduledTasks() {
+        PriorityQueue<ScheduledFutureTask<?>> scheduledTaskQueue = this.scheduledTaskQueue;
+        if (scheduledTaskQueue == null || scheduledTaskQueue.isEmpty()) {
+            return;
+        }
+        ScheduledFutureTask<?>[] scheduledTasks =
+                scheduledTaskQueue.toArray(new ScheduledFutureTask<?>[scheduledTaskQueue.size()]);
+        scheduledTaskQueue.clear();
+        for (ScheduledFutureTask<?> task : scheduledTasks) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * 放入一个外部提交的任务，积压的任务已经达到maxPendingTasks时返回false
+     */
     final boolean offerTask(Runnable task) {
-        return taskQueue.offer(task);
+        if (maxPendingTasks != Integer.MAX_VALUE) {
+            for (;;) {
+                int pending = pendingTaskCount;
+                if (pending >= maxPendingTasks) {
+                    return false;
+                }
+                if (PENDING_TASKS_UPDATER.compareAndSet(this, pending, pending + 1)) {
+                    break;
+                }
+            }
+        }
+        return offer(task);
+    }
+
+    /**
+     * 放入一个框架内部的任务，只计数，不检查maxPendingTasks
+     */
+    private boolean offerInternalTask(Runnable task) {
+        if (maxPendingTasks != Integer.MAX_VALUE) {
+            PENDING_TASKS_UPDATER.incrementAndGet(this);
+        }
+        return offer(task);
+    }
+
+    private boolean offer(Runnable task) {
+        if (taskQueue.offer(task)) {
+            return true;
+        }
+        //子类换成了有界队列才会走到这里，计数要还原
+        if (maxPendingTasks != Integer.MAX_VALUE) {
+            PENDING_TASKS_UPDATER.decrementAndGet(this);
+        }
+        return false;
     }
 
     // 判断任务队列中是否有任务
     protected boolean hasTasks() {
-        logger.info("我没任务了！");
         return !taskQueue.isEmpty();
     }
 
     /**
      * 执行任务队列中的所有任务
      */
-    protected void runAllTasks() {
-        runAllTasksFrom(taskQueue);
+    protected boolean runAllTasks() {
+        //先把到期的定时任务转移到任务队列中
+        fetchFromScheduledTaskQueue();
+        boolean ranAtLeastOne = runAllTasksFrom(taskQueue);
+        if (ranAtLeastOne) {
+            lastExecutionTime = ScheduledFutureTask.nanoTime();
+        }
+        return ranAtLeastOne;
     }
 
-    protected void runAllTasksFrom(Queue<Runnable> taskQueue) {
+    /**
+     * 在限定的时间内执行任务队列中的任务，超过时间就算任务没有执行完也要返回，剩下的任务等下一轮再执行，
+     * 这样执行器的线程就不会因为任务太多而迟迟不去处理IO事件。
+     * System.nanoTime() 也是有开销的，所以每执行64个任务才检查一次是否超时
+     * @return 如果至少执行了一个任务就返回true
+     */
+    protected boolean runAllTasks(long timeoutNanos) {
+        fetchFromScheduledTaskQueue();
+        Runnable task = pollTaskFrom(taskQueue);
+        if (task == null) {
+            return false;
+        }
+        final long deadline = System.nanoTime() + timeoutNanos;
+        long runTasks = 0;
+        for (;;) {
+            safeExecute(task);
+            runTasks ++;
+            //64的二进制是1000000，runTasks & 0x3F 等于0，说明又执行了64个任务
+            if ((runTasks & 0x3F) == 0) {
+                if (System.nanoTime() - deadline >= 0) {
+                    break;
+                }
+            }
+            task = pollTaskFrom(taskQueue);
+            if (task == null) {
+                break;
+            }
+        }
+        lastExecutionTime = ScheduledFutureTask.nanoTime();
+        return true;
+    }
+
+    /**
+     * @return 如果至少执行了一个任务就返回true
+     */
+    protected boolean runAllTasksFrom(Queue<Runnable> taskQueue) {
         //从任务对立中拉取任务,如果第一次拉取就为null，说明任务队列中没有任务，直接返回即可
         Runnable task = pollTaskFrom(taskQueue);
         if (task == null) {
-            return;
+            return false;
         }
         for (;;) {
             //执行任务队列中的任务
@@ -107,7 +583,7 @@ public abstract class  SingleThreadEventExecutor implements Executor {
             //执行完毕之后，拉取下一个任务，如果为null就直接返回
             task = pollTaskFrom(taskQueue);
             if (task == null) {
-                return;
+                return true;
             }
         }
     }
@@ -120,8 +596,192 @@ public abstract class  SingleThreadEventExecutor implements Executor {
         }
     }
 
-    protected static Runnable pollTaskFrom(Queue<Runnable> taskQueue) {
-        return taskQueue.poll();
+    protected final Runnable pollTaskFrom(Queue<Runnable> taskQueue) {
+        //WAKEUP_TASK只是为了让线程醒过来，不算作任务，也没有被计数
+        for (;;) {
+            Runnable task = taskQueue.poll();
+            if (task != WAKEUP_TASK) {
+                if (task != null && taskQueue == this.taskQueue && maxPendingTasks != Integer.MAX_VALUE) {
+                    PENDING_TASKS_UPDATER.decrementAndGet(this);
+                }
+                return task;
+            }
+        }
+    }
+
+    /**
+     * 得到定时任务队列，定时任务队列只会被执行器的线程访问，所以用普通的优先级队列就可以了
+     */
+    PriorityQueue<ScheduledFutureTask<?>> scheduledTaskQueue() {
+        if (scheduledTaskQueue == null) {
+            scheduledTaskQueue = new PriorityQueue<ScheduledFutureTask<?>>();
+        }
+        return scheduledTaskQueue;
+    }
+
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        if (command == null) {
+            throw new NullPointerException("command");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        if (delay < 0) {
+            delay = 0;
+        }
+        return schedule(new ScheduledFutureTask<Void>(
+                this, command, null, ScheduledFutureTask.deadlineNanos(unit.toNanos(delay))));
+    }
+
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        if (callable == null) {
+            throw new NullPointerException("callable");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        if (delay < 0) {
+            delay = 0;
+        }
+        return schedule(new ScheduledFutureTask<V>(
+                this, callable, ScheduledFutureTask.deadlineNanos(unit.toNanos(delay))));
+    }
+
+    /**
+     * 以固定的频率执行任务，下一次执行的时间是上一次开始执行的时间加上period
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (command == null) {
+            throw new NullPointerException("command");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException(
+                    String.format("initialDelay: %d (expected: >= 0)", initialDelay));
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("period: %d (expected: > 0)", period));
+        }
+        return schedule(new ScheduledFutureTask<Void>(
+                this, command, null, ScheduledFutureTask.deadlineNanos(unit.toNanos(initialDelay)), unit.toNanos(period)));
+    }
+
+    /**
+     * 以固定的延迟执行任务，下一次执行的时间是上一次执行结束的时间加上delay
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (command == null) {
+            throw new NullPointerException("command");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException(
+                    String.format("initialDelay: %d (expected: >= 0)", initialDelay));
+        }
+        if (delay <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("delay: %d (expected: > 0)", delay));
+        }
+        return schedule(new ScheduledFutureTask<Void>(
+                this, command, null, ScheduledFutureTask.deadlineNanos(unit.toNanos(initialDelay)), -unit.toNanos(delay)));
+    }
+
+    private <V> ScheduledFuture<V> schedule(final ScheduledFutureTask<V> task) {
+        //定时任务队列只能由执行器的线程访问，外部线程要把添加定时任务的操作封装成普通任务提交给执行器。
+        //提交普通任务会唤醒selector，执行器的线程就会根据新的定时任务重新计算阻塞的时间
+        if (inEventLoop(Thread.currentThread())) {
+            scheduledTaskQueue().add(task);
+        } else {
+            executeInternal(new Runnable() {
+                @Override
+                public void run() {
+                    scheduledTaskQueue().add(task);
+                }
+            });
+        }
+        return task;
+    }
+
+    /**
+     * 把被取消的定时任务从定时任务队列中删除
+     */
+    final void removeScheduled(final ScheduledFutureTask<?> task) {
+        if (inEventLoop(Thread.currentThread())) {
+            scheduledTaskQueue().remove(task);
+        } else {
+            //取消任务对延迟不敏感，不需要唤醒selector
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    scheduledTaskQueue().remove(task);
+                }
+            }, false, true);
+        }
+    }
+
+    /**
+     * 取出一个截止时间小于nanoTime的定时任务，如果没有到期的任务就返回null
+     */
+    protected final Runnable pollScheduledTask(long nanoTime) {
+        ScheduledFutureTask<?> scheduledTask = peekScheduledTask();
+        if (scheduledTask == null || scheduledTask.deadlineNanos() - nanoTime > 0) {
+            return null;
+        }
+        scheduledTaskQueue.remove();
+        return scheduledTask;
+    }
+
+    final ScheduledFutureTask<?> peekScheduledTask() {
+        Queue<ScheduledFutureTask<?>> scheduledTaskQueue = this.scheduledTaskQueue;
+        return scheduledTaskQueue != null ? scheduledTaskQueue.peek() : null;
+    }
+
+    protected final boolean hasScheduledTasks() {
+        ScheduledFutureTask<?> scheduledTask = peekScheduledTask();
+        return scheduledTask != null && scheduledTask.deadlineNanos() <= ScheduledFutureTask.nanoTime();
+    }
+
+    /**
+     * 距离最近的一个定时任务到期还有多长时间，如果没有定时任务，就返回1秒。
+     * NioEventLoop 根据这个时间决定 selector 最多阻塞多久
+     * @param currentTimeNanos 调用 System.nanoTime() 得到的时间
+     */
+    protected long delayNanos(long currentTimeNanos) {
+        ScheduledFutureTask<?> scheduledTask = peekScheduledTask();
+        if (scheduledTask == null) {
+            return SCHEDULE_PURGE_INTERVAL;
+        }
+        return scheduledTask.delayNanos(currentTimeNanos);
+    }
+
+    /**
+     * 把所有到期的定时任务转移到任务队列中。任务队列是无界的，定时任务又属于框架内部的任务，不受 maxPendingTasks 限制，
+     * 所以一定能一次全部转移过去
+     */
+    private void fetchFromScheduledTaskQueue() {
+        if (scheduledTaskQueue == null || scheduledTaskQueue.isEmpty()) {
+            return;
+        }
+        long nanoTime = ScheduledFutureTask.nanoTime();
+        for (;;) {
+            Runnable scheduledTask = pollScheduledTask(nanoTime);
+            if (scheduledTask == null) {
+                return;
+            }
+            offerInternalTask(scheduledTask);
+        }
+    }
+
+    /**
+     * 得到当前线程所属的执行器，如果当前线程不是执行器的线程就返回null
+     */
+    static SingleThreadEventExecutor currentExecutor() {
+        return CURRENT_EXECUTOR.get();
     }
 
     /**
@@ -131,8 +791,14 @@ public abstract class  SingleThreadEventExecutor implements Executor {
         return thread == this.thread;
     }
 
+    /**
+     * 执行器已经关闭时直接抛出异常，否则说明外部提交的任务超过了maxPendingTasks，交给拒绝策略处理
+     */
     protected final void reject(Runnable task) {
-        //rejectedExecutionHandler.rejectedExecution(task, this);
+        if (isShutdown()) {
+            throw new RejectedExecutionException("event executor terminated");
+        }
+        rejectedExecutionHandler.rejected(task, this);
     }
 
     protected abstract void run();
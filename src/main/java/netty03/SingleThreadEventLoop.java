@@ -1,10 +1,6 @@
 package netty03;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.nio.channels.SelectionKey;
-import java.nio.channels.SocketChannel;
+import java.nio.channels.Selector;
 
 /**
  * @author Joe Lee
@@ -13,34 +9,26 @@ import java.nio.channels.SocketChannel;
  */
 public abstract class SingleThreadEventLoop extends SingleThreadEventExecutor{
 
-    private static final Logger logger = LoggerFactory.getLogger(SingleThreadEventLoop.class);
-
     public SingleThreadEventLoop() {
 
     }
 
-    public void register(SocketChannel socketChannel, NioEventLoop nioEventLoop) {
-        //如果执行该方法的线程就是执行器中的线程，直接执行方法即可
-        if (inEventLoop(Thread.currentThread())) {
-            register0(socketChannel,nioEventLoop);
-        }else {
-            //在这里，第一次向单线程执行器中提交任务的时候，执行器终于开始执行了,新的线程也开始创建
-            nioEventLoop.execute(new Runnable() {
-                @Override
-                public void run() {
-                    register0(socketChannel,nioEventLoop);
-                    logger.info("客户端的channel已注册到新线程的多路复用器上了！");
-                }
-            });
-        }
+    public SingleThreadEventLoop(int maxPendingTasks, RejectedExecutionHandler rejectedExecutionHandler) {
+        super(maxPendingTasks, rejectedExecutionHandler);
     }
 
-    private void register0(SocketChannel channel,NioEventLoop nioEventLoop) {
-        try {
-            channel.configureBlocking(false);
-            channel.register(nioEventLoop.selector(), SelectionKey.OP_READ);
-        } catch (Exception e) {
-            logger.error(e.getMessage());
+    /**
+     * 得到当前事件循环持有的多路复用器
+     */
+    public abstract Selector selector();
+
+    /**
+     * 把 channel 注册到当前的事件循环上，之后这个 channel 的IO事件和处理器的回调都由这个事件循环的线程执行
+     */
+    public void register(Channel channel) {
+        if (channel == null) {
+            throw new NullPointerException("channel");
         }
+        channel.unsafe().register(this);
     }
 }
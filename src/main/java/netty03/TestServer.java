@@ -1,17 +1,9 @@
 package netty03;
 
-import netty03.SingleThreadEventExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Set;
+import java.nio.charset.Charset;
 
 /**
  * @author Joe Lee
@@ -23,31 +15,43 @@ public class TestServer {
     private static final Logger logger = LoggerFactory.getLogger(TestServer.class);
 
     public static void main(String[] args) throws Exception {
-        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
-        serverSocketChannel.configureBlocking(false);
-        Selector selector = Selector.open();
-        SelectionKey selectionKey = serverSocketChannel.register(selector, 0, serverSocketChannel);
-        selectionKey.interestOps(SelectionKey.OP_ACCEPT);
-        serverSocketChannel.bind(new InetSocketAddress(8080));
-        NioEventLoop nioLoop = new NioEventLoop();
-        while (true) {
-            logger.info("main函数阻塞在这里吧。。。。。。。");
-            selector.select();
-            Set<SelectionKey> selectionKeys = selector.selectedKeys();
-            Iterator<SelectionKey> keyIterator = selectionKeys.iterator();
-            while (keyIterator.hasNext()) {
-                SelectionKey key = keyIterator.next();
-                keyIterator.remove();
-                if (key.isAcceptable()) {
-                    ServerSocketChannel channel = (ServerSocketChannel)key.channel();
-                    //得到客户端的channel
-                    SocketChannel socketChannel = channel.accept();
-                    //把客户端的channel注册到新线程的selector上
-                    nioLoop.register(socketChannel,nioLoop);
-                    //连接成功之后，用客户端的channel写回一条消息
-                    socketChannel.write(ByteBuffer.wrap("服务端发送成功了".getBytes()));
-                }
-            }
-        }
+        //boss组只负责接收连接，一个线程就够了
+        NioEventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        //创建事件循环组，客户端的channel会被轮流分配到组中的各个NioEventLoop上
+        NioEventLoopGroup workerGroup = new NioEventLoopGroup();
+        ServerBootstrap serverBootstrap = new ServerBootstrap();
+        serverBootstrap.group(bossGroup, workerGroup)
+                .childHandler(new ChannelInitializer<NioSocketChannel>() {
+                    @Override
+                    protected void initChannel(NioSocketChannel ch) {
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelActive(ChannelHandlerContext ctx) {
+                                //注册成功之后，由工作线程给客户端写回一条消息，不再占用main线程
+                                ctx.writeAndFlush(Unpooled.copiedBuffer("服务端发送成功了", Charset.defaultCharset()));
+                                ctx.fireChannelActive();
+                            }
+
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                ByteBuf byteBuf = (ByteBuf) msg;
+                                try {
+                                    logger.info("新线程收到客户端发送的数据:{}", byteBuf.toString(Charset.defaultCharset()));
+                                } finally {
+                                    byteBuf.release();
+                                }
+                            }
+
+                            @Override
+                            public void channelInactive(ChannelHandlerContext ctx) {
+                                logger.info("客户端通道要关闭！");
+                                ctx.fireChannelInactive();
+                            }
+                        });
+                    }
+                });
+        //绑定端口并把服务端的channel注册到boss线程上，之后接收连接和分配客户端channel都由boss线程完成，main线程的工作就结束了
+        serverBootstrap.bind(8080);
+        logger.info("服务端启动成功，监听8080端口！");
     }
 }
@@ -0,0 +1,25 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description Timer.newTimeout 返回的句柄，通过它可以查询任务的状态或者取消任务
+ */
+public interface Timeout {
+
+    Timer timer();
+
+    TimerTask task();
+
+    /**
+     * 任务是否已经到期了
+     */
+    boolean isExpired();
+
+    boolean isCancelled();
+
+    /**
+     * 取消任务，如果任务已经到期或者已经被取消了，就返回false
+     */
+    boolean cancel();
+}
@@ -0,0 +1,29 @@
+package netty03;
+
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 在后台线程中执行定时任务的定时器
+ */
+public interface Timer {
+
+    /**
+     * 提交一个定时任务，任务到期之后由定时器的线程执行
+     */
+    Timeout newTimeout(TimerTask task, long delay, TimeUnit unit);
+
+    /**
+     * 提交一个定时任务，任务到期之后交给 executor 执行，比如交给 channel 所在的 NioEventLoop，
+     * 这样任务和channel的IO操作就在同一个线程中了
+     */
+    Timeout newTimeout(TimerTask task, long delay, TimeUnit unit, Executor executor);
+
+    /**
+     * 停止定时器，返回还没有执行的任务
+     */
+    Set<Timeout> stop();
+}
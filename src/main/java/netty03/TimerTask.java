@@ -0,0 +1,14 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 提交给 Timer 的定时任务，到期之后会被执行
+ */
+public interface TimerTask {
+
+    /**
+     * @param timeout 和这个任务关联的 Timeout
+     */
+    void run(Timeout timeout) throws Exception;
+}
@@ -0,0 +1,26 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 帧的长度超过了允许的最大值
+ */
+public class TooLongFrameException extends DecoderException {
+
+    private static final long serialVersionUID = -1995801950698951640L;
+
+    public TooLongFrameException() {
+    }
+
+    public TooLongFrameException(String message) {
+        super(message);
+    }
+
+    public TooLongFrameException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public TooLongFrameException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,57 @@
+package netty03;
+
+import java.nio.charset.Charset;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 创建不池化 ByteBuf 的工具方法
+ */
+public final class Unpooled {
+
+    private static final ByteBufAllocator ALLOC = UnpooledByteBufAllocator.DEFAULT;
+
+    private Unpooled() {
+    }
+
+    public static ByteBuf buffer() {
+        return ALLOC.heapBuffer();
+    }
+
+    public static ByteBuf buffer(int initialCapacity) {
+        return ALLOC.heapBuffer(initialCapacity);
+    }
+
+    public static ByteBuf directBuffer(int initialCapacity) {
+        return ALLOC.directBuffer(initialCapacity);
+    }
+
+    /**
+     * 直接把数组包装成ByteBuf，不拷贝数据，修改ByteBuf就是修改这个数组
+     */
+    public static ByteBuf wrappedBuffer(byte[] array) {
+        return new UnpooledHeapByteBuf(ALLOC, array, array.length);
+    }
+
+    /**
+     * 把多个ByteBuf组合成一个，不拷贝数据，这些ByteBuf的引用计数交给返回的ByteBuf管理
+     */
+    public static ByteBuf wrappedBuffer(ByteBuf... buffers) {
+        if (buffers.length == 1) {
+            return buffers[0].slice().retain();
+        }
+        return new CompositeByteBuf(ALLOC, false, Math.max(buffers.length, CompositeByteBuf.DEFAULT_MAX_COMPONENTS), buffers);
+    }
+
+    public static CompositeByteBuf compositeBuffer() {
+        return ALLOC.compositeBuffer();
+    }
+
+    public static ByteBuf copiedBuffer(byte[] array) {
+        return wrappedBuffer(array.clone());
+    }
+
+    public static ByteBuf copiedBuffer(CharSequence string, Charset charset) {
+        return wrappedBuffer(string.toString().getBytes(charset));
+    }
+}
@@ -0,0 +1,30 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 不池化的分配器，每次都创建新的 byte 数组或者直接内存，适合生命周期很长或者数量很少的 ByteBuf
+ */
+public final class UnpooledByteBufAllocator extends AbstractByteBufAllocator {
+
+    public static final UnpooledByteBufAllocator DEFAULT = new UnpooledByteBufAllocator(false);
+
+    public UnpooledByteBufAllocator(boolean preferDirect) {
+        super(preferDirect);
+    }
+
+    @Override
+    protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+        return new UnpooledHeapByteBuf(this, initialCapacity, maxCapacity);
+    }
+
+    @Override
+    protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+        return new UnpooledDirectByteBuf(this, initialCapacity, maxCapacity);
+    }
+
+    @Override
+    public boolean isDirectBufferPooled() {
+        return false;
+    }
+}
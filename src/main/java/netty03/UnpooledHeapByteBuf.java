@@ -0,0 +1,291 @@
+package netty03;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 不池化的堆内存 ByteBuf，数据存放在一个 byte 数组中，释放之后数组交给GC回收
+ */
+public class UnpooledHeapByteBuf extends AbstractReferenceCountedByteBuf {
+
+    private static final byte[] EMPTY_BYTES = {};
+
+    private final ByteBufAllocator alloc;
+
+    byte[] array;
+
+    //读写channel时使用的ByteBuffer，指向整个数组，不用每次都创建
+    private ByteBuffer tmpNioBuf;
+
+    public UnpooledHeapByteBuf(ByteBufAllocator alloc, int initialCapacity, int maxCapacity) {
+        this(alloc, new byte[initialCapacity], 0, 0, maxCapacity);
+    }
+
+    /**
+     * 直接使用传入的数组，不拷贝
+     */
+    protected UnpooledHeapByteBuf(ByteBufAllocator alloc, byte[] initialArray, int maxCapacity) {
+        this(alloc, initialArray, 0, initialArray.length, maxCapacity);
+    }
+
+    private UnpooledHeapByteBuf(ByteBufAllocator alloc, byte[] initialArray, int readerIndex, int writerIndex,
+                                int maxCapacity) {
+        super(maxCapacity);
+        if (alloc == null) {
+            throw new NullPointerException("alloc");
+        }
+        if (initialArray.length > maxCapacity) {
+            throw new IllegalArgumentException(String.format(
+                    "initialCapacity(%d) > maxCapacity(%d)", initialArray.length, maxCapacity));
+        }
+        this.alloc = alloc;
+        setArray(initialArray);
+        setIndex(readerIndex, writerIndex);
+    }
+
+    private void setArray(byte[] initialArray) {
+        array = initialArray;
+        tmpNioBuf = null;
+    }
+
+    @Override
+    public ByteBufAllocator alloc() {
+        return alloc;
+    }
+
+    @Override
+    public boolean isDirect() {
+        return false;
+    }
+
+    @Override
+    public int capacity() {
+        ensureAccessible();
+        return array.length;
+    }
+
+    @Override
+    public ByteBuf capacity(int newCapacity) {
+        ensureAccessible();
+        if (newCapacity < 0 || newCapacity > maxCapacity()) {
+            throw new IllegalArgumentException("newCapacity: " + newCapacity);
+        }
+        int oldCapacity = array.length;
+        if (newCapacity == oldCapacity) {
+            return this;
+        }
+        byte[] newArray = new byte[newCapacity];
+        System.arraycopy(array, 0, newArray, 0, Math.min(oldCapacity, newCapacity));
+        setArray(newArray);
+        adjustIndexes(newCapacity);
+        return this;
+    }
+
+    @Override
+    public ByteBuf unwrap() {
+        return null;
+    }
+
+    @Override
+    public boolean hasArray() {
+        return true;
+    }
+
+    @Override
+    public byte[] array() {
+        ensureAccessible();
+        return array;
+    }
+
+    @Override
+    public int arrayOffset() {
+        return 0;
+    }
+
+    @Override
+    protected byte _getByte(int index) {
+        return array[index];
+    }
+
+    @Override
+    protected short _getShort(int index) {
+        return (short) (array[index] << 8 | array[index + 1] & 0xFF);
+    }
+
+    @Override
+    protected int _getUnsignedMedium(int index) {
+        return (array[index] & 0xff) << 16 |
+                (array[index + 1] & 0xff) << 8 |
+                array[index + 2] & 0xff;
+    }
+
+    @Override
+    protected int _getInt(int index) {
+        return (array[index] & 0xff) << 24 |
+                (array[index + 1] & 0xff) << 16 |
+                (array[index + 2] & 0xff) << 8 |
+                array[index + 3] & 0xff;
+    }
+
+    @Override
+    protected long _getLong(int index) {
+        return ((long) array[index] & 0xff) << 56 |
+                ((long) array[index + 1] & 0xff) << 48 |
+                ((long) array[index + 2] & 0xff) << 40 |
+                ((long) array[index + 3] & 0xff) << 32 |
+                ((long) array[index + 4] & 0xff) << 24 |
+                ((long) array[index + 5] & 0xff) << 16 |
+                ((long) array[index + 6] & 0xff) << 8 |
+                (long) array[index + 7] & 0xff;
+    }
+
+    @Override
+    protected void _setByte(int index, int value) {
+        array[index] = (byte) value;
+    }
+
+    @Override
+    protected void _setShort(int index, int value) {
+        array[index] = (byte) (value >>> 8);
+        array[index + 1] = (byte) value;
+    }
+
+    @Override
+    protected void _setMedium(int index, int value) {
+        array[index] = (byte) (value >>> 16);
+        array[index + 1] = (byte) (value >>> 8);
+        array[index + 2] = (byte) value;
+    }
+
+    @Override
+    protected void _setInt(int index, int value) {
+        array[index] = (byte) (value >>> 24);
+        array[index + 1] = (byte) (value >>> 16);
+        array[index + 2] = (byte) (value >>> 8);
+        array[index + 3] = (byte) value;
+    }
+
+    @Override
+    protected void _setLong(int index, long value) {
+        array[index] = (byte) (value >>> 56);
+        array[index + 1] = (byte) (value >>> 48);
+        array[index + 2] = (byte) (value >>> 40);
+        array[index + 3] = (byte) (value >>> 32);
+        array[index + 4] = (byte) (value >>> 24);
+        array[index + 5] = (byte) (value >>> 16);
+        array[index + 6] = (byte) (value >>> 8);
+        array[index + 7] = (byte) value;
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, ByteBuf dst, int dstIndex, int length) {
+        checkDstIndex(index, length, dstIndex, dst.capacity());
+        if (dst.hasArray()) {
+            getBytes(index, dst.array(), dst.arrayOffset() + dstIndex, length);
+        } else {
+            dst.setBytes(dstIndex, array, index, length);
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, byte[] dst, int dstIndex, int length) {
+        checkDstIndex(index, length, dstIndex, dst.length);
+        System.arraycopy(array, index, dst, dstIndex, length);
+        return this;
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, ByteBuffer dst) {
+        checkIndex(index, dst.remaining());
+        dst.put(array, index, dst.remaining());
+        return this;
+    }
+
+    @Override
+    public int getBytes(int index, GatheringByteChannel out, int length) throws IOException {
+        ensureAccessible();
+        return out.write(internalNioBuffer(index, length));
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, ByteBuf src, int srcIndex, int length) {
+        checkSrcIndex(index, length, srcIndex, src.capacity());
+        if (src.hasArray()) {
+            setBytes(index, src.array(), src.arrayOffset() + srcIndex, length);
+        } else {
+            src.getBytes(srcIndex, array, index, length);
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, byte[] src, int srcIndex, int length) {
+        checkSrcIndex(index, length, srcIndex, src.length);
+        System.arraycopy(src, srcIndex, array, index, length);
+        return this;
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, ByteBuffer src) {
+        checkIndex(index, src.remaining());
+        src.get(array, index, src.remaining());
+        return this;
+    }
+
+    @Override
+    public int setBytes(int index, ScatteringByteChannel in, int length) throws IOException {
+        ensureAccessible();
+        try {
+            return in.read(internalNioBuffer(index, length));
+        } catch (ClosedChannelException ignored) {
+            return -1;
+        }
+    }
+
+    @Override
+    public ByteBuf copy(int index, int length) {
+        checkIndex(index, length);
+        byte[] copiedArray = new byte[length];
+        System.arraycopy(array, index, copiedArray, 0, length);
+        return new UnpooledHeapByteBuf(alloc(), copiedArray, maxCapacity());
+    }
+
+    @Override
+    public int nioBufferCount() {
+        return 1;
+    }
+
+    @Override
+    public ByteBuffer nioBuffer(int index, int length) {
+        ensureAccessible();
+        return ByteBuffer.wrap(array, index, length).slice();
+    }
+
+    @Override
+    public ByteBuffer internalNioBuffer(int index, int length) {
+        checkIndex(index, length);
+        ByteBuffer tmpNioBuf = this.tmpNioBuf;
+        if (tmpNioBuf == null) {
+            this.tmpNioBuf = tmpNioBuf = ByteBuffer.wrap(array);
+        }
+        tmpNioBuf.clear().position(index).limit(index + length);
+        return tmpNioBuf;
+    }
+
+    @Override
+    public ByteBuffer[] nioBuffers(int index, int length) {
+        return new ByteBuffer[] { nioBuffer(index, length) };
+    }
+
+    @Override
+    protected void deallocate() {
+        array = EMPTY_BYTES;
+        tmpNioBuf = null;
+    }
+}
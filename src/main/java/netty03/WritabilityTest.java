@@ -0,0 +1,93 @@
+package netty03;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 演示外部线程写数据时的背压：先让事件循环线程忙一会儿，写任务都在任务队列中排队，
+ * 外部线程一直写到 isWritable 返回 false 为止。写任务提交的时候就计算了待发送的字节数，所以外部线程写了高水位线左右的数据就会停下来，
+ * 不会在事件循环忙的时候一直往任务队列中塞写任务
+ */
+public class WritabilityTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(WritabilityTest.class);
+
+    //写了这么多还没有看到不可写，说明背压没有生效
+    private static final int MAX_BYTES = 64 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        NioEventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        NioEventLoopGroup workerGroup = new NioEventLoopGroup(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        ServerBootstrap serverBootstrap = new ServerBootstrap();
+        serverBootstrap.group(bossGroup, workerGroup)
+                .childHandler(new ChannelInitializer<NioSocketChannel>() {
+                    @Override
+                    protected void initChannel(final NioSocketChannel ch) {
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelActive(ChannelHandlerContext ctx) {
+                                ctx.fireChannelActive();
+                                new Thread(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        writeUntilUnwritable(ch);
+                                    }
+                                }).start();
+                            }
+
+                            @Override
+                            public void channelInactive(ChannelHandlerContext ctx) {
+                                //服务端的channel关闭了，客户端才可以断开连接
+                                done.countDown();
+                                ctx.fireChannelInactive();
+                            }
+                        });
+                    }
+                });
+        NioServerSocketChannel serverChannel = serverBootstrap.bind(8081);
+        //客户端只连接，不读数据
+        Socket socket = new Socket("127.0.0.1", 8081);
+        done.await(10, TimeUnit.SECONDS);
+        socket.close();
+        serverChannel.close();
+        bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    private static void writeUntilUnwritable(Channel ch) {
+        final CountDownLatch release = new CountDownLatch(1);
+        //让事件循环线程阻塞，外部线程提交的写任务都只能在任务队列中排队
+        ch.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        byte[] data = new byte[1024];
+        int written = 0;
+        while (ch.isWritable() && written < MAX_BYTES) {
+            ch.writeAndFlush(Unpooled.wrappedBuffer(data));
+            written += data.length;
+        }
+        if (ch.isWritable()) {
+            logger.info("写了{}个字节，channel还是可写的，外部线程没有感受到背压！", written);
+        } else {
+            logger.info("写了{}个字节之后isWritable()==false，高水位线是{}，外部线程停止写",
+                    written, ch.config().getWriteBufferHighWaterMark());
+        }
+        release.countDown();
+        //还没有发出去的数据不要了，先关闭服务端的channel，客户端再断开连接
+        ch.close();
+    }
+}
@@ -0,0 +1,46 @@
+package netty03;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description channel 待发送数据量的高低水位线。待发送的字节数超过高水位线时 channel 变为不可写，
+ * 降到低水位线以下才重新变为可写，两条线之间留出空隙，避免可写状态在一条线附近来回切换
+ */
+public final class WriteBufferWaterMark {
+
+    private static final int DEFAULT_LOW_WATER_MARK = 32 * 1024;
+
+    private static final int DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+
+    public static final WriteBufferWaterMark DEFAULT =
+            new WriteBufferWaterMark(DEFAULT_LOW_WATER_MARK, DEFAULT_HIGH_WATER_MARK);
+
+    private final int low;
+
+    private final int high;
+
+    public WriteBufferWaterMark(int low, int high) {
+        if (low < 0) {
+            throw new IllegalArgumentException("write buffer's low water mark must be >= 0");
+        }
+        if (high < low) {
+            throw new IllegalArgumentException(
+                    "write buffer's high water mark cannot be less than low water mark (" + low + "): " + high);
+        }
+        this.low = low;
+        this.high = high;
+    }
+
+    public int low() {
+        return low;
+    }
+
+    public int high() {
+        return high;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBufferWaterMark(low: " + low + ", high: " + high + ")";
+    }
+}
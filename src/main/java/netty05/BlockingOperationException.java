@@ -0,0 +1,27 @@
+package netty05;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 在 Promise 所属的执行器线程中阻塞等待这个 Promise 时抛出。
+ * 执行器只有一个线程，它阻塞了，能完成这个 Promise 的任务也就永远不会被执行，与其死锁不如马上报错
+ */
+public class BlockingOperationException extends IllegalStateException {
+
+    private static final long serialVersionUID = 2462223247762460301L;
+
+    public BlockingOperationException() {
+    }
+
+    public BlockingOperationException(String s) {
+        super(s);
+    }
+
+    public BlockingOperationException(Throwable cause) {
+        super(cause);
+    }
+
+    public BlockingOperationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
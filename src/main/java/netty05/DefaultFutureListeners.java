@@ -0,0 +1,63 @@
+package netty05;
+
+import java.util.Arrays;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 一个 Promise 上有多个监听器时用来存放监听器的数组。
+ * 绝大多数 Promise 只有一个监听器，这时 DefaultPromise 直接保存监听器本身，第二个监听器加进来的时候才创建这个对象
+ */
+final class DefaultFutureListeners {
+
+    private GenericFutureListener<?>[] listeners;
+
+    private int size;
+
+    DefaultFutureListeners(GenericFutureListener<?> first, GenericFutureListener<?> second) {
+        listeners = new GenericFutureListener<?>[2];
+        listeners[0] = first;
+        listeners[1] = second;
+        size = 2;
+    }
+
+    public void add(GenericFutureListener<?> l) {
+        GenericFutureListener<?>[] listeners = this.listeners;
+        final int size = this.size;
+        if (size == listeners.length) {
+            this.listeners = listeners = Arrays.copyOf(listeners, size << 1);
+        }
+        listeners[size] = l;
+        this.size = size + 1;
+    }
+
+    /**
+     * 只删除第一个相等的监听器
+     */
+    public void remove(GenericFutureListener<?> l) {
+        final GenericFutureListener<?>[] listeners = this.listeners;
+        int size = this.size;
+        for (int i = 0; i < size; i ++) {
+            if (listeners[i] == l) {
+                int listenersToMove = size - i - 1;
+                if (listenersToMove > 0) {
+                    System.arraycopy(listeners, i + 1, listeners, i, listenersToMove);
+                }
+                listeners[-- size] = null;
+                this.size = size;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 直接返回内部的数组，有效的元素个数由size()得到
+     */
+    public GenericFutureListener<?>[] listeners() {
+        return listeners;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -1,60 +1,368 @@
 package netty05;
 
+import netty03.SingleThreadEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author Joe Lee
  * @date
- * @Description
+ * @Description 除了阻塞等待结果之外，还可以添加监听器，完成之后由监听器处理结果。
+ * 监听器总是在 Promise 所属的单线程执行器中被通知：完成 Promise 的线程就是执行器的线程时直接通知，否则把通知提交给执行器。
+ * 这样监听器和该执行器中的其他任务不会并发执行，事件循环线程也不用阻塞在 get 方法上。
+ * 结果只能从未完成变为成功、失败或者取消中的一种，状态的变化用 CAS 完成，不加锁；
+ * 阻塞等待的线程组成一个无锁的栈，用 LockSupport 挂起和唤醒，和 FutureTask 的做法一样
  */
 public class DefaultPromise<V> implements Promise<V> {
-    //执行后得到的结果要赋值给该属性
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultPromise.class);
+
+    //监听器中又完成了别的Promise，会在同一个线程中嵌套通知监听器，嵌套太深的时候改为提交给执行器，防止栈溢出
+    private static final int MAX_LISTENER_STACK_DEPTH = 8;
+
+    //每个线程当前嵌套通知的深度，用数组是为了修改的时候不用每次都装箱
+    private static final ThreadLocal<int[]> LISTENER_STACK_DEPTH = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<DefaultPromise, Object> RESULT_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(DefaultPromise.class, Object.class, "result");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<DefaultPromise, WaitNode> WAITERS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(DefaultPromise.class, WaitNode.class, "waiters");
+
+    //成功了但是结果是null时，result被赋值为这个对象
+    private static final Object SUCCESS = new Object();
+
+    //任务已经开始执行，不能再取消了，但是还没有完成
+    private static final Object UNCANCELLABLE = new Object();
+
+    //所有被取消的Promise共用这一个异常，取消是正常的操作，不需要每次都填充异常栈
+    private static final CauseHolder CANCELLATION_CAUSE_HOLDER = new CauseHolder(new CancellationException() {
+        private static final long serialVersionUID = -4101470962536536089L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    });
+
+    //状态和结果都保存在这个属性中：null表示还没有完成，UNCANCELLABLE表示正在执行，
+    //SUCCESS表示结果为null的成功，CauseHolder表示失败或者取消，其他值就是成功的结果
     private volatile Object result;
     //用户传进来的要被执行的又返回值的任务
     private Callable<V> callable;
-    //这个成员变量的作用很简单，当有一个外部线程在await方法中阻塞了，该属性就加1，每当一个外部
-    //线程被唤醒了，该属性就减1.简单来说，就是用来记录阻塞的外部线程数量的
-    //在我们手写的代码和源码中，这个成员变量是Short类型的，限制阻塞线程的数量，如果阻塞的
-    //线程太多就报错，这里我们只做简单实现
-    private int waiters;
+    //通知监听器的执行器，为null时在完成Promise的线程中直接通知
+    private final SingleThreadEventExecutor executor;
+    //一个监听器时是GenericFutureListener，多个监听器时是DefaultFutureListeners，由synchronized(this)保护。
+    //完成Promise的线程不加锁读取它，判断有没有必要通知监听器，所以要用volatile修饰
+    private volatile Object listeners;
+    //正在通知监听器，防止多个线程同时通知，打乱监听器的顺序
+    private boolean notifyingListeners;
+    //在await方法中阻塞的线程组成的栈，完成的时候把整个栈取下来，逐个唤醒
+    private volatile WaitNode waiters;
 
     public DefaultPromise(Callable<V> callable) {
+        this(null, callable);
+    }
+
+    /**
+     * 不执行任务，由调用者通过setSuccess、setFailure设置结果
+     */
+    public DefaultPromise(SingleThreadEventExecutor executor) {
+        this(executor, null);
+    }
+
+    public DefaultPromise(SingleThreadEventExecutor executor, Callable<V> callable) {
+        this.executor = executor;
         this.callable = callable;
     }
 
+    /**
+     * 执行runnable，执行成功之后以result作为结果
+     */
+    public DefaultPromise(SingleThreadEventExecutor executor, Runnable runnable, V result) {
+        this(executor, new RunnableAdapter<V>(runnable, result));
+    }
+
+    /**
+     * 通知监听器的执行器
+     */
+    protected SingleThreadEventExecutor executor() {
+        return executor;
+    }
+
     @Override
     public void run() {
-        V object;
         //得到callable
         Callable<V> c = callable;
-        //执行callable，得到返回值
+        //没有任务，或者已经被取消了、已经执行过了
+        if (c == null || !RESULT_UPDATER.compareAndSet(this, null, UNCANCELLABLE)) {
+            return;
+        }
         try {
-            object = c.call();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            //执行callable，得到返回值，走到下一行就意味着任务正常结束
+            set(c.call());
+        } catch (Throwable t) {
+            //任务抛出了异常，也要完成Promise，否则等待结果的线程会一直阻塞
+            setFailure0(t);
+        } finally {
+            callable = null;
         }
-        //走到这就意味着任务正常结束，可以正常把执行结果赋值给成员变量outcome
-        set(object);
-
     }
 
     protected void set(V v) {
-        result = v;
-        //唤醒被阻塞的外部线程
-        checkNotifyWaiters();
+        setSuccess0(v);
+    }
+
+    @Override
+    public Promise<V> setSuccess(V result) {
+        if (setSuccess0(result)) {
+            return this;
+        }
+        throw new IllegalStateException("complete already: " + this);
+    }
+
+    @Override
+    public boolean trySuccess(V result) {
+        return setSuccess0(result);
+    }
+
+    @Override
+    public Promise<V> setFailure(Throwable cause) {
+        if (setFailure0(cause)) {
+            return this;
+        }
+        throw new IllegalStateException("complete already: " + this, cause);
+    }
+
+    @Override
+    public boolean tryFailure(Throwable cause) {
+        return setFailure0(cause);
+    }
+
+    private boolean setSuccess0(V result) {
+        return setValue0(result == null ? SUCCESS : result);
+    }
+
+    private boolean setFailure0(Throwable cause) {
+        if (cause == null) {
+            throw new NullPointerException("cause");
+        }
+        return setValue0(new CauseHolder(cause));
+    }
+
+    private boolean setValue0(Object objResult) {
+        //结果只能设置一次，未完成和正在执行两种状态都可以完成
+        if (RESULT_UPDATER.compareAndSet(this, null, objResult)
+                || RESULT_UPDATER.compareAndSet(this, UNCANCELLABLE, objResult)) {
+            completed();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 结果设置成功之后，唤醒阻塞的线程，通知监听器
+     */
+    private void completed() {
+        releaseWaiters();
+        //addListener先加监听器再检查isDone，这里先设置结果再检查监听器，两边至少有一边会看到对方，不会漏掉通知
+        if (listeners != null) {
+            notifyListeners();
+        }
+    }
+
+    /**
+     * 把等待的线程全部取下来并唤醒
+     */
+    private void releaseWaiters() {
+        for (WaitNode q; (q = waiters) != null;) {
+            if (WAITERS_UPDATER.compareAndSet(this, q, null)) {
+                for (;;) {
+                    Thread t = q.thread;
+                    if (t != null) {
+                        q.thread = null;
+                        LockSupport.unpark(t);
+                    }
+                    WaitNode next = q.next;
+                    if (next == null) {
+                        break;
+                    }
+                    q.next = null;
+                    q = next;
+                }
+                break;
+            }
+        }
+    }
+
+    @Override
+    public boolean setUncancellable() {
+        if (RESULT_UPDATER.compareAndSet(this, null, UNCANCELLABLE)) {
+            return true;
+        }
+        Object result = this.result;
+        return !isDone0(result) || !isCancelled0(result);
+    }
+
+    @Override
+    public boolean isSuccess() {
+        Object result = this.result;
+        return result != null && result != UNCANCELLABLE && !(result instanceof CauseHolder);
+    }
+
+    @Override
+    public Throwable cause() {
+        Object result = this.result;
+        return result instanceof CauseHolder ? ((CauseHolder) result).cause : null;
+    }
+
+    @Override
+    public Promise<V> addListener(GenericFutureListener<? extends Future<? super V>> listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        synchronized (this) {
+            if (listeners == null) {
+                listeners = listener;
+            } else if (listeners instanceof DefaultFutureListeners) {
+                ((DefaultFutureListeners) listeners).add(listener);
+            } else {
+                listeners = new DefaultFutureListeners((GenericFutureListener<?>) listeners, listener);
+            }
+        }
+        //已经完成了，马上通知刚加进来的监听器
+        if (isDone()) {
+            notifyListeners();
+        }
+        return this;
+    }
+
+    @Override
+    public Promise<V> removeListener(GenericFutureListener<? extends Future<? super V>> listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        synchronized (this) {
+            if (listeners instanceof DefaultFutureListeners) {
+                ((DefaultFutureListeners) listeners).remove(listener);
+            } else if (listeners == listener) {
+                listeners = null;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 在执行器的线程中通知监听器。当前线程就是执行器的线程，并且嵌套不深的时候直接通知，否则提交给执行器
+     */
+    private void notifyListeners() {
+        SingleThreadEventExecutor executor = executor();
+        if (executor == null || executor.inEventLoop(Thread.currentThread())) {
+            final int[] depth = LISTENER_STACK_DEPTH.get();
+            final int stackDepth = depth[0];
+            //没有执行器的时候只能在当前线程中通知
+            if (stackDepth < MAX_LISTENER_STACK_DEPTH || executor == null) {
+                depth[0] = stackDepth + 1;
+                try {
+                    notifyListenersNow();
+                } finally {
+                    depth[0] = stackDepth;
+                }
+                return;
+            }
+        }
+        safeExecute(executor, new Runnable() {
+            @Override
+            public void run() {
+                notifyListenersNow();
+            }
+        });
+    }
+
+    /**
+     * 把通知监听器的任务提交给执行器。执行器已经关闭，或者拒绝了这个任务的时候，Promise的状态已经改变了，
+     * 不能再让setSuccess、setFailure抛出异常，只能记录日志，这些监听器不会再被通知了
+     */
+    private static void safeExecute(SingleThreadEventExecutor executor, Runnable task) {
+        try {
+            executor.executeInternal(task);
+        } catch (RejectedExecutionException e) {
+            logger.error("Failed to submit a listener notification task. Event loop shut down?", e);
+        }
+    }
+
+    private void notifyListenersNow() {
+        Object listeners;
+        synchronized (this) {
+            //其他线程正在通知，它通知完之后会检查有没有新加进来的监听器
+            if (notifyingListeners || this.listeners == null) {
+                return;
+            }
+            notifyingListeners = true;
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+        for (;;) {
+            if (listeners instanceof DefaultFutureListeners) {
+                notifyListeners0((DefaultFutureListeners) listeners);
+            } else {
+                notifyListener0(this, (GenericFutureListener<?>) listeners);
+            }
+            //通知的过程中可能又加进来了新的监听器
+            synchronized (this) {
+                if (this.listeners == null) {
+                    notifyingListeners = false;
+                    return;
+                }
+                listeners = this.listeners;
+                this.listeners = null;
+            }
+        }
+    }
+
+    private void notifyListeners0(DefaultFutureListeners listeners) {
+        GenericFutureListener<?>[] a = listeners.listeners();
+        int size = listeners.size();
+        for (int i = 0; i < size; i ++) {
+            notifyListener0(this, a[i]);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void notifyListener0(Future future, GenericFutureListener l) {
+        try {
+            l.operationComplete(future);
+        } catch (Throwable t) {
+            //一个监听器出错了，不能影响其他监听器
+            logger.warn("An exception was thrown by " + l.getClass().getName() + ".operationComplete()", t);
+        }
     }
 
     @Override
     public V get() throws InterruptedException, ExecutionException{
         //说明这时候没有结果
-        if (result == null) {
+        if (!isDone()) {
             //就要阻塞等待，这个等待，指的是外部调用get方法的线程等待
             await();
         }
-        return getNow();
+        return report();
     }
 
     //有限时地获取任务的返回结果
@@ -62,13 +370,26 @@ public class DefaultPromise<V> implements Promise<V> {
     public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
         //阻塞了用户设定的时间之后
         if (await(timeout, unit)) {
+            return report();
+        }
+        throw new TimeoutException();
+    }
+
+    //按照Future的约定返回结果：取消了抛出CancellationException，失败了抛出ExecutionException
+    private V report() throws ExecutionException {
+        Throwable cause = cause();
+        if (cause == null) {
             //直接返回任务的执行结果
             return getNow();
         }
-        return null;
+        if (cause == CANCELLATION_CAUSE_HOLDER.cause) {
+            throw new CancellationException();
+        }
+        throw new ExecutionException(cause);
     }
 
     //等待结果的方法
+    @Override
     public Promise<V> await() throws InterruptedException {
         //如果已经执行完成，直接返回即可
         if (isDone()) {
@@ -78,32 +399,15 @@ public class DefaultPromise<V> implements Promise<V> {
         if (Thread.interrupted()) {
             throw new InterruptedException(toString());
         }
-        //wait要和synchronized一起使用，在futurtask的源码中
-        //这里使用了LockSupport.park方法
-        synchronized (this) {
-            //如果成功赋值则直接返回，不成功进入循环
-            while (!isDone()) {
-                //waiters字段加一，记录在此阻塞的线程数量
-                ++waiters;
-                try {
-                    //释放锁并等待
-                    wait();
-                } finally {
-                    //等待结束waiters字段减一
-                    --waiters;
-                }
-            }
-        }
+        checkDeadLock();
+        await0(0, false);
         return this;
     }
 
     //有限时地等待结果的方法
+    @Override
     public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
-        return await0(unit.toNanos(timeout), true);
-    }
-
-    //这个方法虽然很长，但是逻辑都很简单
-    private boolean await0(long timeoutNanos, boolean interruptable) throws InterruptedException {
+        long timeoutNanos = unit.toNanos(timeout);
         //执行成功则直接返回
         if (isDone()) {
             return true;
@@ -112,68 +416,121 @@ public class DefaultPromise<V> implements Promise<V> {
         if (timeoutNanos <= 0) {
             return isDone();
         }
-        //interruptable为true则允许抛出中断异常，为false则不允许，判断当前线程是否被中断了
-        //如果都为true则抛出中断异常
-        if (interruptable && Thread.interrupted()) {
+        if (Thread.interrupted()) {
             throw new InterruptedException(toString());
         }
-        //获取当前纳秒时间
-        long startTime = System.nanoTime();
-        //用户设置的等待时间
-        long waitTime = timeoutNanos;
+        checkDeadLock();
+        return await0(timeoutNanos, true);
+    }
+
+    /**
+     * 执行器的线程阻塞等待自己的Promise，永远也等不到结果，直接抛出异常
+     */
+    protected void checkDeadLock() {
+        SingleThreadEventExecutor executor = executor();
+        if (executor != null && executor.inEventLoop(Thread.currentThread())) {
+            throw new BlockingOperationException(toString());
+        }
+    }
+
+    /**
+     * 把当前线程压入等待栈，然后挂起，直到完成、超时或者被中断。
+     * 有限时的等待按截止时间计算剩余的纳秒数，被提前唤醒之后只等待剩下的时间
+     */
+    private boolean await0(long timeoutNanos, boolean timed) throws InterruptedException {
+        final long deadline = timed ? System.nanoTime() + timeoutNanos : 0L;
+        WaitNode q = null;
+        boolean queued = false;
         for (;;) {
-            synchronized (this) {
-                //再次判断是否执行完成了
-                if (isDone()) {
-                    return true;
-                }
-                //如果没有执行完成，则开始阻塞等待，阻塞线程数加一
-                ++waiters;
-                try {
-                    //阻塞在这里
-                    wait(timeoutNanos);
-                } finally {
-                    //阻塞线程数减一
-                    --waiters;
-                }
-            }
-            //走到这里说明线程被唤醒了
             if (isDone()) {
+                if (q != null) {
+                    q.thread = null;
+                }
                 return true;
-            } else {
-                //可能是虚假唤醒。
-                //System.nanoTime() - startTime得到的是经过的时间
-                //得到新的等待时间，如果等待时间小于0，表示已经阻塞了用户设定的等待时间。如果waitTime大于0，则继续循环
-                waitTime = timeoutNanos - (System.nanoTime() - startTime);
-                if (waitTime <= 0) {
+            }
+            if (Thread.interrupted()) {
+                removeWaiter(q);
+                throw new InterruptedException(toString());
+            }
+            if (q == null) {
+                q = new WaitNode();
+            } else if (!queued) {
+                //压栈之后还会再检查一次isDone，所以不会错过完成时的唤醒
+                queued = WAITERS_UPDATER.compareAndSet(this, q.next = waiters, q);
+            } else if (timed) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0L) {
+                    removeWaiter(q);
                     return isDone();
                 }
+                LockSupport.parkNanos(this, nanos);
+            } else {
+                LockSupport.park(this);
             }
         }
     }
 
-    //检查并且唤醒阻塞线程的方法
-    private synchronized void checkNotifyWaiters() {
-        if (waiters > 0) {
-            notifyAll();
+    /**
+     * 超时或者被中断的线程把自己从等待栈中删除，否则栈中会留下越来越多没用的节点。
+     * 先把节点的thread置为null，再把thread为null的节点都从栈中摘掉，遇到竞争就从头再来
+     */
+    private void removeWaiter(WaitNode node) {
+        if (node == null) {
+            return;
+        }
+        node.thread = null;
+        retry:
+        for (;;) {
+            for (WaitNode pred = null, q = waiters, s; q != null; q = s) {
+                s = q.next;
+                if (q.thread != null) {
+                    pred = q;
+                } else if (pred != null) {
+                    pred.next = s;
+                    //前一个节点也被删除了，要从头再来
+                    if (pred.thread == null) {
+                        continue retry;
+                    }
+                } else if (!WAITERS_UPDATER.compareAndSet(this, q, s)) {
+                    continue retry;
+                }
+            }
+            break;
         }
     }
 
-    //直接返回任务的执行结果，如果result未被赋值，则直接返回null
+    //直接返回任务的执行结果，如果result未被赋值，或者任务失败了，则直接返回null
+    @Override
+    @SuppressWarnings("unchecked")
     public V getNow() {
         Object result = this.result;
+        if (result instanceof CauseHolder || result == SUCCESS || result == UNCANCELLABLE) {
+            return null;
+        }
         return (V) result;
     }
 
 
+    /**
+     * 只有还没有开始执行的Promise才能取消，任务一旦开始执行就不能再取消了，所以mayInterruptIfRunning没有作用
+     */
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
+        if (RESULT_UPDATER.compareAndSet(this, null, CANCELLATION_CAUSE_HOLDER)) {
+            callable = null;
+            completed();
+            return true;
+        }
         return false;
     }
 
     @Override
     public boolean isCancelled() {
-        return false;
+        return isCancelled0(result);
+    }
+
+    private static boolean isCancelled0(Object result) {
+        return result == CANCELLATION_CAUSE_HOLDER;
     }
 
     //任务是否已经执行完成，也就是判断result成员变量是否被赋值了
@@ -183,10 +540,66 @@ public class DefaultPromise<V> implements Promise<V> {
     }
 
     private static boolean isDone0(Object result) {
-        return result != null;
+        return result != null && result != UNCANCELLABLE;
     }
 
 
     //先暂且实现这几个方法，接口中的其他方法，等需要的时候再做实现
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder(64)
+                .append(getClass().getSimpleName())
+                .append('@')
+                .append(Integer.toHexString(hashCode()));
+        Object result = this.result;
+        if (result == SUCCESS) {
+            buf.append("(success)");
+        } else if (result == UNCANCELLABLE) {
+            buf.append("(uncancellable)");
+        } else if (result instanceof CauseHolder) {
+            buf.append("(failure: ").append(((CauseHolder) result).cause).append(')');
+        } else if (result != null) {
+            buf.append("(success: ").append(result).append(')');
+        } else {
+            buf.append("(incomplete)");
+        }
+        return buf.toString();
+    }
+
+    //把Runnable包装成Callable，执行完返回固定的结果
+    private static final class RunnableAdapter<T> implements Callable<T> {
+        final Runnable task;
+        final T result;
+
+        RunnableAdapter(Runnable task, T result) {
+            if (task == null) {
+                throw new NullPointerException("task");
+            }
+            this.task = task;
+            this.result = result;
+        }
+
+        @Override
+        public T call() {
+            task.run();
+            return result;
+        }
+    }
+
+    //等待栈中的节点，thread为null表示这个线程已经被唤醒或者不再等待了
+    private static final class WaitNode {
+        volatile Thread thread = Thread.currentThread();
+        volatile WaitNode next;
+    }
+
+    //失败的原因要和正常的结果区分开，所以包装一层
+    private static final class CauseHolder {
+        final Throwable cause;
+
+        CauseHolder(Throwable cause) {
+            this.cause = cause;
+        }
+    }
 }
 
@@ -23,6 +23,13 @@ public class DefaultPromiseTest {
         };
         //创建一个DefaultPromise，把任务传进DefaultPromise中
         Promise<Integer> promise = new DefaultPromise<Integer>(callable);
+        //添加监听器，任务完成之后会回调监听器，不用阻塞等待结果
+        promise.addListener(new GenericFutureListener<Promise<Integer>>() {
+            @Override
+            public void operationComplete(Promise<Integer> future) throws Exception {
+                System.out.println("监听器收到结果：" + future.getNow());
+            }
+        });
         //创建一个线程
         Thread t = new Thread(promise);
         t.start();
@@ -0,0 +1,18 @@
+package netty05;
+
+import java.util.EventListener;
+import java.util.concurrent.Future;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 监听 Promise 的结果，Promise 完成之后回调 operationComplete。
+ * 有了监听器，拿结果的线程就不用在 get 方法中阻塞等待了，事件循环线程也可以放心地使用异步的结果
+ */
+public interface GenericFutureListener<F extends Future<?>> extends EventListener {
+
+    /**
+     * Promise完成的时候被调用，成功、失败都会调用
+     */
+    void operationComplete(F future) throws Exception;
+}
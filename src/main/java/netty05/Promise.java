@@ -1,6 +1,7 @@
 package netty05;
 
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Joe Lee
@@ -12,4 +13,64 @@ public interface Promise<V> extends Runnable, Future<V> {
     @Override
     void run();
 
+    /**
+     * 任务成功完成时返回true
+     */
+    boolean isSuccess();
+
+    /**
+     * 任务失败的原因，还没有完成或者成功完成时返回null
+     */
+    Throwable cause();
+
+    /**
+     * 设置成功的结果并通知所有的监听器，已经完成了的话抛出IllegalStateException
+     */
+    Promise<V> setSuccess(V result);
+
+    /**
+     * 设置成功的结果并通知所有的监听器
+     * @return 已经完成了的话返回false
+     */
+    boolean trySuccess(V result);
+
+    /**
+     * 设置失败的原因并通知所有的监听器，已经完成了的话抛出IllegalStateException
+     */
+    Promise<V> setFailure(Throwable cause);
+
+    /**
+     * 设置失败的原因并通知所有的监听器
+     * @return 已经完成了的话返回false
+     */
+    boolean tryFailure(Throwable cause);
+
+    /**
+     * 把Promise标记为不能取消，任务开始执行之前调用
+     * @return 标记成功，或者已经完成并且不是被取消的时候返回true
+     */
+    boolean setUncancellable();
+
+    /**
+     * 添加监听器，Promise已经完成了的话马上通知这个监听器
+     */
+    Promise<V> addListener(GenericFutureListener<? extends Future<? super V>> listener);
+
+    Promise<V> removeListener(GenericFutureListener<? extends Future<? super V>> listener);
+
+    /**
+     * 阻塞等待Promise完成。在Promise所属的执行器线程中调用会抛出BlockingOperationException
+     */
+    Promise<V> await() throws InterruptedException;
+
+    /**
+     * 最多阻塞等待timeout的时间
+     * @return 在超时之前完成了返回true
+     */
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 直接返回结果，不阻塞，还没有完成的时候返回null
+     */
+    V getNow();
 }
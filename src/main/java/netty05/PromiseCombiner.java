@@ -0,0 +1,175 @@
+package netty05;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * @author Joe Lee
+ * @date
+ * @Description 把多个 Promise 合并成一个 Promise。先用 add 加入要合并的 Promise，最后调用 finish 传入合并后的 Promise，
+ * 合并后的 Promise 在什么时候完成由 Mode 决定。
+ * 整个过程不阻塞任何线程：所有加进来的 Promise 共用同一个监听器，监听器只做计数，
+ * 除了这一个监听器之外不会为每个 Promise 创建任何对象。计数用 CAS 完成，各个 Promise 可以在不同的事件循环中完成。
+ * add 和 finish 要在同一个线程中调用
+ */
+public final class PromiseCombiner {
+
+    /**
+     * 合并后的 Promise 什么时候完成
+     */
+    public enum Mode {
+        /**
+         * 等所有的Promise都完成，全部成功时成功，否则以第一个失败的原因失败
+         */
+        ALL,
+        /**
+         * 全部成功时成功，只要有一个失败了就马上以它的原因失败，不再等待其他的Promise
+         */
+        FAIL_FAST,
+        /**
+         * 只要有一个成功了就马上成功，全部失败时以第一个失败的原因失败
+         */
+        ANY
+    }
+
+    private static final AtomicIntegerFieldUpdater<PromiseCombiner> DONE_COUNT_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(PromiseCombiner.class, "doneCount");
+
+    private static final AtomicReferenceFieldUpdater<PromiseCombiner, Throwable> CAUSE_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(PromiseCombiner.class, Throwable.class, "cause");
+
+    private final Mode mode;
+
+    //加进来的Promise的数量，只有调用add的线程修改
+    private volatile int expectedCount;
+
+    //已经完成的Promise的数量
+    private volatile int doneCount;
+
+    //第一个失败的原因
+    private volatile Throwable cause;
+
+    //ANY模式下有没有Promise成功了
+    private volatile boolean anySucceeded;
+
+    //合并后的Promise，finish之后才有值
+    private volatile Promise<Void> aggregatePromise;
+
+    //所有加进来的Promise共用这一个监听器
+    private final GenericFutureListener<Future<?>> listener = new GenericFutureListener<Future<?>>() {
+        @Override
+        public void operationComplete(Future<?> future) {
+            Promise<?> promise = (Promise<?>) future;
+            if (promise.isSuccess()) {
+                if (mode == Mode.ANY) {
+                    anySucceeded = true;
+                }
+            } else {
+                //只保留第一个失败的原因
+                CAUSE_UPDATER.compareAndSet(PromiseCombiner.this, null, promise.cause());
+            }
+            //先记录结果再计数，tryComplete看到计数的时候一定也能看到结果
+            DONE_COUNT_UPDATER.incrementAndGet(PromiseCombiner.this);
+            tryComplete();
+        }
+    };
+
+    public PromiseCombiner() {
+        this(Mode.ALL);
+    }
+
+    public PromiseCombiner(Mode mode) {
+        if (mode == null) {
+            throw new NullPointerException("mode");
+        }
+        this.mode = mode;
+    }
+
+    /**
+     * 加入一个要合并的Promise，必须在finish之前调用
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void add(Promise<?> promise) {
+        if (promise == null) {
+            throw new NullPointerException("promise");
+        }
+        checkAddAllowed();
+        //先计数再加监听器，监听器可能马上就被调用
+        expectedCount++;
+        ((Promise) promise).addListener(listener);
+    }
+
+    public void addAll(Promise<?>... promises) {
+        for (Promise<?> promise : promises) {
+            add(promise);
+        }
+    }
+
+    /**
+     * 不再加入新的Promise，所有的结果都出来之后完成aggregatePromise。
+     * 在这之前已经能确定结果的话，aggregatePromise会被马上完成
+     */
+    public void finish(Promise<Void> aggregatePromise) {
+        if (aggregatePromise == null) {
+            throw new NullPointerException("aggregatePromise");
+        }
+        checkAddAllowed();
+        this.aggregatePromise = aggregatePromise;
+        tryComplete();
+    }
+
+    private void checkAddAllowed() {
+        if (aggregatePromise != null) {
+            throw new IllegalStateException("Adding promises is not allowed after finished adding");
+        }
+    }
+
+    /**
+     * 检查能不能确定合并后的结果。监听器先计数再读取aggregatePromise，finish先赋值aggregatePromise再读取计数，
+     * 所以最后一个Promise完成和finish同时发生的时候，至少有一边能看到全部的结果。
+     * 可能被多个线程重复调用，用try方法完成Promise，只有第一次会生效
+     */
+    private void tryComplete() {
+        Promise<Void> aggregatePromise = this.aggregatePromise;
+        if (aggregatePromise == null) {
+            //还没有finish，可能还有Promise要加进来
+            return;
+        }
+        boolean allDone = doneCount == expectedCount;
+        switch (mode) {
+            case ALL:
+                if (allDone) {
+                    complete(aggregatePromise, cause);
+                }
+                break;
+            case FAIL_FAST:
+                Throwable cause = this.cause;
+                if (cause != null) {
+                    aggregatePromise.tryFailure(cause);
+                } else if (allDone) {
+                    aggregatePromise.trySuccess(null);
+                }
+                break;
+            case ANY:
+                if (anySucceeded) {
+                    aggregatePromise.trySuccess(null);
+                } else if (allDone) {
+                    //一个Promise也没有加进来的时候，也算作没有一个成功
+                    Throwable c = this.cause;
+                    aggregatePromise.tryFailure(c != null ? c : new IllegalStateException("no promise to wait for"));
+                }
+                break;
+            default:
+                throw new Error();
+        }
+    }
+
+    private static void complete(Promise<Void> aggregatePromise, Throwable cause) {
+        if (cause == null) {
+            aggregatePromise.trySuccess(null);
+        } else {
+            aggregatePromise.tryFailure(cause);
+        }
+    }
+}